@@ -2,8 +2,10 @@ package ch.bbw.pr.tresorbackend;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class TresorbackendApplication {
    public static void main(String[] args) {
       SpringApplication.run(TresorbackendApplication.class, args);
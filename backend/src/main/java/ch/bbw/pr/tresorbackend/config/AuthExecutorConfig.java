@@ -0,0 +1,46 @@
+package ch.bbw.pr.tresorbackend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools for the blocking I/O of the login (Turnstile, user lookup, 2FA email)
+ */
+@Configuration
+public class AuthExecutorConfig {
+
+    /**
+     * Runs the Turnstile verification and the user lookup of a login side by side.
+     * When the queue is full the request thread does the work itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService loginExecutor(
+            @Value("${app.login.pool-size:16}") int poolSize,
+            @Value("${app.login.queue-capacity:200}") int queueCapacity) {
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("login-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Sends 2FA emails after the response. When the queue is full the caller sends it itself,
+     * so a code is never dropped.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService mailExecutor(
+            @Value("${app.mail.pool-size:4}") int poolSize,
+            @Value("${app.mail.queue-capacity:500}") int queueCapacity) {
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("mail-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
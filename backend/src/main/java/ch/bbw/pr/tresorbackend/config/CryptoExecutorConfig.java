@@ -0,0 +1,63 @@
+package ch.bbw.pr.tresorbackend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools for CPU bound crypto work, kept apart from the Tomcat request threads
+ */
+@Configuration
+public class CryptoExecutorConfig {
+
+    /**
+     * Pool used to decrypt the secrets of a vault in parallel.
+     * Submissions beyond the queue capacity or after shutdown are rejected; SecretDecryptionPipeline
+     * then runs the work on the request thread instead of failing.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService secretDecryptionExecutor(
+            @Value("${app.secret-decryption.pool-size:0}") int poolSize,
+            @Value("${app.secret-decryption.queue-capacity:1000}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("secret-decrypt-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool for password hashing (BCrypt) of login, registration and password reset, sized to the
+     * cores. Submissions beyond the queue capacity are rejected, the request is answered with 503
+     * instead of tying up another request thread.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor passwordHashExecutor(
+            @Value("${app.password-hash.pool-size:0}") int poolSize,
+            @Value("${app.password-hash.queue-capacity:32}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("password-hash-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Single background worker for re-encrypting secrets and re-wrapping data keys
+     * whose parameters are weaker than the current policy. Submissions beyond the queue
+     * capacity are rejected; the callers drop them and pick them up on a later read.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService reencryptionExecutor(
+            @Value("${app.reencryption.queue-capacity:1000}") int queueCapacity) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("secret-reencrypt-"));
+    }
+}
@@ -0,0 +1,69 @@
+package ch.bbw.pr.tresorbackend.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the secret table of existing databases in line with the envelope format.
+ * Databases created from the original script have content as json NOT NULL, and
+ * ddl-auto=update never relaxes that, so every insert with only the binary payload would fail.
+ * Runs at startup after Hibernate updated the schema; with auto-migrate disabled an outdated
+ * column stops the startup instead of failing on the first write.
+ */
+@Component
+public class SecretSchemaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretSchemaMigration.class);
+
+    static final String RELAX_CONTENT_SQL = "ALTER TABLE secret MODIFY content LONGTEXT NULL";
+    private static final String CONTENT_COLUMN_SQL =
+            "SELECT IS_NULLABLE, DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS "
+                    + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'secret' AND COLUMN_NAME = 'content'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean autoMigrate;
+
+    // The EntityManagerFactory is only injected so this runs after Hibernate's schema update
+    public SecretSchemaMigration(JdbcTemplate jdbcTemplate,
+                                 EntityManagerFactory entityManagerFactory,
+                                 @Value("${app.schema.auto-migrate:true}") boolean autoMigrate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.autoMigrate = autoMigrate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        List<Map<String, Object>> columns = jdbcTemplate.queryForList(CONTENT_COLUMN_SQL);
+        if (columns.isEmpty()) {
+            return;
+        }
+        Map<String, Object> column = columns.get(0);
+        boolean nullable = "YES".equalsIgnoreCase(String.valueOf(column.get("IS_NULLABLE")));
+        boolean text = "longtext".equalsIgnoreCase(String.valueOf(column.get("DATA_TYPE")));
+        if (nullable && text) {
+            return;
+        }
+
+        if (!autoMigrate) {
+            throw new IllegalStateException("Column secret.content must be nullable LONGTEXT for the envelope format, "
+                    + "run: " + RELAX_CONTENT_SQL);
+        }
+        try {
+            jdbcTemplate.execute(RELAX_CONTENT_SQL);
+            logger.warn("Migrated column secret.content to nullable LONGTEXT (was {} {})",
+                    column.get("DATA_TYPE"), nullable ? "NULL" : "NOT NULL");
+        } catch (DataAccessException e) {
+            throw new IllegalStateException("Could not migrate column secret.content, run manually: "
+                    + RELAX_CONTENT_SQL, e);
+        }
+    }
+}
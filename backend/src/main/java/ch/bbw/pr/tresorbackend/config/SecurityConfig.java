@@ -1,6 +1,8 @@
 package ch.bbw.pr.tresorbackend.config;
 
 import ch.bbw.pr.tresorbackend.security.JwtAuthenticationFilter;
+import ch.bbw.pr.tresorbackend.security.RateLimitFilter;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -27,6 +29,9 @@ public class SecurityConfig {
     @Autowired
     private JwtAuthenticationFilter jwtAuthenticationFilter;
 
+    @Autowired
+    private RateLimitFilter rateLimitFilter;
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         // Configure security using the new lambda DSL style for Spring Security 6.x
@@ -36,6 +41,8 @@ public class SecurityConfig {
             // Configure session management to be stateless for JWT
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
+                // Async dispatches of already authorized requests (SSE change feed)
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // Public endpoints that don't require authentication
                 .requestMatchers(
                     "/api/users/login", 
@@ -48,9 +55,14 @@ public class SecurityConfig {
                 .requestMatchers(
                     "/api/admin/**"
                 ).hasAuthority("ADMIN")
+                // Metrics expose pool, cache and rate limit internals, health stays available to any user
+                .requestMatchers("/actuator/health", "/actuator/health/**").authenticated()
+                .requestMatchers("/actuator/**").hasAuthority("ADMIN")
                 // All other endpoints require authentication
                 .anyRequest().authenticated()
             )
+            // Rate limit login and 2FA before any authentication work is done
+            .addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class)
             // Add JWT filter before the standard authentication filter
             .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
         
@@ -63,6 +75,8 @@ public class SecurityConfig {
         configuration.setAllowedOrigins(Collections.singletonList(crossOrigin));
         configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         configuration.setAllowedHeaders(Arrays.asList("*"));
+        // Cross-origin scripts only see these response headers if they are listed
+        configuration.setExposedHeaders(Arrays.asList("ETag", "Retry-After", "Idempotent-Replayed"));
         configuration.setAllowCredentials(true);
         
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
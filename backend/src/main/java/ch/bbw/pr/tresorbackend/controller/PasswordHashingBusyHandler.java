@@ -0,0 +1,25 @@
+package ch.bbw.pr.tresorbackend.controller;
+
+import ch.bbw.pr.tresorbackend.service.PasswordHashingBusyException;
+import com.google.gson.JsonObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers login, registration and password reset with 503 while password hashing is saturated
+ */
+@RestControllerAdvice
+public class PasswordHashingBusyHandler {
+
+    @ExceptionHandler(PasswordHashingBusyException.class)
+    public ResponseEntity<String> handleBusy(PasswordHashingBusyException e) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("message", "Too many login attempts at the moment, please try again shortly");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .body(obj.toString());
+    }
+}
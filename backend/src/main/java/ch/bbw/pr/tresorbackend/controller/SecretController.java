@@ -1,21 +1,42 @@
 package ch.bbw.pr.tresorbackend.controller;
 
 import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretChanges;
+import ch.bbw.pr.tresorbackend.model.SecretPage;
+import ch.bbw.pr.tresorbackend.model.SecretSummary;
 import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.service.IdempotencyKeyInProgressException;
+import ch.bbw.pr.tresorbackend.service.IdempotencyKeyReusedException;
+import ch.bbw.pr.tresorbackend.service.IdempotencyStore;
+import ch.bbw.pr.tresorbackend.service.SecretBulkService;
 import ch.bbw.pr.tresorbackend.service.SecretService;
+import ch.bbw.pr.tresorbackend.service.SecretStreamService;
 import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * SecretController
@@ -26,19 +47,51 @@ import java.util.List;
 @RequestMapping("api/secrets")
 public class SecretController {
     private static final Logger logger = LoggerFactory.getLogger(SecretController.class);
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
 
     private final SecretService secretService;
+    private final SecretStreamService secretStreamService;
+    private final SecretBulkService secretBulkService;
     private final UserService userService;
+    private final VaultVersionService vaultVersionService;
+    private final VaultChangeFeed vaultChangeFeed;
+    private final IdempotencyStore idempotencyStore;
 
     @CrossOrigin(origins = "${CROSS_ORIGIN}")
     @PostMapping
-    public ResponseEntity<String> createSecret(@Valid @RequestBody Secret secret) {
+    public ResponseEntity<String> createSecret(@Valid @RequestBody Secret secret,
+                                               @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                               Authentication authentication) {
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return ResponseEntity.badRequest().body("{\"message\": \"Invalid Idempotency-Key\"}");
+        }
         try {
-            Secret savedSecret = secretService.createSecret(secret);
+            Long secretId;
+            boolean replayed = false;
+            if (idempotencyKey == null) {
+                secretId = secretService.createSecret(secret).getId();
+            } else {
+                // Retries with the same key return the first result instead of encrypting again
+                Long owner = Optional.ofNullable(requesterId(authentication)).orElse(secret.getUserId());
+                IdempotencyStore.Outcome outcome = idempotencyStore.execute(owner, idempotencyKey,
+                        secret.getUserId() + "\n" + secret.getContent(),
+                        () -> secretService.createSecret(secret).getId());
+                secretId = outcome.secretId();
+                replayed = outcome.replayed();
+            }
             JsonObject response = new JsonObject();
-            response.addProperty("id", savedSecret.getId());
+            response.addProperty("id", secretId);
             response.addProperty("message", "Secret created successfully");
-            return ResponseEntity.ok(response.toString());
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            if (replayed) {
+                builder.header("Idempotent-Replayed", "true");
+            }
+            return builder.body(response.toString());
+        } catch (IdempotencyKeyReusedException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(message(e.getMessage()));
+        } catch (IdempotencyKeyInProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(message(e.getMessage()));
         } catch (Exception e) {
             logger.error("Error creating secret: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -48,22 +101,138 @@ public class SecretController {
 
     @CrossOrigin(origins = "${CROSS_ORIGIN}")
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Secret>> getSecretsByUserId(@PathVariable Long userId) {
+    public ResponseEntity<List<Secret>> getSecretsByUserId(@PathVariable Long userId,
+                                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            List<Secret> secrets = secretService.getSecretsByUserId(userId);
-            return ResponseEntity.ok(secrets);
+            long version = vaultVersionService.currentVersion(userId);
+            String etag = VaultVersionService.vaultETagOf(version);
+            if (matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            List<Secret> secrets = secretService.getSecretsByUserId(userId, version);
+            return revalidated(etag).body(secrets);
         } catch (Exception e) {
             logger.error("Error getting secrets: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    // One page of the vault, pass nextCursor of the response as "after" for the next one
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/page")
+    public ResponseEntity<SecretPage<Secret>> getSecretsPage(@PathVariable Long userId,
+                                                     @RequestParam(required = false) Long after,
+                                                     @RequestParam(defaultValue = "${app.secret-page.default-size:25}") int size,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            String etag = vaultVersionService.vaultETag(userId);
+            if (matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            SecretPage<Secret> page = secretService.getSecretsPage(userId, after, size);
+            return revalidated(etag).body(page);
+        } catch (Exception e) {
+            logger.error("Error getting secret page: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Kind and title of each secret for list views, bodies are loaded through GET /{id}
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/summaries")
+    public ResponseEntity<SecretPage<SecretSummary>> getSecretSummaries(@PathVariable Long userId,
+                                                                        @RequestParam(required = false) Long after,
+                                                                        @RequestParam(defaultValue = "${app.secret-page.max-size:100}") int size,
+                                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            String etag = vaultVersionService.vaultETag(userId);
+            if (matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            SecretPage<SecretSummary> page = secretService.getSecretSummaries(userId, after, size);
+            return revalidated(etag).body(page);
+        } catch (Exception e) {
+            logger.error("Error getting secret summaries: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Search by whole words of title/URL and optionally kind, through the blind index
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/search")
+    public ResponseEntity<List<Secret>> searchSecrets(@PathVariable Long userId,
+                                                      @RequestParam(required = false) String q,
+                                                      @RequestParam(required = false) String kind) {
+        try {
+            List<Secret> secrets = secretService.searchSecrets(userId, q, kind);
+            return ResponseEntity.ok(secrets);
+        } catch (Exception e) {
+            logger.error("Error searching secrets: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Secrets not covered by the search index yet, search results may miss them while pending > 0
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/search/status")
+    public ResponseEntity<String> getSearchStatus(@PathVariable Long userId) {
+        try {
+            long pending = secretService.countSecretsPendingSearchIndex(userId);
+            JsonObject response = new JsonObject();
+            response.addProperty("pending", pending);
+            response.addProperty("complete", pending == 0);
+            return ResponseEntity.ok(response.toString());
+        } catch (Exception e) {
+            logger.error("Error getting search index status: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Delta sync: secrets changed and ids deleted after the vault version "since", all secrets without it
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/changes")
+    public ResponseEntity<SecretChanges> getChanges(@PathVariable Long userId,
+                                                    @RequestParam(required = false) Long since,
+                                                    @RequestParam(required = false) Long after,
+                                                    @RequestParam(defaultValue = "${app.secret-page.max-size:100}") int size) {
+        try {
+            return ResponseEntity.ok(secretService.getChanges(userId, since, after, size));
+        } catch (Exception e) {
+            logger.error("Error getting secret changes: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Change feed of the caller's own vault as server-sent events
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void subscribeToChanges(Authentication authentication, HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        Long userId = requesterId(authentication);
+        if (userId == null) {
+            response.sendError(HttpStatus.UNAUTHORIZED.value());
+            return;
+        }
+        try {
+            vaultChangeFeed.subscribe(userId, request, response);
+        } catch (IllegalStateException e) {
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        }
+    }
+
     @CrossOrigin(origins = "${CROSS_ORIGIN}")
     @GetMapping("/{id}")
-    public ResponseEntity<Secret> getSecretById(@PathVariable Long id) {
+    public ResponseEntity<Secret> getSecretById(@PathVariable Long id,
+                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                Authentication authentication) {
         try {
-            Secret secret = secretService.getSecretById(id);
-            return ResponseEntity.ok(secret);
+            Optional<Long> revision = secretService.getSecretRevision(id);
+            String etag = revision.map(r -> VaultVersionService.secretETag(id, r)).orElse(null);
+            if (etag != null && matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            Secret secret = secretService.getSecretById(id, requesterId(authentication));
+            return etag != null ? revalidated(etag).body(secret) : ResponseEntity.ok(secret);
         } catch (Exception e) {
             logger.error("Error getting secret: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -74,13 +243,29 @@ public class SecretController {
     @PutMapping("/{id}")
     public ResponseEntity<String> updateSecret(
             @PathVariable Long id,
-            @Valid @RequestBody Secret secret) {
+            @Valid @RequestBody Secret secret,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        // If-Match carries the ETag of GET /{id}, "*" or no header update whatever is stored
+        Long expectedRevision = null;
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedRevision = revisionOf(ifMatch, id);
+            if (expectedRevision == null) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                        .body("{\"message\": \"Secret was changed in the meantime\"}");
+            }
+        }
         try {
             secret.setId(id);
-            Secret updatedSecret = secretService.updateSecret(secret);
+            Secret updatedSecret = secretService.updateSecret(secret, expectedRevision);
             JsonObject response = new JsonObject();
             response.addProperty("message", "Secret updated successfully");
-            return ResponseEntity.ok(response.toString());
+            return ResponseEntity.ok()
+                    .eTag(VaultVersionService.secretETag(id, updatedSecret.getRevision()))
+                    .body(response.toString());
+        } catch (OptimisticLockingFailureException e) {
+            logger.info("Conflicting update of secret {}: {}", id, e.getMessage());
+            return ResponseEntity.status(expectedRevision != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT)
+                    .body("{\"message\": \"Secret was changed in the meantime\"}");
         } catch (Exception e) {
             logger.error("Error updating secret: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -102,4 +287,177 @@ public class SecretController {
                     .body("{\"message\": \"Error deleting secret\"}");
         }
     }
+
+    // Upload a large secret as raw bytes, encrypted in chunks while it is read
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @PostMapping(value = "/user/{userId}/stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> uploadSecret(@PathVariable Long userId, HttpServletRequest request) {
+        try {
+            Secret savedSecret = secretStreamService.upload(userId, request.getInputStream());
+            JsonObject response = new JsonObject();
+            response.addProperty("id", savedSecret.getId());
+            response.addProperty("message", "Secret created successfully");
+            return ResponseEntity.ok(response.toString());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected streamed secret: " + e.getMessage());
+            JsonObject response = new JsonObject();
+            response.addProperty("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(response.toString());
+        } catch (Exception e) {
+            logger.error("Error creating streamed secret: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"message\": \"Error creating secret\"}");
+        }
+    }
+
+    // Download a streamed secret, decrypted chunk by chunk into the response
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/{id}/stream")
+    public ResponseEntity<StreamingResponseBody> downloadSecret(@PathVariable Long id) {
+        try {
+            SecretStreamService.Download download = secretStreamService.openDownload(id);
+            StreamingResponseBody body = out -> secretStreamService.write(download, out);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(download.totalLength())
+                    .body(body);
+        } catch (Exception e) {
+            logger.error("Error getting streamed secret: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Import a JSON array of secrets, reports the outcome per item
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @PostMapping(value = "/user/{userId}/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> importSecrets(@PathVariable Long userId, HttpServletRequest request,
+                                                Authentication authentication) {
+        HttpStatus denied = checkOwner(userId, authentication);
+        if (denied != null) {
+            return ResponseEntity.status(denied).build();
+        }
+        try {
+            SecretBulkService.ImportResult result = secretBulkService.importSecrets(userId, request.getInputStream());
+            JsonArray items = new JsonArray();
+            for (SecretBulkService.ItemResult item : result.results()) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("index", item.index());
+                if (item.error() == null) {
+                    entry.addProperty("id", item.id());
+                } else {
+                    entry.addProperty("error", item.error());
+                }
+                items.add(entry);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("imported", result.imported());
+            response.addProperty("failed", result.failed());
+            response.add("results", items);
+            return ResponseEntity.ok(response.toString());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected secret import: " + e.getMessage());
+            JsonObject response = new JsonObject();
+            response.addProperty("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response.toString());
+        } catch (Exception e) {
+            logger.error("Error importing secrets: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("{\"message\": \"Error importing secrets\"}");
+        }
+    }
+
+    // Export the whole vault as a JSON array, streamed page by page
+    @CrossOrigin(origins = "${CROSS_ORIGIN}")
+    @GetMapping("/user/{userId}/export")
+    public ResponseEntity<StreamingResponseBody> exportSecrets(@PathVariable Long userId,
+                                                               Authentication authentication) {
+        HttpStatus denied = checkOwner(userId, authentication);
+        if (denied != null) {
+            return ResponseEntity.status(denied).build();
+        }
+        try {
+            SecretBulkService.Export export = secretBulkService.openExport(userId);
+            StreamingResponseBody body = out -> secretBulkService.exportSecrets(export, out);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(body);
+        } catch (Exception e) {
+            logger.error("Error exporting secrets: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // The JWT filter authenticates requests with the user id as principal name
+    private static Long requesterId(Authentication authentication) {
+        if (authentication == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(authentication.getName());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String message(String text) {
+        JsonObject response = new JsonObject();
+        response.addProperty("message", text);
+        return response.toString();
+    }
+
+    // Bulk operations are limited to the caller's own vault; null if the caller owns it
+    private static HttpStatus checkOwner(Long userId, Authentication authentication) {
+        Long requester = requesterId(authentication);
+        if (requester == null) {
+            return HttpStatus.UNAUTHORIZED;
+        }
+        return requester.equals(userId) ? null : HttpStatus.FORBIDDEN;
+    }
+
+    // True if one of the tags in If-None-Match is the current one (weak comparison, as RFC 9110 asks for GET)
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Revision of the first strong ETag of this secret in an If-Match header, null if there is none
+    private static Long revisionOf(String ifMatch, Long id) {
+        String prefix = "\"s" + id + "-";
+        for (String tag : ifMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith(prefix) && candidate.endsWith("\"") && candidate.length() > prefix.length() + 1) {
+                try {
+                    return Long.valueOf(candidate.substring(prefix.length(), candidate.length() - 1));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .build();
+    }
+
+    // Lets the browser keep the response but revalidate it with the ETag on every use
+    private static ResponseEntity.BodyBuilder revalidated(String etag) {
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate());
+    }
 }
@@ -8,6 +8,7 @@ import ch.bbw.pr.tresorbackend.model.User;
 import ch.bbw.pr.tresorbackend.security.JwtUtil;
 import ch.bbw.pr.tresorbackend.service.EmailTwoFactorService;
 import ch.bbw.pr.tresorbackend.service.PasswordEncryptionService;
+import ch.bbw.pr.tresorbackend.service.PasswordRehashService;
 import ch.bbw.pr.tresorbackend.service.TurnstileService;
 import ch.bbw.pr.tresorbackend.service.UserService;
 
@@ -19,6 +20,7 @@ import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -26,6 +28,10 @@ import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -181,21 +187,22 @@ public class UserController {
    @Autowired
    private EmailTwoFactorService emailTwoFactorService;
 
+   @Autowired
+   private PasswordRehashService passwordRehashService;
+
+   @Autowired
+   @Qualifier("loginExecutor")
+   private ExecutorService loginExecutor;
+
    @CrossOrigin(origins = "${CROSS_ORIGIN}")
    @PostMapping("/login")
-   public ResponseEntity<String> login(@Valid @RequestBody LoginRequest loginRequest, BindingResult bindingResult, HttpServletRequest request) {
-      // Verify Turnstile token
+   public CompletableFuture<ResponseEntity<String>> login(@Valid @RequestBody LoginRequest loginRequest, BindingResult bindingResult, HttpServletRequest request) {
+      // Turnstile, user lookup and password check run side by side, the request thread is released meanwhile
       String remoteIp = request.getRemoteAddr();
-      boolean turnstileVerified = turnstileService.verifyToken(loginRequest.getTurnstileToken(), remoteIp);
-      
-      if (!turnstileVerified) {
-         logger.warn("Login failed: Invalid Turnstile verification");
-         JsonObject obj = new JsonObject();
-         obj.addProperty("message", "Security verification failed. Please try again.");
-         String json = new Gson().toJson(obj);
-         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(json);
-      }
-      // Input validation
+      CompletableFuture<Boolean> turnstileVerified = CompletableFuture.supplyAsync(
+            () -> turnstileService.verifyToken(loginRequest.getTurnstileToken(), remoteIp), loginExecutor);
+
+      // Input validation, a failed Turnstile verification is still reported first
       if (bindingResult.hasErrors()) {
          List<String> errors = bindingResult.getFieldErrors().stream()
                .map(fieldError -> fieldError.getField() + ": " + fieldError.getDefaultMessage())
@@ -207,30 +214,59 @@ public class UserController {
          obj.add("message", arr);
          String json = new Gson().toJson(obj);
 
-         logger.warn("Login validation failed: " + json);
-         return ResponseEntity.badRequest().body(json);
+         return turnstileVerified.thenApply(verified -> {
+            if (!verified) {
+               return turnstileFailed();
+            }
+            logger.warn("Login validation failed: " + json);
+            return ResponseEntity.badRequest().body(json);
+         });
       }
 
-      // Find user by email
-      User user = userService.findByEmail(loginRequest.getEmail());
-      if (user == null) {
-         JsonObject obj = new JsonObject();
-         obj.addProperty("message", "Invalid credentials");
-         String json = new Gson().toJson(obj);
-         logger.warn("Login failed: User not found with email: " + loginRequest.getEmail());
-         return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(json);
-      }
+      // Find user by email and verify the password, the hash is skipped once Turnstile has failed.
+      // Unknown emails are verified against a dummy hash, so they are not answered faster than wrong passwords.
+      AtomicReference<CompletableFuture<Boolean>> passwordCheck = new AtomicReference<>();
+      CompletableFuture<User> user = CompletableFuture.supplyAsync(() -> findUser(loginRequest.getEmail()), loginExecutor);
+      CompletableFuture<Boolean> passwordVerified = user.thenCompose(found -> {
+         if (Boolean.FALSE.equals(turnstileVerified.getNow(true))) {
+            return CompletableFuture.completedFuture(false);
+         }
+         CompletableFuture<Boolean> check = found == null
+               ? passwordService.verifyUnknownAccountAsync(loginRequest.getPassword())
+               : passwordService.verifyPasswordAsync(loginRequest.getPassword(), found.getPassword());
+         passwordCheck.set(check);
+         return check;
+      });
+
+      return turnstileVerified.thenCompose(verified -> {
+         if (!verified) {
+            CompletableFuture<Boolean> check = passwordCheck.get();
+            if (check != null) {
+               check.cancel(false);
+            }
+            return CompletableFuture.completedFuture(turnstileFailed());
+         }
+         return passwordVerified.thenApplyAsync(valid -> {
+            User found = user.join();
+            if (found == null) {
+               logger.warn("Login failed: User not found with email: " + loginRequest.getEmail());
+               return invalidCredentials();
+            }
+            if (!valid) {
+               logger.warn("Login failed: Invalid password for user: " + loginRequest.getEmail());
+               return invalidCredentials();
+            }
+            return completeLogin(found, loginRequest);
+         }, loginExecutor);
+      });
+   }
 
-      // Verify password
-      if (!passwordService.verifyPassword(loginRequest.getPassword(), user.getPassword())) {
-         JsonObject obj = new JsonObject();
-         obj.addProperty("message", "Invalid credentials");
-         String json = new Gson().toJson(obj);
-         logger.warn("Login failed: Invalid password for user: " + loginRequest.getEmail());
-         return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(json);
-      }
+   // Password is correct: rehash if needed, store and send the 2FA code, hand out the 2FA token
+   private ResponseEntity<String> completeLogin(User user, LoginRequest loginRequest) {
+      // Hashes written with an older policy are upgraded in the background
+      passwordRehashService.rehashIfOutdated(user, loginRequest.getPassword());
 
-      // Password is correct, now send 2FA code via email
+      // The code is stored now, the email is delivered after the response
       boolean codeSent = emailTwoFactorService.generateAndSendVerificationCode(user.getId());
       
       if (!codeSent) {
@@ -255,6 +291,29 @@ public class UserController {
       return ResponseEntity.ok(json);
    }
 
+   private User findUser(String email) {
+      try {
+         return userService.findByEmail(email);
+      } catch (NoSuchElementException e) {
+         return null;
+      }
+   }
+
+   private static ResponseEntity<String> turnstileFailed() {
+      logger.warn("Login failed: Invalid Turnstile verification");
+      JsonObject obj = new JsonObject();
+      obj.addProperty("message", "Security verification failed. Please try again.");
+      String json = new Gson().toJson(obj);
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(json);
+   }
+
+   private static ResponseEntity<String> invalidCredentials() {
+      JsonObject obj = new JsonObject();
+      obj.addProperty("message", "Invalid credentials");
+      String json = new Gson().toJson(obj);
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(json);
+   }
+
    // get user id by email
    @CrossOrigin(origins = "${CROSS_ORIGIN}")
    @PostMapping("/byemail")
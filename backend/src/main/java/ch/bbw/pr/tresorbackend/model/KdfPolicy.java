@@ -0,0 +1,30 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * PBKDF2 iteration count for new keys, calibrated once and kept across restarts (single row)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "kdf_policy")
+public class KdfPolicy {
+
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    @Column(nullable = false)
+    private int iterations;
+
+    @Column(name = "calibrated_at", nullable = false)
+    private LocalDateTime calibratedAt;
+}
@@ -0,0 +1,61 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of re-encrypting a user's legacy secrets after the password hash changed.
+ * Keeps the previous hash until every legacy row is converted, then the row is deleted.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "reencryption_job")
+public class ReencryptionJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, name = "user_id")
+    private Long userId;
+
+    // key material of the not yet converted legacy rows
+    @ToString.Exclude
+    @Column(nullable = false, name = "previous_password_hash")
+    private String previousPasswordHash;
+
+    // highest secret id already processed in the current pass
+    @Column(nullable = false, name = "cursor_id")
+    private long cursorId;
+
+    @Column(nullable = false)
+    private int migrated;
+
+    // rows that failed in the current pass, they are retried in the next one
+    @Column(nullable = false)
+    private int failed;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
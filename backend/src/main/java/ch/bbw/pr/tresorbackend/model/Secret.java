@@ -1,9 +1,11 @@
 package ch.bbw.pr.tresorbackend.model;
 
-import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.LocalDateTime;
+
 /**
  * Secret
  * @author Peter Rutschmann
@@ -14,7 +16,10 @@ import lombok.*;
 @AllArgsConstructor
 @ToString
 @Entity
-@Table(name = "secret")
+@Table(name = "secret", indexes = {
+      @Index(name = "idx_secret_user_id", columnList = "user_id, id"),
+      @Index(name = "idx_secret_user_change_seq", columnList = "user_id, change_seq")
+})
 public class Secret {
    @Id
    @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -23,6 +28,68 @@ public class Secret {
    @Column(nullable = false, name="user_id")
    private Long userId;
 
-   @Column(nullable = false, name="content")
+   // plain text content, only ever held in memory
+   @Transient
    private String content;
-}
\ No newline at end of file
+
+   // encrypted content in the binary envelope format, see SecretEnvelope
+   @JsonIgnore
+   @ToString.Exclude
+   @Lob
+   @Column(name="payload", columnDefinition="LONGBLOB")
+   private byte[] payload;
+
+   // optimistic lock, incremented by every update of the row and used as ETag of the secret
+   @JsonIgnore
+   @Version
+   @Column(name="revision", nullable=false, columnDefinition="BIGINT DEFAULT 0")
+   private long revision;
+
+   // encrypted summary (kind, title) for list views, same envelope format as payload
+   @JsonIgnore
+   @ToString.Exclude
+   @Column(name="metadata", columnDefinition="BLOB")
+   private byte[] metadata;
+
+   // encrypted content of rows written before the binary format, converted in the background
+   @JsonIgnore
+   @ToString.Exclude
+   @Column(name="content", columnDefinition="LONGTEXT")
+   private String legacyContent;
+
+   // true once the blind search index holds the tokens of this row, only set by the index itself
+   @JsonIgnore
+   @Column(name="search_indexed", nullable=false, insertable=false, updatable=false,
+         columnDefinition="BOOLEAN DEFAULT FALSE")
+   private boolean searchIndexed;
+
+   // vault version of the last change, delta sync returns rows above the client's version
+   @JsonIgnore
+   @Column(name="change_seq", nullable=false, columnDefinition="BIGINT DEFAULT 0")
+   private long changeSeq;
+
+   @JsonIgnore
+   @Column(name="created_at")
+   private LocalDateTime createdAt;
+
+   @JsonIgnore
+   @Column(name="updated_at")
+   private LocalDateTime updatedAt;
+
+   @PrePersist
+   protected void onCreate() {
+      this.createdAt = LocalDateTime.now();
+      this.updatedAt = this.createdAt;
+   }
+
+   @PreUpdate
+   protected void onUpdate() {
+      this.updatedAt = LocalDateTime.now();
+   }
+
+   public Secret(Long id, Long userId, String content) {
+      this.id = id;
+      this.userId = userId;
+      this.content = content;
+   }
+}
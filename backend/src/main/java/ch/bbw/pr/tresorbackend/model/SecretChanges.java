@@ -0,0 +1,25 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of a delta sync.
+ * If nextSince is set, more changes follow: pass nextSince and nextAfter back as since and after.
+ * Otherwise the client is up to date with version. With fullResync the client must drop its
+ * copy and sync again without since, because deletions it has not seen were already pruned.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SecretChanges {
+    private long version;
+    private List<Secret> changed;
+    private List<Long> deleted;
+    private Long nextSince;
+    private Long nextAfter;
+    private boolean fullResync;
+}
@@ -0,0 +1,33 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One encrypted chunk of a streamed secret
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "secret_chunk",
+        uniqueConstraints = @UniqueConstraint(name = "uk_secret_chunk_seq", columnNames = {"secret_id", "seq"}))
+public class SecretChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, name = "secret_id")
+    private Long secretId;
+
+    @Column(nullable = false)
+    private int seq;
+
+    // AES-GCM ciphertext including tag
+    @Lob
+    @Column(nullable = false, columnDefinition = "LONGBLOB")
+    private byte[] data;
+}
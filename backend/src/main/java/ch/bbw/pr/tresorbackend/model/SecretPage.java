@@ -0,0 +1,19 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated secret listing.
+ * nextCursor is the id to pass as "after" for the following page, null on the last page.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SecretPage<T> {
+    private List<T> items;
+    private Long nextCursor;
+}
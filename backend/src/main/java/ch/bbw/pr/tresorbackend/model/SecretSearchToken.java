@@ -0,0 +1,36 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Blind index entry of a secret: a keyed HMAC of one normalized search term.
+ * The term itself is never stored, only its token under the owner's index key.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "secret_search_token",
+        indexes = {
+                @Index(name = "idx_search_token_user_token", columnList = "user_id, token"),
+                @Index(name = "idx_search_token_secret", columnList = "secret_id")
+        })
+public class SecretSearchToken {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, name = "user_id")
+    private Long userId;
+
+    @Column(nullable = false, name = "secret_id")
+    private Long secretId;
+
+    // Base64url of the truncated HMAC
+    @Column(nullable = false, length = 32)
+    private String token;
+}
@@ -0,0 +1,20 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * What the secret list shows of a secret, decrypted from its metadata without touching the body
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SecretSummary {
+    private Long id;
+    private Integer kindid;
+    private String kind;
+    private String title;
+}
@@ -0,0 +1,35 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Marker of a deleted secret, so delta sync can tell clients to drop their copy.
+ * Pruned after the retention period; the vault version remembers the highest pruned sequence.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "secret_tombstone",
+        indexes = @Index(name = "idx_tombstone_user_change_seq", columnList = "user_id, change_seq"))
+public class SecretTombstone {
+
+    @Id
+    @Column(name = "secret_id")
+    private Long secretId;
+
+    @Column(nullable = false, name = "user_id")
+    private Long userId;
+
+    // vault version of the delete
+    @Column(nullable = false, name = "change_seq")
+    private long changeSeq;
+
+    @Column(nullable = false, name = "deleted_at")
+    private LocalDateTime deletedAt;
+}
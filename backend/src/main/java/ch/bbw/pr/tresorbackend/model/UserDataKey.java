@@ -0,0 +1,51 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Per-user data key used to encrypt secret bodies.
+ * The key itself is stored wrapped (AES-GCM) under a key-encryption key
+ * that is derived from the user's password material with PBKDF2.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "user_data_key")
+public class UserDataKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, name = "user_id")
+    private Long userId;
+
+    // Base64(iv || wrapped key || tag)
+    @Column(nullable = false, name = "wrapped_key")
+    private String wrappedKey;
+
+    @Column(nullable = false, name = "kek_salt")
+    private String kekSalt;
+
+    @Column(nullable = false, name = "kek_iterations")
+    private int kekIterations;
+
+    // optimistic lock, so a background re-wrap cannot overwrite the wrapping of a password change
+    @Version
+    @Column(nullable = false, name = "version", columnDefinition = "BIGINT DEFAULT 0")
+    private long version;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = LocalDateTime.now();
+    }
+}
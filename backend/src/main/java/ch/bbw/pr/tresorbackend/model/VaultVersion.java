@@ -0,0 +1,28 @@
+package ch.bbw.pr.tresorbackend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Change counter of a user's vault, bumped by every write to one of the user's secrets
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "vault_version")
+public class VaultVersion {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(nullable = false)
+    private long version;
+
+    // highest change sequence of a pruned tombstone, clients that synced before it must reload
+    @Column(name = "tombstone_floor", nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private long tombstoneFloor;
+}
@@ -0,0 +1,9 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.KdfPolicy;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface KdfPolicyRepository extends JpaRepository<KdfPolicy, Integer> {
+}
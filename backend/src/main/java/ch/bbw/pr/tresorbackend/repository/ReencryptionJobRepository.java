@@ -0,0 +1,22 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.ReencryptionJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ReencryptionJobRepository extends JpaRepository<ReencryptionJob, Long> {
+
+    Optional<ReencryptionJob> findByUserId(Long userId);
+
+    @Query("SELECT j.previousPasswordHash FROM ReencryptionJob j WHERE j.userId = :userId")
+    Optional<String> findPreviousPasswordHash(@Param("userId") Long userId);
+
+    @Query("SELECT j.userId FROM ReencryptionJob j")
+    List<Long> findAllUserIds();
+}
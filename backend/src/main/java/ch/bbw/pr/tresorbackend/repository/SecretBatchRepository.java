@@ -0,0 +1,113 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plain JDBC access to the secret table for bulk import and export.
+ * IDENTITY ids keep Hibernate from batching inserts, and entities loaded through JPA
+ * would pile up in the persistence context of a long export.
+ */
+@Repository
+public class SecretBatchRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO secret (user_id, payload, metadata, change_seq, search_indexed, created_at, updated_at) "
+                    + "VALUES (?, ?, ?, ?, TRUE, NOW(6), NOW(6))";
+    private static final String INSERT_TOKEN_SQL = "INSERT INTO secret_search_token (user_id, secret_id, token) VALUES (?, ?, ?)";
+    private static final String SELECT_PAGE_SQL =
+            "SELECT id, user_id, payload, content FROM secret WHERE user_id = ? AND id > ? ORDER BY id LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SecretBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Insert the secrets with one JDBC batch
+     * @param secrets secrets with user id, payload, metadata and change sequence set
+     * @return the generated ids, in the order of the input
+     */
+    public List<Long> insertAll(List<Secret> secrets) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Secret secret = secrets.get(i);
+                        ps.setLong(1, secret.getUserId());
+                        ps.setBytes(2, secret.getPayload());
+                        ps.setBytes(3, secret.getMetadata());
+                        ps.setLong(4, secret.getChangeSeq());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return secrets.size();
+                    }
+                },
+                keyHolder);
+
+        List<Long> ids = new ArrayList<>(secrets.size());
+        for (Map<String, Object> keys : keyHolder.getKeyList()) {
+            ids.add(((Number) keys.values().iterator().next()).longValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Insert blind index tokens with one JDBC batch
+     * @param userId owner of the secrets
+     * @param secretIds secret id per entry
+     * @param tokens token per entry
+     */
+    public void insertTokens(Long userId, List<Long> secretIds, List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_TOKEN_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setLong(1, userId);
+                ps.setLong(2, secretIds.get(i));
+                ps.setString(3, tokens.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return tokens.size();
+            }
+        });
+    }
+
+    /**
+     * Load the next page of a user's secrets, ordered by id
+     * @param userId the owner
+     * @param afterId only secrets with a larger id
+     * @param limit page size
+     * @return detached secrets, still encrypted
+     */
+    public List<Secret> findPage(Long userId, long afterId, int limit) {
+        return jdbcTemplate.query(SELECT_PAGE_SQL, (rs, rowNum) -> {
+            Secret secret = new Secret();
+            secret.setId(rs.getLong("id"));
+            secret.setUserId(rs.getLong("user_id"));
+            secret.setPayload(rs.getBytes("payload"));
+            secret.setLegacyContent(rs.getString("content"));
+            return secret;
+        }, userId, afterId, limit);
+    }
+}
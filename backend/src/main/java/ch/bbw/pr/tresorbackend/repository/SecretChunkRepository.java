@@ -0,0 +1,30 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.SecretChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Chunks are written and read one at a time through plain statements, so they never
+ * pile up as managed entities in the persistence context of a long upload or download.
+ */
+@Repository
+public interface SecretChunkRepository extends JpaRepository<SecretChunk, Long> {
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO secret_chunk (secret_id, seq, data) VALUES (:secretId, :seq, :data)", nativeQuery = true)
+    void insertChunk(@Param("secretId") Long secretId, @Param("seq") int seq, @Param("data") byte[] data);
+
+    @Query("SELECT c.data FROM SecretChunk c WHERE c.secretId = :secretId AND c.seq = :seq")
+    byte[] findData(@Param("secretId") Long secretId, @Param("seq") int seq);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SecretChunk c WHERE c.secretId = :secretId")
+    void deleteBySecretId(@Param("secretId") Long secretId);
+}
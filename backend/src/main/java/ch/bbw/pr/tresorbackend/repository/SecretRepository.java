@@ -1,9 +1,15 @@
 package ch.bbw.pr.tresorbackend.repository;
 
 import ch.bbw.pr.tresorbackend.model.Secret;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * SecretRepository
@@ -11,4 +17,60 @@ import java.util.List;
  */
 public interface SecretRepository extends JpaRepository<Secret, Long> {
    List<Secret> findByUserId(Long userId);
+
+   @Query("SELECT s FROM Secret s WHERE s.userId = :userId AND s.id > :afterId ORDER BY s.id")
+   List<Secret> findPageAfter(@Param("userId") Long userId, @Param("afterId") Long afterId, Pageable pageable);
+
+   @Query("SELECT s.revision FROM Secret s WHERE s.id = :id")
+   Optional<Long> findRevision(@Param("id") Long id);
+
+   @Query("SELECT s.userId AS userId, s.revision AS revision FROM Secret s WHERE s.id = :id")
+   Optional<OwnerView> findOwnerAndRevision(@Param("id") Long id);
+
+   @Query("SELECT s.userId FROM Secret s WHERE s.id = :id")
+   Optional<Long> findUserId(@Param("id") Long id);
+
+   // Selects only id and metadata, the bodies are not read
+   @Query("SELECT s.id AS id, s.metadata AS metadata FROM Secret s WHERE s.userId = :userId AND s.id > :afterId ORDER BY s.id")
+   List<MetadataView> findMetadataPageAfter(@Param("userId") Long userId, @Param("afterId") Long afterId, Pageable pageable);
+
+   @Transactional
+   @Modifying
+   @Query("UPDATE Secret s SET s.metadata = :metadata WHERE s.id = :id")
+   void updateMetadata(@Param("id") Long id, @Param("metadata") byte[] metadata);
+
+   @Query("SELECT s FROM Secret s WHERE s.userId = :userId AND s.id > :afterId AND s.payload IS NULL ORDER BY s.id")
+   List<Secret> findLegacyByUserAfter(@Param("userId") Long userId, @Param("afterId") Long afterId, Pageable pageable);
+
+   @Query("SELECT s FROM Secret s WHERE s.id > :afterId AND s.payload IS NULL ORDER BY s.id")
+   List<Secret> findLegacyAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+   // Envelope rows not in the blind index yet, legacy rows are indexed when they are migrated
+   @Query("SELECT s FROM Secret s WHERE s.id > :afterId AND s.payload IS NOT NULL AND s.searchIndexed = false ORDER BY s.id")
+   List<Secret> findUnindexedAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+   @Query("SELECT COUNT(s) FROM Secret s WHERE s.userId = :userId AND s.searchIndexed = false")
+   long countUnindexed(@Param("userId") Long userId);
+
+   @Modifying
+   @Query(value = "UPDATE secret SET search_indexed = TRUE WHERE id = :id", nativeQuery = true)
+   void markSearchIndexed(@Param("id") Long id);
+
+   // Rows changed after (since, afterId) up to a committed vault version, ordered for keyset paging
+   @Query("SELECT s FROM Secret s WHERE s.userId = :userId AND s.changeSeq <= :upTo " +
+         "AND (s.changeSeq > :since OR (s.changeSeq = :since AND s.id > :afterId)) ORDER BY s.changeSeq, s.id")
+   List<Secret> findChangedAfter(@Param("userId") Long userId, @Param("since") long since, @Param("afterId") long afterId,
+                                 @Param("upTo") long upTo, Pageable pageable);
+
+   interface OwnerView {
+      Long getUserId();
+
+      long getRevision();
+   }
+
+   interface MetadataView {
+      Long getId();
+
+      byte[] getMetadata();
+   }
 }
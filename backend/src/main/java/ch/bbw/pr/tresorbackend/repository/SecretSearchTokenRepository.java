@@ -0,0 +1,30 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.SecretSearchToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SecretSearchTokenRepository extends JpaRepository<SecretSearchToken, Long> {
+
+    /**
+     * Ids of the user's secrets that carry every one of the given tokens
+     */
+    @Query("SELECT t.secretId FROM SecretSearchToken t WHERE t.userId = :userId AND t.token IN :tokens " +
+            "GROUP BY t.secretId HAVING COUNT(DISTINCT t.token) = :tokenCount ORDER BY t.secretId")
+    List<Long> findSecretIdsWithAllTokens(@Param("userId") Long userId,
+                                          @Param("tokens") Collection<String> tokens,
+                                          @Param("tokenCount") long tokenCount);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SecretSearchToken t WHERE t.secretId = :secretId")
+    void deleteBySecretId(@Param("secretId") Long secretId);
+}
@@ -0,0 +1,30 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.SecretTombstone;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface SecretTombstoneRepository extends JpaRepository<SecretTombstone, Long> {
+
+    @Query("SELECT t.secretId FROM SecretTombstone t WHERE t.userId = :userId " +
+            "AND t.changeSeq > :since AND t.changeSeq <= :upTo ORDER BY t.changeSeq")
+    List<Long> findDeletedSecretIds(@Param("userId") Long userId, @Param("since") long since, @Param("upTo") long upTo);
+
+    // Must run in the same transaction as deleteOlderThan
+    @Modifying
+    @Query(value = "UPDATE vault_version v JOIN (SELECT user_id, MAX(change_seq) AS floor FROM secret_tombstone " +
+            "WHERE deleted_at < :cutoff GROUP BY user_id) t ON t.user_id = v.user_id " +
+            "SET v.tombstone_floor = GREATEST(v.tombstone_floor, t.floor)", nativeQuery = true)
+    int raiseTombstoneFloors(@Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Query("DELETE FROM SecretTombstone t WHERE t.deletedAt < :cutoff")
+    int deleteOlderThan(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,13 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.UserDataKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface UserDataKeyRepository extends JpaRepository<UserDataKey, Long> {
+
+    Optional<UserDataKey> findByUserId(Long userId);
+}
@@ -2,6 +2,9 @@ package ch.bbw.pr.tresorbackend.repository;
 
 import ch.bbw.pr.tresorbackend.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 
@@ -11,4 +14,8 @@ import java.util.Optional;
  */
 public interface UserRepository extends JpaRepository<User, Long> {
    Optional<User> findByEmail(String email);
+
+   @Modifying
+   @Query("UPDATE User u SET u.password = :password WHERE u.id = :id")
+   int updatePassword(@Param("id") Long id, @Param("password") String password);
 }
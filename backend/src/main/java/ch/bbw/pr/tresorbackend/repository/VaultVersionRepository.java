@@ -0,0 +1,26 @@
+package ch.bbw.pr.tresorbackend.repository;
+
+import ch.bbw.pr.tresorbackend.model.VaultVersion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface VaultVersionRepository extends JpaRepository<VaultVersion, Long> {
+
+    @Query("SELECT v.version FROM VaultVersion v WHERE v.userId = :userId")
+    Optional<Long> findVersion(@Param("userId") Long userId);
+
+    @Query("SELECT v.tombstoneFloor FROM VaultVersion v WHERE v.userId = :userId")
+    Optional<Long> findTombstoneFloor(@Param("userId") Long userId);
+
+    // Single statement, so concurrent writers never lose an increment
+    @Modifying
+    @Query(value = "INSERT INTO vault_version (user_id, version) VALUES (:userId, 1) " +
+            "ON DUPLICATE KEY UPDATE version = version + 1", nativeQuery = true)
+    void increment(@Param("userId") Long userId);
+}
@@ -1,5 +1,7 @@
 package ch.bbw.pr.tresorbackend.security;
 
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -27,36 +29,33 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         final String authorizationHeader = request.getHeader("Authorization");
 
-        String userId = null;
-        String email = null;
-        String role = null;
-        String jwt = null;
-        
+        JwtPrincipal principal = null;
+
         // Check if Authorization header exists and starts with "Bearer "
         if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
+            String jwt = authorizationHeader.substring(7);
             try {
-                userId = jwtUtil.extractUserId(jwt);
-                email = jwtUtil.extractEmail(jwt);
-                role = jwtUtil.extractRole(jwt);
-            } catch (Exception e) {
+                // One parse checks signature and expiry and yields all claims
+                principal = jwtUtil.parseVerified(jwt);
+            } catch (ExpiredJwtException e) {
+                logger.debug("Expired JWT");
+            } catch (JwtException | IllegalArgumentException e) {
                 logger.error("Error extracting claims from JWT", e);
             }
         }
 
         // If we found a valid token, set up Spring Security context
-        if (userId != null && email != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            if (jwtUtil.validateToken(jwt)) {
-                // Convert role to uppercase for Spring Security convention
-                String authority = role != null ? role.toUpperCase() : "USER";
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        userId, null, Collections.singletonList(new SimpleGrantedAuthority(authority)));
-                
-                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authToken);
-            }
+        if (principal != null && principal.userId() != null && principal.email() != null
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            // Convert role to uppercase for Spring Security convention
+            String authority = principal.role() != null ? principal.role().toUpperCase() : "USER";
+            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                    principal.userId(), null, Collections.singletonList(new SimpleGrantedAuthority(authority)));
+
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            SecurityContextHolder.getContext().setAuthentication(authToken);
         }
-        
+
         filterChain.doFilter(request, response);
     }
 }
@@ -0,0 +1,13 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import java.time.Instant;
+
+/**
+ * Claims of a JWT whose signature and expiry were verified
+ * @param userId id of the user, used as principal name
+ * @param email email of the user
+ * @param role role claim, e.g. "USER" or "ADMIN"
+ * @param expiresAt expiry of the token
+ */
+public record JwtPrincipal(String userId, String email, String role, Instant expiresAt) {
+}
@@ -1,9 +1,13 @@
 package ch.bbw.pr.tresorbackend.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -22,10 +26,29 @@ public class JwtUtil {
     @Value("${jwt.expiration:86400000}") // Default: 24 hours in milliseconds
     private long jwtExpirationMs;
 
-    // Generate a secure key for HS256 algorithm
-    private Key getSigningKey() {
-        byte[] keyBytes = secret.getBytes();
-        return Keys.hmacShaKeyFor(keyBytes);
+    // Key and parser are immutable and thread-safe, so they are built once and shared
+    private Key signingKey;
+    private JwtParser jwtParser;
+
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        jwtParser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+    }
+
+    // Verify signature and expiry with a single parse and return the claims the filter needs
+    public JwtPrincipal parseVerified(String token) throws JwtException {
+        Claims claims = extractAllClaims(token);
+        if (claims.getExpiration() == null) {
+            throw new MalformedJwtException("JWT has no expiration");
+        }
+        return new JwtPrincipal(
+                claims.get("userId", String.class),
+                claims.get("email", String.class),
+                claims.get("role", String.class),
+                claims.getExpiration().toInstant());
     }
 
     // Extract username from token
@@ -56,11 +79,7 @@ public class JwtUtil {
 
     // Extract all claims from token
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return jwtParser.parseClaimsJws(token).getBody();
     }
 
     // Check if token is expired
@@ -83,7 +102,7 @@ public class JwtUtil {
                 .setClaims(claims)
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + jwtExpirationMs))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
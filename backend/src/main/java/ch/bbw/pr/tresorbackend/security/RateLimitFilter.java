@@ -0,0 +1,224 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Limits login and 2FA requests per client IP and per account (email or user id) with token
+ * buckets, to bound the BCrypt work, the stored verification codes and guessing of codes.
+ * Rejected requests get 429 with Retry-After.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+
+    private final TokenBucketRateLimiter rateLimiter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final boolean enabled;
+    private final Map<String, Rule> rules = new HashMap<>();
+
+    private record Rule(String name, TokenBucketRateLimiter.Limit ipLimit, TokenBucketRateLimiter.Limit accountLimit,
+                        Counter ipRejected, Counter accountRejected) {
+    }
+
+    public RateLimitFilter(TokenBucketRateLimiter rateLimiter,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${app.rate-limit.login.ip-capacity:20}") int loginIpCapacity,
+                           @Value("${app.rate-limit.login.ip-per-minute:10}") int loginIpPerMinute,
+                           @Value("${app.rate-limit.login.account-capacity:5}") int loginAccountCapacity,
+                           @Value("${app.rate-limit.login.account-per-minute:5}") int loginAccountPerMinute,
+                           @Value("${app.rate-limit.verify-code.ip-capacity:20}") int verifyIpCapacity,
+                           @Value("${app.rate-limit.verify-code.ip-per-minute:10}") int verifyIpPerMinute,
+                           @Value("${app.rate-limit.verify-code.account-capacity:5}") int verifyAccountCapacity,
+                           @Value("${app.rate-limit.verify-code.account-per-minute:1}") int verifyAccountPerMinute,
+                           @Value("${app.rate-limit.send-code.ip-capacity:5}") int sendIpCapacity,
+                           @Value("${app.rate-limit.send-code.ip-per-minute:5}") int sendIpPerMinute,
+                           @Value("${app.rate-limit.send-code.account-capacity:3}") int sendAccountCapacity,
+                           @Value("${app.rate-limit.send-code.account-per-minute:1}") int sendAccountPerMinute) {
+        this.rateLimiter = rateLimiter;
+        this.enabled = enabled;
+        addRule(meterRegistry, "/api/users/login", "login",
+                loginIpCapacity, loginIpPerMinute, loginAccountCapacity, loginAccountPerMinute);
+        addRule(meterRegistry, "/api/2fa/verify-code", "verify-code",
+                verifyIpCapacity, verifyIpPerMinute, verifyAccountCapacity, verifyAccountPerMinute);
+        addRule(meterRegistry, "/api/2fa/send-code", "send-code",
+                sendIpCapacity, sendIpPerMinute, sendAccountCapacity, sendAccountPerMinute);
+        Gauge.builder("tresor.ratelimit.keys", rateLimiter, TokenBucketRateLimiter::size).register(meterRegistry);
+    }
+
+    private void addRule(MeterRegistry meterRegistry, String path, String name,
+                         int ipCapacity, int ipPerMinute, int accountCapacity, int accountPerMinute) {
+        rules.put(path, new Rule(name,
+                new TokenBucketRateLimiter.Limit(ipCapacity, ipPerMinute),
+                new TokenBucketRateLimiter.Limit(accountCapacity, accountPerMinute),
+                Counter.builder("tresor.ratelimit.rejected").tag("endpoint", name).tag("scope", "ip").register(meterRegistry),
+                Counter.builder("tresor.ratelimit.rejected").tag("endpoint", name).tag("scope", "account").register(meterRegistry)));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !"POST".equals(request.getMethod()) || !rules.containsKey(request.getRequestURI());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Rule rule = rules.get(request.getRequestURI());
+
+        // Per IP first, so floods of made-up accounts are stopped without reading the body
+        long waitMillis = rateLimiter.tryAcquire(rule.name() + ":ip:" + request.getRemoteAddr(), rule.ipLimit());
+        if (waitMillis > 0) {
+            rule.ipRejected().increment();
+            reject(response, waitMillis);
+            return;
+        }
+
+        HttpServletRequest forwarded = request;
+        String account;
+        if (rule.name().equals("send-code")) {
+            account = request.getParameter("userId");
+        } else {
+            byte[] body = request.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value());
+                return;
+            }
+            forwarded = new CachedBodyRequest(request, body);
+            account = accountOf(body, rule.name().equals("login") ? "email" : "userId");
+        }
+
+        if (account != null) {
+            waitMillis = rateLimiter.tryAcquire(rule.name() + ":account:" + account, rule.accountLimit());
+            if (waitMillis > 0) {
+                rule.accountRejected().increment();
+                logger.warn("Rate limit of {} exceeded for account {}", rule.name(), account);
+                reject(response, waitMillis);
+                return;
+            }
+        }
+        filterChain.doFilter(forwarded, response);
+    }
+
+    // Account field of a JSON body, normalized; null if the body does not carry one
+    private String accountOf(byte[] body, String field) {
+        try {
+            JsonNode value = objectMapper.readTree(body).get(field);
+            if (value == null || value.isNull() || value.asText().isBlank()) {
+                return null;
+            }
+            return value.asText().trim().toLowerCase(Locale.ROOT);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void reject(HttpServletResponse response, long waitMillis) throws IOException {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("message", "Too many attempts, please try again later");
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString((waitMillis + 999) / 1000));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(obj.toString());
+    }
+
+    // Request with a body that was already read, so the controller can read it again
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    // The whole body is in memory, so it is available at once; like the container,
+                    // onAllDataRead() follows once the listener has read it to the end
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            readListener.onAllDataRead();
+                        }
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
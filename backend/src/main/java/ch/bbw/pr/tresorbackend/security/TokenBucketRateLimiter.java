@@ -0,0 +1,135 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory token buckets keyed by string (e.g. "login:ip:10.0.0.1").
+ * The map is split into lock stripes, each an LRU map with a fixed share of max-entries, so
+ * memory stays bounded under key floods and the least recently seen keys are dropped first.
+ * A bucket is one long: refill timestamp (monotonic ms since start, upper 40 bits) and the token count
+ * in thousandths (lower 24 bits).
+ */
+@Component
+public class TokenBucketRateLimiter {
+
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI_TOKENS = 1000;
+    private static final int STRIPES = 64;
+
+    /**
+     * Bucket size and refill rate of one kind of key
+     * @param capacity max. tokens, i.e. the allowed burst
+     * @param perMinute tokens added per minute
+     */
+    public record Limit(int capacity, int perMinute) {
+        public Limit {
+            if (capacity < 1 || capacity > TOKEN_MASK / MILLI_TOKENS || perMinute < 1) {
+                throw new IllegalArgumentException("Invalid rate limit " + capacity + "/" + perMinute);
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long startNanos = System.nanoTime();
+
+    public TokenBucketRateLimiter(@Value("${app.rate-limit.max-entries:100000}") int maxEntries) {
+        int perStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Take one token from the key's bucket
+     * @return 0 if a token was taken, otherwise the milliseconds until the next token
+     */
+    public long tryAcquire(String key, Limit limit) {
+        long now = nowMillis();
+        long capacity = limit.capacity() * MILLI_TOKENS;
+        Stripe stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            long[] bucket = stripe.get(key);
+            long tokens;
+            long refilledAt;
+            if (bucket == null) {
+                bucket = new long[1];
+                stripe.put(key, bucket);
+                tokens = capacity;
+                refilledAt = now;
+            } else {
+                // Only the time that was turned into tokens is consumed, so frequent calls still refill
+                long last = bucket[0] >>> TOKEN_BITS;
+                long added = (now - last) * limit.perMinute() * MILLI_TOKENS / 60_000;
+                tokens = (bucket[0] & TOKEN_MASK) + added;
+                if (tokens >= capacity) {
+                    tokens = capacity;
+                    refilledAt = now;
+                } else {
+                    refilledAt = last + added * 60_000 / (limit.perMinute() * MILLI_TOKENS);
+                }
+            }
+            if (tokens >= MILLI_TOKENS) {
+                bucket[0] = (refilledAt << TOKEN_BITS) | (tokens - MILLI_TOKENS);
+                return 0;
+            }
+            bucket[0] = (refilledAt << TOKEN_BITS) | tokens;
+            long missing = MILLI_TOKENS - tokens;
+            return Math.max(1, missing * 60_000 / (limit.perMinute() * MILLI_TOKENS));
+        }
+    }
+
+    /**
+     * @return number of tracked keys
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    // Monotonic milliseconds since start; overridden by tests to control time
+    long nowMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    // LRU map with a fixed capacity, guarded by synchronizing on the stripe
+    private static final class Stripe {
+        private final int maxEntries;
+        private final LinkedHashMap<String, long[]> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Stripe(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        long[] get(String key) {
+            return buckets.get(key);
+        }
+
+        void put(String key, long[] bucket) {
+            buckets.put(key, bucket);
+            if (buckets.size() > maxEntries) {
+                Iterator<String> eldest = buckets.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        int size() {
+            return buckets.size();
+        }
+    }
+}
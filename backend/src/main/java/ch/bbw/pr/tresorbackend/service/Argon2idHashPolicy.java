@@ -0,0 +1,53 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+
+/**
+ * Argon2id with configurable memory (KiB), iterations and parallelism ($argon2id$ hashes)
+ */
+public class Argon2idHashPolicy implements PasswordHashPolicy {
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+
+    private final int memoryKib;
+    private final int iterations;
+    private final int parallelism;
+    private final Argon2PasswordEncoder encoder;
+
+    public Argon2idHashPolicy(int memoryKib, int iterations, int parallelism) {
+        if (memoryKib < 8 * parallelism || iterations < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Invalid Argon2id parameters");
+        }
+        this.memoryKib = memoryKib;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+        this.encoder = new Argon2PasswordEncoder(SALT_LENGTH, HASH_LENGTH, parallelism, memoryKib, iterations);
+    }
+
+    @Override
+    public String describe() {
+        return "argon2id(m=" + memoryKib + ",t=" + iterations + ",p=" + parallelism + ")";
+    }
+
+    @Override
+    public boolean handles(String hash) {
+        return hash != null && hash.startsWith("$argon2id$");
+    }
+
+    @Override
+    public String hash(String password) {
+        return encoder.encode(password);
+    }
+
+    @Override
+    public boolean verify(String password, String hash) {
+        return encoder.matches(password, hash);
+    }
+
+    @Override
+    public boolean isWeakerThanPolicy(String hash) {
+        // upgradeEncoding compares memory and iterations of the stored hash with this encoder
+        return encoder.upgradeEncoding(hash);
+    }
+}
@@ -0,0 +1,48 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+/**
+ * BCrypt with a configurable cost ($2a$/$2b$/$2y$ hashes)
+ */
+public class BCryptHashPolicy implements PasswordHashPolicy {
+
+    private final int cost;
+
+    public BCryptHashPolicy(int cost) {
+        if (cost < 4 || cost > 31) {
+            throw new IllegalArgumentException("BCrypt cost must be between 4 and 31");
+        }
+        this.cost = cost;
+    }
+
+    @Override
+    public String describe() {
+        return "bcrypt(cost=" + cost + ")";
+    }
+
+    @Override
+    public boolean handles(String hash) {
+        return hash != null && hash.length() == 60
+                && (hash.startsWith("$2a$") || hash.startsWith("$2b$") || hash.startsWith("$2y$"));
+    }
+
+    @Override
+    public String hash(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+    }
+
+    @Override
+    public boolean verify(String password, String hash) {
+        return BCrypt.checkpw(password, hash);
+    }
+
+    @Override
+    public boolean isWeakerThanPolicy(String hash) {
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) < cost;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.SecretSearchToken;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretSearchTokenRepository;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Keyed blind index for searching encrypted secrets.
+ * Title, kind and URL of a secret are normalized into terms, each term is stored as
+ * HMAC-SHA256(indexKey, term) truncated to 128 bit. The index key is derived from the
+ * user's data key, so tokens of different users are unrelated and the server cannot
+ * compute them without unwrapping the data key. Only whole words match.
+ * Secrets stored before the index existed are added by {@link SearchIndexBackfillService}.
+ */
+@Service
+public class BlindIndexService {
+
+    private static final byte[] INDEX_KEY_LABEL = "tresor:blind-index:v1".getBytes(StandardCharsets.UTF_8);
+    private static final int TOKEN_LENGTH_BYTE = 16;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final String KIND_PREFIX = "kind:";
+    private static final Set<String> IGNORED_URL_TERMS = Set.of("http", "https", "www");
+
+    private final SecretSearchTokenRepository searchTokenRepository;
+    private final SecretRepository secretRepository;
+    private final CryptoPrimitives cryptoPrimitives;
+    private final int maxTerms;
+
+    public BlindIndexService(SecretSearchTokenRepository searchTokenRepository,
+                             SecretRepository secretRepository,
+                             CryptoPrimitives cryptoPrimitives,
+                             @Value("${app.secret-search.max-terms:32}") int maxTerms) {
+        this.searchTokenRepository = searchTokenRepository;
+        this.secretRepository = secretRepository;
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.maxTerms = maxTerms;
+    }
+
+    /**
+     * Derive the index key of a user from the data key
+     * @param dataKey the user's unwrapped data key
+     * @return the HMAC key for tokens
+     */
+    public SecretKey indexKey(SecretKey dataKey) throws GeneralSecurityException {
+        Mac mac = cryptoPrimitives.hmacSha256();
+        mac.init(dataKey);
+        byte[] keyBytes = mac.doFinal(INDEX_KEY_LABEL);
+        try {
+            return new SecretKeySpec(keyBytes, CryptoPrimitives.HMAC_SHA256);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Tokens of the searchable fields of a secret's content
+     * @param indexKey key from {@link #indexKey(SecretKey)}
+     * @param content the plain text content (JSON as posted by the frontend)
+     * @return distinct tokens, empty for content that is not a JSON object
+     */
+    public List<String> tokensFor(SecretKey indexKey, String content) throws GeneralSecurityException {
+        return tokens(indexKey, termsOf(content));
+    }
+
+    /**
+     * Index the content of a secret, replacing earlier tokens. Tokens and the indexed flag of the
+     * secret are written in one transaction, or in the caller's if there is one.
+     */
+    @Transactional
+    public void index(Long userId, Long secretId, SecretKey dataKey, String content) throws GeneralSecurityException {
+        List<String> tokens = tokensFor(indexKey(dataKey), content);
+        searchTokenRepository.deleteBySecretId(secretId);
+        List<SecretSearchToken> entries = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            entries.add(new SecretSearchToken(null, userId, secretId, token));
+        }
+        searchTokenRepository.saveAll(entries);
+        secretRepository.markSearchIndexed(secretId);
+    }
+
+    /**
+     * @return number of the user's secrets the index does not cover yet, search results may miss them
+     */
+    public long pendingCount(Long userId) {
+        return secretRepository.countUnindexed(userId);
+    }
+
+    public void deleteTokens(Long secretId) {
+        searchTokenRepository.deleteBySecretId(secretId);
+    }
+
+    /**
+     * Ids of the secrets matching every word of the query and, if given, the kind
+     * @param userId owner of the secrets
+     * @param dataKey the user's data key
+     * @param query free text, split into words like the indexed fields
+     * @param kind optional kind (credential, creditcard, note)
+     * @return matching secret ids in ascending order, empty if the query has no usable terms
+     */
+    public List<Long> findSecretIds(Long userId, SecretKey dataKey, String query, String kind) throws GeneralSecurityException {
+        Set<String> terms = new LinkedHashSet<>();
+        if (query != null) {
+            addWords(terms, query, Set.of());
+        }
+        if (kind != null && !kind.isBlank()) {
+            terms.add(KIND_PREFIX + normalize(kind.trim()));
+        }
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        List<String> tokens = tokens(indexKey(dataKey), terms);
+        return searchTokenRepository.findSecretIdsWithAllTokens(userId, tokens, tokens.size());
+    }
+
+    private Set<String> termsOf(String content) {
+        Set<String> terms = new LinkedHashSet<>();
+        JsonObject json;
+        try {
+            JsonElement element = content != null ? JsonParser.parseString(content) : null;
+            if (element == null || !element.isJsonObject()) {
+                return terms;
+            }
+            json = element.getAsJsonObject();
+        } catch (JsonSyntaxException e) {
+            return terms;
+        }
+        String kind = stringField(json, "kind");
+        if (kind != null && !kind.isBlank()) {
+            terms.add(KIND_PREFIX + normalize(kind.trim()));
+        }
+        String title = stringField(json, "title");
+        if (title != null) {
+            addWords(terms, title, Set.of());
+        }
+        String url = stringField(json, "url");
+        if (url != null) {
+            addWords(terms, url, IGNORED_URL_TERMS);
+        }
+        return terms;
+    }
+
+    private void addWords(Set<String> terms, String text, Set<String> ignored) {
+        for (String word : normalize(text).split("[^\\p{L}\\p{N}]+")) {
+            if (terms.size() >= maxTerms) {
+                return;
+            }
+            if (word.length() >= MIN_TERM_LENGTH && !ignored.contains(word)) {
+                terms.add(word);
+            }
+        }
+    }
+
+    private List<String> tokens(SecretKey indexKey, Set<String> terms) throws GeneralSecurityException {
+        Mac mac = cryptoPrimitives.hmacSha256();
+        mac.init(indexKey);
+        List<String> tokens = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            byte[] digest = mac.doFinal(term.getBytes(StandardCharsets.UTF_8));
+            tokens.add(Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOf(digest, TOKEN_LENGTH_BYTE)));
+        }
+        return tokens;
+    }
+
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    private static String stringField(JsonObject json, String name) {
+        JsonElement value = json.get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+}
@@ -0,0 +1,60 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+
+/**
+ * Per-thread instances of the JCA primitives used by the crypto services.
+ * getInstance() does a provider lookup and allocates a new engine on every call; the
+ * instances handed out here are created once per thread and must be (re-)initialised
+ * by the caller before every use. They must not be shared with other threads.
+ */
+@Component
+public class CryptoPrimitives {
+
+    public static final String AES_GCM = "AES/GCM/NoPadding";
+    public static final String HMAC_SHA256 = "HmacSHA256";
+    public static final String PBKDF2_HMAC_SHA256 = "PBKDF2WithHmacSHA256";
+
+    private final ThreadLocal<Cipher> aesGcm = ThreadLocal.withInitial(() -> create(() -> Cipher.getInstance(AES_GCM)));
+    private final ThreadLocal<Mac> hmacSha256 = ThreadLocal.withInitial(() -> create(() -> Mac.getInstance(HMAC_SHA256)));
+    private final ThreadLocal<SecretKeyFactory> pbkdf2 =
+            ThreadLocal.withInitial(() -> create(() -> SecretKeyFactory.getInstance(PBKDF2_HMAC_SHA256)));
+
+    /**
+     * @return the AES/GCM/NoPadding cipher of the current thread, call init before use
+     */
+    public Cipher aesGcm() {
+        return aesGcm.get();
+    }
+
+    /**
+     * @return the HmacSHA256 instance of the current thread, call init before use
+     */
+    public Mac hmacSha256() {
+        return hmacSha256.get();
+    }
+
+    /**
+     * @return the PBKDF2WithHmacSHA256 key factory of the current thread
+     */
+    public SecretKeyFactory pbkdf2() {
+        return pbkdf2.get();
+    }
+
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    private static <T> T create(Factory<T> factory) {
+        try {
+            return factory.create();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Crypto primitive not available", e);
+        }
+    }
+}
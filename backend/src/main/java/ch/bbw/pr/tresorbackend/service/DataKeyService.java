@@ -0,0 +1,233 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.model.UserDataKey;
+import ch.bbw.pr.tresorbackend.repository.UserDataKeyRepository;
+import ch.bbw.pr.tresorbackend.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Service managing the per-user data keys of the envelope encryption scheme.
+ * A key-encryption key (KEK) is derived from the user's password material once
+ * (and then served from the {@link SecretKeyCache}); it only wraps the random data key,
+ * which in turn encrypts all secret bodies of that user.
+ * When the KEK was derived with fewer iterations than the current KDF policy, the data key
+ * is re-wrapped in the background; the secrets themselves stay untouched.
+ */
+@Service
+public class DataKeyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataKeyService.class);
+    private static final int TAG_LENGTH_BIT = 128;
+    private static final int IV_LENGTH_BYTE = 12;
+    private static final int DATA_KEY_LENGTH_BYTE = 32;
+
+    private final UserDataKeyRepository userDataKeyRepository;
+    private final UserRepository userRepository;
+    private final SecretKeyService secretKeyService;
+    private final SecretKeyCache secretKeyCache;
+    private final CryptoPrimitives cryptoPrimitives;
+    private final KdfCalibrationService kdfCalibrationService;
+    private final ExecutorService reencryptionExecutor;
+    private final SecureRandom secureRandom;
+    private final Set<Long> pendingRewraps = ConcurrentHashMap.newKeySet();
+
+    public DataKeyService(UserDataKeyRepository userDataKeyRepository,
+                          UserRepository userRepository,
+                          SecretKeyService secretKeyService,
+                          SecretKeyCache secretKeyCache,
+                          CryptoPrimitives cryptoPrimitives,
+                          KdfCalibrationService kdfCalibrationService,
+                          @Qualifier("reencryptionExecutor") ExecutorService reencryptionExecutor) {
+        this.userDataKeyRepository = userDataKeyRepository;
+        this.userRepository = userRepository;
+        this.secretKeyService = secretKeyService;
+        this.secretKeyCache = secretKeyCache;
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.kdfCalibrationService = kdfCalibrationService;
+        this.reencryptionExecutor = reencryptionExecutor;
+        this.secureRandom = new SecureRandom();
+    }
+
+    /**
+     * Get the data key of a user, creating it on first use
+     * @param userId the user
+     * @param password the user's password material the KEK is derived from
+     * @return the unwrapped data key
+     */
+    public SecretKey getDataKey(Long userId, String password) throws Exception {
+        Optional<UserDataKey> existing = userDataKeyRepository.findByUserId(userId);
+        if (existing.isPresent()) {
+            SecretKey dataKey = unwrap(existing.get(), password);
+            if (kdfCalibrationService.isWeak(existing.get().getKekIterations())) {
+                scheduleRewrap(userId, password);
+            }
+            return dataKey;
+        }
+        try {
+            return createDataKey(userId, password);
+        } catch (DataIntegrityViolationException e) {
+            // Another request created the key concurrently, use that one
+            UserDataKey created = userDataKeyRepository.findByUserId(userId)
+                    .orElseThrow(() -> new IllegalStateException("Data key vanished for user " + userId, e));
+            return unwrap(created, password);
+        }
+    }
+
+    private SecretKey createDataKey(Long userId, String password) throws Exception {
+        byte[] dataKeyBytes = new byte[DATA_KEY_LENGTH_BYTE];
+        secureRandom.nextBytes(dataKeyBytes);
+        SecretKey dataKey = new SecretKeySpec(dataKeyBytes, "AES");
+        Arrays.fill(dataKeyBytes, (byte) 0);
+
+        UserDataKey userDataKey = new UserDataKey();
+        userDataKey.setUserId(userId);
+        wrap(userDataKey, dataKey, password);
+        userDataKeyRepository.saveAndFlush(userDataKey);
+
+        logger.info("Created data key for user ID: {}", userId);
+        return dataKey;
+    }
+
+    /**
+     * Re-wrap the data key of a user under a KEK derived with the current KDF policy.
+     * Skipped if the password changed since the caller read it: the key row is versioned, so a
+     * password change committed while the new KEK is derived makes the save fail instead of
+     * replacing the new wrapping with one under the old password.
+     * @param userId the user
+     * @param password the user's password material
+     */
+    public void rewrap(Long userId, String password) throws Exception {
+        UserDataKey userDataKey = userDataKeyRepository.findByUserId(userId)
+                .orElseThrow(() -> new IllegalStateException("No data key for user " + userId));
+        if (!kdfCalibrationService.isWeak(userDataKey.getKekIterations())) {
+            return;
+        }
+        String currentPassword = userRepository.findById(userId).map(User::getPassword).orElse(null);
+        if (!Objects.equals(password, currentPassword)) {
+            logger.info("Skipped re-wrapping data key for user ID: {}, the password changed", userId);
+            return;
+        }
+        int previousIterations = userDataKey.getKekIterations();
+        SecretKey dataKey = unwrap(userDataKey, password);
+        wrap(userDataKey, dataKey, password);
+        try {
+            userDataKeyRepository.save(userDataKey);
+        } catch (OptimisticLockingFailureException e) {
+            logger.info("Skipped re-wrapping data key for user ID: {}, it was changed concurrently", userId);
+            return;
+        }
+        logger.info("Re-wrapped data key for user ID: {} ({} -> {} iterations)",
+                userId, previousIterations, userDataKey.getKekIterations());
+    }
+
+    /**
+     * Re-wrap the data key of a user under the KEK derived from a new password hash.
+     * Only the key is touched, secrets encrypted with it stay readable as they are.
+     * @param userId the user
+     * @param previousPassword password material the key is currently wrapped with
+     * @param newPassword the new password material
+     */
+    public void changePassword(Long userId, String previousPassword, String newPassword) throws Exception {
+        Optional<UserDataKey> existing = userDataKeyRepository.findByUserId(userId);
+        if (existing.isEmpty()) {
+            return;
+        }
+        UserDataKey userDataKey = existing.get();
+        SecretKey dataKey = unwrap(userDataKey, previousPassword);
+        wrap(userDataKey, dataKey, newPassword);
+        userDataKeyRepository.save(userDataKey);
+        logger.info("Re-wrapped data key for user ID: {} after a password change", userId);
+    }
+
+    private void scheduleRewrap(Long userId, String password) {
+        if (!pendingRewraps.add(userId)) {
+            return;
+        }
+        try {
+            reencryptionExecutor.execute(() -> {
+                try {
+                    rewrap(userId, password);
+                } catch (Exception e) {
+                    logger.error("Error re-wrapping data key for user ID {}: {}", userId, e.getMessage());
+                } finally {
+                    pendingRewraps.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue is full, the next read schedules it again
+            pendingRewraps.remove(userId);
+        }
+    }
+
+    private void wrap(UserDataKey userDataKey, SecretKey dataKey, String password) throws Exception {
+        Long userId = userDataKey.getUserId();
+        SecretKeyService.KeyData kek = secretKeyService.generateKey(password);
+        secretKeyCache.put(userId, password, kek.getEncodedSalt(), kek.getIterations(), kek.getKey());
+
+        byte[] iv = new byte[IV_LENGTH_BYTE];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.ENCRYPT_MODE, kek.getKey(), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(aad(userId));
+        byte[] rawKey = dataKey.getEncoded();
+        byte[] wrapped = cipher.doFinal(rawKey);
+        Arrays.fill(rawKey, (byte) 0);
+
+        userDataKey.setWrappedKey(Base64.getEncoder().encodeToString(
+                ByteBuffer.allocate(iv.length + wrapped.length).put(iv).put(wrapped).array()));
+        userDataKey.setKekSalt(kek.getEncodedSalt());
+        userDataKey.setKekIterations(kek.getIterations());
+    }
+
+    private SecretKey unwrap(UserDataKey userDataKey, String password) throws Exception {
+        Long userId = userDataKey.getUserId();
+        SecretKey kek = secretKeyCache.get(userId, password, userDataKey.getKekSalt(), userDataKey.getKekIterations());
+        if (kek == null) {
+            kek = secretKeyService.recreateKey(password, userDataKey.getKekSalt(), userDataKey.getKekIterations());
+            secretKeyCache.put(userId, password, userDataKey.getKekSalt(), userDataKey.getKekIterations(), kek);
+        }
+
+        ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(userDataKey.getWrappedKey()));
+        byte[] iv = new byte[IV_LENGTH_BYTE];
+        bb.get(iv);
+        byte[] wrapped = new byte[bb.remaining()];
+        bb.get(wrapped);
+
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, kek, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(aad(userId));
+        byte[] dataKeyBytes = cipher.doFinal(wrapped);
+        try {
+            return new SecretKeySpec(dataKeyBytes, "AES");
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+        }
+    }
+
+    // Binds a wrapped key to its owner so rows cannot be swapped between users
+    private static byte[] aad(Long userId) {
+        return ("user:" + userId).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -6,12 +6,14 @@ import ch.bbw.pr.tresorbackend.repository.EmailVerificationCodeRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.security.SecureRandom;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 @Service
 public class EmailTwoFactorService {
@@ -23,6 +25,7 @@ public class EmailTwoFactorService {
     private final EmailVerificationCodeRepository emailVerificationCodeRepository;
     private final EmailService emailService;
     private final UserService userService;
+    private final ExecutorService mailExecutor;
     
     @Value("${app.2fa.code-expiry-minutes:10}")
     private int codeExpiryMinutes;
@@ -31,17 +34,20 @@ public class EmailTwoFactorService {
     public EmailTwoFactorService(
             EmailVerificationCodeRepository emailVerificationCodeRepository,
             EmailService emailService,
-            UserService userService) {
+            UserService userService,
+            @Qualifier("mailExecutor") ExecutorService mailExecutor) {
         this.emailVerificationCodeRepository = emailVerificationCodeRepository;
         this.emailService = emailService;
         this.userService = userService;
+        this.mailExecutor = mailExecutor;
     }
 
     /**
-     * Generate a verification code for a user and send it via email
+     * Generate a verification code for a user and send it via email.
+     * The code is stored before returning, the email is delivered in the background.
      * 
      * @param userId the user ID
-     * @return true if the code was sent successfully
+     * @return true if the code was stored and the email queued
      */
     public boolean generateAndSendVerificationCode(Long userId) {
         User user = userService.getUserById(userId);
@@ -61,9 +67,16 @@ public class EmailTwoFactorService {
         
         emailVerificationCodeRepository.save(emailVerificationCode);
         
-        sendVerificationEmail(user.getEmail(), verificationCode);
+        // The response does not wait for SMTP, a lost email can be requested again via send-code
+        mailExecutor.execute(() -> {
+            try {
+                sendVerificationEmail(user.getEmail(), verificationCode);
+            } catch (Exception e) {
+                logger.error("Failed to deliver verification code to user ID {}: {}", userId, e.getMessage());
+            }
+        });
         
-        logger.info("Verification code generated and sent to user: {}", user.getEmail());
+        logger.info("Verification code generated for user: {}", user.getEmail());
         return true;
     }
     
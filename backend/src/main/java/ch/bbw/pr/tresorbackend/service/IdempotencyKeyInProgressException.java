@@ -0,0 +1,13 @@
+package ch.bbw.pr.tresorbackend.service;
+
+/**
+ * Thrown when the first request with an Idempotency-Key is still running after the wait time, answered with 409
+ */
+public class IdempotencyKeyInProgressException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package ch.bbw.pr.tresorbackend.service;
+
+/**
+ * Thrown when an Idempotency-Key is sent again with a different request, answered with 422
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyKeyReusedException() {
+        super("Idempotency-Key was already used for a different request");
+    }
+}
@@ -0,0 +1,181 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of secret creations by Idempotency-Key, so a retried request returns
+ * the secret created by the first one instead of encrypting and inserting it again.
+ * Per key only the created id, a 16 byte fingerprint of the request and the expiry are kept.
+ * The fingerprint is an HMAC under a random per-process key, the content itself is not stored.
+ * A duplicate that arrives while the first request is still running waits for its result.
+ */
+@Service
+public class IdempotencyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private final CryptoPrimitives cryptoPrimitives;
+    private final SecretKeySpec fingerprintKey;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final long waitMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Result of an idempotent call
+     * @param secretId id of the created secret
+     * @param replayed true if it was created by an earlier request with the same key
+     */
+    public record Outcome(Long secretId, boolean replayed) {
+    }
+
+    public IdempotencyStore(CryptoPrimitives cryptoPrimitives,
+                            @Value("${app.idempotency.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${app.idempotency.max-entries:100000}") int maxEntries,
+                            @Value("${app.idempotency.wait-ms:30000}") long waitMillis) {
+        this.cryptoPrimitives = cryptoPrimitives;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.fingerprintKey = new SecretKeySpec(key, CryptoPrimitives.HMAC_SHA256);
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxEntries = maxEntries;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Run the action once per user and key
+     * @param userId owner of the key
+     * @param key the Idempotency-Key header
+     * @param request what identifies the request body, must be equal for every retry
+     * @param action creates the secret and returns its id
+     * @return the id, from the action or from the first request with this key
+     * @throws IdempotencyKeyReusedException if the key was used before for a different request
+     * @throws IdempotencyKeyInProgressException if the first request with the key is still running after the wait time
+     */
+    public Outcome execute(Long userId, String key, String request, Supplier<Long> action) {
+        byte[] fingerprint = fingerprint(userId, request);
+        String scopedKey = userId + ":" + key;
+        long now = System.currentTimeMillis();
+        Entry entry;
+        boolean first = false;
+        synchronized (entries) {
+            entry = entries.get(scopedKey);
+            if (entry != null && entry.isExpired(now) && entry.result.isDone()) {
+                entries.remove(scopedKey);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(fingerprint, new CompletableFuture<>(), now + ttlMillis);
+                entries.put(scopedKey, entry);
+                first = true;
+                trim();
+            }
+        }
+
+        if (!first) {
+            if (!MessageDigest.isEqual(entry.fingerprint, fingerprint)) {
+                throw new IdempotencyKeyReusedException();
+            }
+            return new Outcome(await(entry), true);
+        }
+
+        try {
+            Long secretId = action.get();
+            entry.result.complete(secretId);
+            return new Outcome(secretId, false);
+        } catch (RuntimeException e) {
+            // A failed request may be retried with the same key
+            synchronized (entries) {
+                entries.remove(scopedKey, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.isExpired(now) && entry.result.isDone()) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            logger.debug("Evicted {} expired idempotency keys", removed);
+        }
+    }
+
+    // Caller holds the lock; drops the oldest finished entries, running ones are never dropped
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            if (it.next().getValue().result.isDone()) {
+                it.remove();
+            }
+        }
+    }
+
+    private Long await(Entry entry) {
+        try {
+            return entry.result.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IdempotencyKeyInProgressException("A request with this Idempotency-Key is still in progress");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyKeyInProgressException("Interrupted while waiting for the first request");
+        }
+    }
+
+    private byte[] fingerprint(Long userId, String request) {
+        try {
+            Mac mac = cryptoPrimitives.hmacSha256();
+            mac.init(fingerprintKey);
+            mac.update(Long.toString(userId).getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(request != null ? request.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+            return Arrays.copyOf(mac.doFinal(), FINGERPRINT_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error computing request fingerprint", e);
+        }
+    }
+
+    private record Entry(byte[] fingerprint, CompletableFuture<Long> result, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
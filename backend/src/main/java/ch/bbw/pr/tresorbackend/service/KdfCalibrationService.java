@@ -0,0 +1,157 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.KdfPolicy;
+import ch.bbw.pr.tresorbackend.repository.KdfPolicyRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Picks the PBKDF2 iteration count for new keys.
+ * A short probe at startup measures how fast this machine runs PBKDF2-HMAC-SHA256 and the
+ * iteration count is scaled to hit the configured target latency, bounded by min/max.
+ * The result is stored in kdf_policy and only replaced when a later startup measures at least
+ * raise-threshold-percent more, so measurement noise between restarts does not move the policy.
+ * Keys derived with more than weak-tolerance-percent fewer iterations than the policy count as
+ * weak and are upgraded in the background when they are read.
+ */
+@Service
+public class KdfCalibrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KdfCalibrationService.class);
+    private static final int PROBE_ITERATIONS = 10000;
+    private static final int PROBE_ROUNDS = 5;
+    private static final int ROUNDING = 1000;
+    private static final int KEY_LENGTH = 256;
+
+    private final CryptoPrimitives cryptoPrimitives;
+    private final KdfPolicyRepository kdfPolicyRepository;
+
+    @Value("${app.kdf.calibration.enabled:true}")
+    private boolean calibrationEnabled;
+
+    @Value("${app.kdf.target-millis:100}")
+    private long targetMillis;
+
+    @Value("${app.kdf.min-iterations:65536}")
+    private int minIterations;
+
+    @Value("${app.kdf.max-iterations:2000000}")
+    private int maxIterations;
+
+    @Value("${app.kdf.raise-threshold-percent:25}")
+    private int raiseThresholdPercent;
+
+    @Value("${app.kdf.weak-tolerance-percent:10}")
+    private int weakTolerancePercent;
+
+    private volatile int iterations;
+
+    public KdfCalibrationService(CryptoPrimitives cryptoPrimitives, KdfPolicyRepository kdfPolicyRepository,
+                                 MeterRegistry meterRegistry) {
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.kdfPolicyRepository = kdfPolicyRepository;
+        Gauge.builder("tresor.kdf.iterations", this, KdfCalibrationService::getIterations).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void calibrate() {
+        if (!calibrationEnabled) {
+            iterations = minIterations;
+            logger.info("KDF calibration disabled, using {} PBKDF2 iterations", iterations);
+            return;
+        }
+        int measured;
+        try {
+            measured = measure();
+        } catch (Exception e) {
+            measured = minIterations;
+            logger.error("KDF calibration failed, measuring {} PBKDF2 iterations: {}", measured, e.getMessage());
+        }
+        iterations = apply(measured);
+    }
+
+    // Keeps the stored policy unless the measurement is a meaningful raise, never lowers it
+    int apply(int measured) {
+        Optional<KdfPolicy> stored = kdfPolicyRepository.findById(KdfPolicy.ID);
+        if (stored.isPresent()) {
+            int current = clamp(stored.get().getIterations());
+            long raiseAt = (long) current * (100 + raiseThresholdPercent) / 100;
+            if (measured < raiseAt) {
+                if (current != stored.get().getIterations()) {
+                    save(current);
+                }
+                logger.info("KDF policy: {} PBKDF2 iterations (stored, this start measured {})", current, measured);
+                return current;
+            }
+            logger.info("KDF policy raised from {} to {} PBKDF2 iterations", current, measured);
+        } else {
+            logger.info("KDF policy: {} PBKDF2 iterations for a target of {} ms", measured, targetMillis);
+        }
+        return save(measured);
+    }
+
+    /**
+     * @return the iteration count to use for new keys
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param storedIterations iterations a key was derived with
+     * @return true if the key is clearly weaker than the current policy
+     */
+    public boolean isWeak(int storedIterations) {
+        return storedIterations < (long) iterations * (100 - weakTolerancePercent) / 100;
+    }
+
+    private int save(int value) {
+        try {
+            kdfPolicyRepository.save(new KdfPolicy(KdfPolicy.ID, value, LocalDateTime.now()));
+            return value;
+        } catch (DataIntegrityViolationException e) {
+            // Another instance stored its policy concurrently, use that one
+            return kdfPolicyRepository.findById(KdfPolicy.ID).map(KdfPolicy::getIterations).orElse(value);
+        }
+    }
+
+    private int clamp(long value) {
+        return (int) Math.max(minIterations, Math.min(maxIterations, value));
+    }
+
+    // Iterations that take targetMillis on this machine, rounded and bounded by min/max
+    private int measure() throws Exception {
+        // Take the fastest probe, the slower ones mostly measure JIT warm-up and noise
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_ROUNDS; i++) {
+            bestNanos = Math.min(bestNanos, probe());
+        }
+        double iterationsPerMilli = PROBE_ITERATIONS / (bestNanos / 1_000_000.0);
+        logger.debug("KDF probe: {} PBKDF2 iterations/ms", Math.round(iterationsPerMilli));
+        return clamp(Math.round(iterationsPerMilli * targetMillis / ROUNDING) * ROUNDING);
+    }
+
+    private long probe() throws Exception {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        PBEKeySpec spec = new PBEKeySpec("calibration".toCharArray(), salt, PROBE_ITERATIONS, KEY_LENGTH);
+        SecretKeyFactory factory = cryptoPrimitives.pbkdf2();
+        long start = System.nanoTime();
+        factory.generateSecret(spec);
+        long elapsed = System.nanoTime() - start;
+        spec.clearPassword();
+        return elapsed;
+    }
+}
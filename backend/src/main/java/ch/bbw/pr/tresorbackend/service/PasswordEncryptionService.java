@@ -1,44 +1,181 @@
 package ch.bbw.pr.tresorbackend.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 
 import java.security.SecureRandom;
-import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * PasswordEncryptionService
+ * New hashes use the configured policy (BCrypt or Argon2id), stored hashes are verified with the
+ * policy they were written with. Hashing runs on the bounded password hash pool, not on the
+ * request thread; when its queue is full the call fails fast with PasswordHashingBusyException.
  * @author Peter Rutschmann
  */
 @Service
 public class PasswordEncryptionService {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordEncryptionService.class);
+
     @Value("${password.pepper}")
-    private String pepper; 
-    
+    private String pepper;
+
     private final SecureRandom secureRandom;
-    
-    public PasswordEncryptionService() {
+    private final List<PasswordHashPolicy> policies;
+    private final PasswordHashPolicy currentPolicy;
+    // Hash of a random password, verified for unknown accounts so they take as long as a wrong password
+    private final String dummyHash;
+    private final ThreadPoolExecutor passwordHashExecutor;
+    private final Timer queueTimer;
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+    private final Counter rejected;
+
+    @Value("${app.password-hash.retry-after-seconds:2}")
+    private long retryAfterSeconds;
+
+    public PasswordEncryptionService(@Qualifier("passwordHashExecutor") ThreadPoolExecutor passwordHashExecutor,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${app.password-hash.policy:bcrypt}") String policy,
+                                     @Value("${app.password-hash.bcrypt.cost:12}") int bcryptCost,
+                                     @Value("${app.password-hash.argon2.memory-kib:19456}") int argon2MemoryKib,
+                                     @Value("${app.password-hash.argon2.iterations:2}") int argon2Iterations,
+                                     @Value("${app.password-hash.argon2.parallelism:1}") int argon2Parallelism) {
         this.secureRandom = new SecureRandom();
+        this.policies = List.of(new BCryptHashPolicy(bcryptCost),
+                new Argon2idHashPolicy(argon2MemoryKib, argon2Iterations, argon2Parallelism));
+        this.currentPolicy = switch (policy) {
+            case "bcrypt" -> policies.get(0);
+            case "argon2id" -> policies.get(1);
+            default -> throw new IllegalArgumentException("Unknown password hash policy: " + policy);
+        };
+        byte[] dummyPassword = new byte[16];
+        secureRandom.nextBytes(dummyPassword);
+        this.dummyHash = currentPolicy.hash(HexFormat.of().formatHex(dummyPassword));
+        this.passwordHashExecutor = passwordHashExecutor;
+        this.queueTimer = Timer.builder("tresor.password.hash.queue").register(meterRegistry);
+        this.hashTimer = Timer.builder("tresor.password.hash.duration").tag("op", "hash").register(meterRegistry);
+        this.verifyTimer = Timer.builder("tresor.password.hash.duration").tag("op", "verify").register(meterRegistry);
+        this.rejected = Counter.builder("tresor.password.hash.rejected").register(meterRegistry);
+        Gauge.builder("tresor.password.hash.queued", passwordHashExecutor, e -> e.getQueue().size())
+                .register(meterRegistry);
+        logger.info("Password hash policy: {}", currentPolicy.describe());
     }
-    
+
     /**
-     * Hashe das Passwort mit BCrypt und "salt" und "pepper"
+     * Hashe das Passwort mit der aktuellen Policy, "salt" und "pepper"
      */
     public String hashPassword(String password) {
         String pepperedPassword = password + pepper;
-        
-        String salt = BCrypt.gensalt(12);
-        
-        return BCrypt.hashpw(pepperedPassword, salt);
+
+        return runOnPool(hashTimer, () -> currentPolicy.hash(pepperedPassword));
     }
-    
+
     /**
-     * Verifiziere das Passwort gegen ein Hash
+     * Verifiziere das Passwort gegen ein Hash, mit der Policy, die den Hash erzeugt hat
      */
     public boolean verifyPassword(String password, String hashedPassword) {
         String pepperedPassword = password + pepper;
-        
-        return BCrypt.checkpw(pepperedPassword, hashedPassword);
+        PasswordHashPolicy policy = policyOf(hashedPassword);
+        if (policy == null) {
+            logger.warn("Stored password hash has an unknown format");
+            return false;
+        }
+
+        return runOnPool(verifyTimer, () -> policy.verify(pepperedPassword, hashedPassword));
+    }
+
+    /**
+     * Like verifyPassword, without blocking the caller. Cancelling the result before the
+     * pool picks it up skips the hash computation.
+     * @return completes with the result, or with PasswordHashingBusyException if the pool is saturated
+     */
+    public CompletableFuture<Boolean> verifyPasswordAsync(String password, String hashedPassword) {
+        String pepperedPassword = password + pepper;
+        PasswordHashPolicy policy = policyOf(hashedPassword);
+        if (policy == null) {
+            logger.warn("Stored password hash has an unknown format");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return submitToPool(verifyTimer, () -> policy.verify(pepperedPassword, hashedPassword));
+    }
+
+    /**
+     * Costs the same as verifyPasswordAsync with a hash of the current policy, for logins of
+     * accounts that do not exist, so the response time does not tell which ones do
+     * @return completes with false, or with PasswordHashingBusyException if the pool is saturated
+     */
+    public CompletableFuture<Boolean> verifyUnknownAccountAsync(String password) {
+        String pepperedPassword = password + pepper;
+
+        return submitToPool(verifyTimer, () -> {
+            currentPolicy.verify(pepperedPassword, dummyHash);
+            return false;
+        });
+    }
+
+    /**
+     * @return true if the hash was written with another algorithm or weaker parameters than the current policy
+     */
+    public boolean needsRehash(String hashedPassword) {
+        return !currentPolicy.handles(hashedPassword) || currentPolicy.isWeakerThanPolicy(hashedPassword);
+    }
+
+    private PasswordHashPolicy policyOf(String hashedPassword) {
+        for (PasswordHashPolicy policy : policies) {
+            if (policy.handles(hashedPassword)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    private <T> T runOnPool(Timer durationTimer, Supplier<T> work) {
+        CompletableFuture<T> future = submitToPool(durationTimer, work);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        }
+    }
+
+    private <T> CompletableFuture<T> submitToPool(Timer durationTimer, Supplier<T> work) {
+        long submitted = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                queueTimer.record(started - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    return work.get();
+                } finally {
+                    durationTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            }, passwordHashExecutor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new PasswordHashingBusyException(retryAfterSeconds));
+        }
     }
 }
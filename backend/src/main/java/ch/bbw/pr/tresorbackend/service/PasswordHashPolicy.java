@@ -0,0 +1,28 @@
+package ch.bbw.pr.tresorbackend.service;
+
+/**
+ * One password hashing algorithm with its parameters.
+ * Hashes are self-describing (modular crypt format), so the policy of a stored hash is
+ * detected from the hash itself and older hashes stay verifiable after the policy changes.
+ */
+public interface PasswordHashPolicy {
+
+    /**
+     * @return name and parameters, e.g. "bcrypt(cost=12)"
+     */
+    String describe();
+
+    /**
+     * @return true if the hash was produced by this algorithm
+     */
+    boolean handles(String hash);
+
+    String hash(String password);
+
+    boolean verify(String password, String hash);
+
+    /**
+     * @return true if the hash, produced by this algorithm, uses weaker parameters than this policy
+     */
+    boolean isWeakerThanPolicy(String hash);
+}
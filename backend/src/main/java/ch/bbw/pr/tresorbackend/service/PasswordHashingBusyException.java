@@ -0,0 +1,20 @@
+package ch.bbw.pr.tresorbackend.service;
+
+/**
+ * Thrown when the password hashing pool is saturated, answered with 503 and Retry-After
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public PasswordHashingBusyException(long retryAfterSeconds) {
+        super("Password hashing is saturated, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,87 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Moves password hashes to the current policy after a successful login, in the background.
+ * The new hash goes through ReencryptionJobService like a password change, so the data key is
+ * re-wrapped in the same transaction and the vault stays readable.
+ */
+@Service
+public class PasswordRehashService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordRehashService.class);
+
+    private final PasswordEncryptionService passwordService;
+    private final UserRepository userRepository;
+    private final ReencryptionJobService reencryptionJobService;
+    private final SecretKeyCache secretKeyCache;
+    private final SecretPlaintextCache secretPlaintextCache;
+    private final ExecutorService reencryptionExecutor;
+    private final Set<Long> pendingUsers = ConcurrentHashMap.newKeySet();
+
+    public PasswordRehashService(PasswordEncryptionService passwordService,
+                                 UserRepository userRepository,
+                                 ReencryptionJobService reencryptionJobService,
+                                 SecretKeyCache secretKeyCache,
+                                 SecretPlaintextCache secretPlaintextCache,
+                                 @Qualifier("reencryptionExecutor") ExecutorService reencryptionExecutor) {
+        this.passwordService = passwordService;
+        this.userRepository = userRepository;
+        this.reencryptionJobService = reencryptionJobService;
+        this.secretKeyCache = secretKeyCache;
+        this.secretPlaintextCache = secretPlaintextCache;
+        this.reencryptionExecutor = reencryptionExecutor;
+    }
+
+    /**
+     * Schedule a rehash if the user's hash is outdated, call only after the password was verified
+     * @param user the user as loaded for the login
+     * @param password the verified password
+     */
+    public void rehashIfOutdated(User user, String password) {
+        Long userId = user.getId();
+        String verifiedHash = user.getPassword();
+        if (!passwordService.needsRehash(verifiedHash) || !pendingUsers.add(userId)) {
+            return;
+        }
+        try {
+            reencryptionExecutor.execute(() -> {
+                try {
+                    rehash(userId, verifiedHash, password);
+                } catch (Exception e) {
+                    logger.warn("Rehashing password of user ID {} failed: {}", userId, e.getMessage());
+                } finally {
+                    pendingUsers.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue is full, the next login tries again
+            pendingUsers.remove(userId);
+        }
+    }
+
+    private void rehash(Long userId, String verifiedHash, String password) {
+        // Skip if the password changed since the login, e.g. by a reset
+        User user = userRepository.findById(userId).orElse(null);
+        if (user == null || !verifiedHash.equals(user.getPassword())) {
+            return;
+        }
+        reencryptionJobService.changePasswordHash(user, passwordService.hashPassword(password));
+
+        // Keys derived from the old password hash must not be served any more
+        secretKeyCache.invalidateUser(userId);
+        secretPlaintextCache.invalidateUser(userId);
+        logger.info("Rehashed password of user ID {} with the current policy", userId);
+    }
+}
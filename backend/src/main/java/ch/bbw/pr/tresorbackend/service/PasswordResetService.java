@@ -32,6 +32,15 @@ public class PasswordResetService {
     @Autowired
     private PasswordEncryptionService passwordService;
     
+    @Autowired
+    private SecretKeyCache secretKeyCache;
+    
+    @Autowired
+    private ReencryptionJobService reencryptionJobService;
+    
+    @Autowired
+    private SecretPlaintextCache secretPlaintextCache;
+    
     @Value("${app.password-reset.token-expiration}")
     private long tokenExpirationMs;
     
@@ -114,9 +123,12 @@ public class PasswordResetService {
             return false;
         }
         
-        // Update password
-        user.setPassword(passwordService.hashPassword(newPassword));
-        userService.updateUser(user);
+        // Update password, the data key is re-wrapped with it and older secrets are re-encrypted in the background
+        reencryptionJobService.changePasswordHash(user, passwordService.hashPassword(newPassword));
+        
+        // Keys derived from the old password hash must not be served any more
+        secretKeyCache.invalidateUser(user.getId());
+        secretPlaintextCache.invalidateUser(user.getId());
         
         // Delete the used token
         PasswordResetToken resetToken = tokenRepository.findByToken(token);
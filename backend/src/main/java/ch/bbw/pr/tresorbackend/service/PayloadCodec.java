@@ -0,0 +1,148 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes secret contents before they are encrypted.
+ * Contents of at least deflate-threshold bytes are deflated if that makes them smaller.
+ * Optionally JSON contents are stored as Smile (binary JSON) when that reproduces the exact
+ * same text; for the small documents the frontend sends this saves only a few bytes, so it is
+ * off by default. The chosen codec goes into the envelope header, decoding supports all of them.
+ */
+@Component
+public class PayloadCodec {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private final SmileMapper smileMapper = new SmileMapper();
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    private final boolean smileEnabled;
+    private final boolean deflateEnabled;
+    private final int deflateThreshold;
+    private final int maxDecodedBytes;
+
+    public PayloadCodec(@Value("${app.secret-codec.smile-enabled:false}") boolean smileEnabled,
+                        @Value("${app.secret-codec.deflate-enabled:true}") boolean deflateEnabled,
+                        @Value("${app.secret-codec.deflate-threshold:256}") int deflateThreshold,
+                        @Value("${app.secret-codec.deflate-level:6}") int deflateLevel,
+                        @Value("${app.secret-codec.max-decoded-bytes:16777216}") int maxDecodedBytes) {
+        this.smileEnabled = smileEnabled;
+        this.deflateEnabled = deflateEnabled;
+        this.deflateThreshold = deflateThreshold;
+        this.maxDecodedBytes = maxDecodedBytes;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(deflateLevel));
+    }
+
+    /**
+     * Encoded plain text together with its codec id
+     */
+    public record Encoded(byte codec, byte[] bytes) {
+    }
+
+    /**
+     * Encode a secret's content for encryption
+     * @param content the plain text content
+     * @return codec and encoded bytes
+     */
+    public Encoded encode(String content) {
+        byte[] smile = smileEnabled ? toSmile(content) : null;
+        boolean isSmile = smile != null;
+        byte[] bytes = isSmile ? smile : content.getBytes(StandardCharsets.UTF_8);
+        if (deflateEnabled && bytes.length >= deflateThreshold) {
+            byte[] deflated = deflate(bytes);
+            if (deflated.length < bytes.length) {
+                return new Encoded(isSmile ? SecretEnvelope.CODEC_SMILE_DEFLATE : SecretEnvelope.CODEC_UTF8_DEFLATE, deflated);
+            }
+        }
+        return new Encoded(isSmile ? SecretEnvelope.CODEC_SMILE : SecretEnvelope.CODEC_UTF8, bytes);
+    }
+
+    /**
+     * Decode decrypted plain text back into the content string
+     * @param codec codec id from the envelope header
+     * @param bytes decrypted bytes
+     * @return the content
+     */
+    public String decode(byte codec, byte[] bytes) throws IOException {
+        return switch (codec) {
+            case SecretEnvelope.CODEC_UTF8 -> new String(bytes, StandardCharsets.UTF_8);
+            case SecretEnvelope.CODEC_SMILE -> fromSmile(bytes);
+            case SecretEnvelope.CODEC_UTF8_DEFLATE -> new String(inflate(bytes), StandardCharsets.UTF_8);
+            case SecretEnvelope.CODEC_SMILE_DEFLATE -> fromSmile(inflate(bytes));
+            default -> throw new IllegalArgumentException("Unsupported payload codec: " + codec);
+        };
+    }
+
+    // Only use Smile if decoding gives back the identical text, so the codec is never lossy
+    private byte[] toSmile(String content) {
+        if (content.isEmpty() || (content.charAt(0) != '{' && content.charAt(0) != '[')) {
+            return null;
+        }
+        try {
+            JsonNode tree = jsonMapper.readTree(content);
+            if (!content.equals(jsonMapper.writeValueAsString(tree))) {
+                return null;
+            }
+            return smileMapper.writeValueAsBytes(tree);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private String fromSmile(byte[] bytes) throws IOException {
+        return jsonMapper.writeValueAsString(smileMapper.readTree(bytes));
+    }
+
+    private byte[] deflate(byte[] input) {
+        Deflater def = deflater.get();
+        def.reset();
+        def.setInput(input);
+        def.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!def.finished()) {
+            out.write(buffer, 0, def.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(byte[] input) throws IOException {
+        Inflater inf = inflater.get();
+        inf.reset();
+        inf.setInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (!inf.finished()) {
+                int n = inf.inflate(buffer);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                if (out.size() + n > maxDecodedBytes) {
+                    throw new IOException("Decoded payload exceeds " + maxDecodedBytes + " bytes");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed payload", e);
+        }
+        return out.toByteArray();
+    }
+}
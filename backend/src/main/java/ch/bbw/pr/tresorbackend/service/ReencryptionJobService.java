@@ -0,0 +1,208 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.ReencryptionJob;
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.ReencryptionJobRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.SecretKey;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps a user's secrets readable when the password hash changes.
+ * The data key is re-wrapped in the same transaction as the hash update (one unwrap and
+ * one wrap, independent of the vault size). Legacy rows that are still encrypted with keys
+ * derived from the old hash are converted in the background in committed batches; the job
+ * row keeps the old hash and the progress, so the work resumes after a restart. Until a row
+ * is converted, reads fall back to the old hash (see {@link SecretEncryptionService}); rows that
+ * fail are retried in later runs and the job is only deleted once no legacy row is left.
+ */
+@Service
+public class ReencryptionJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReencryptionJobService.class);
+
+    private final ReencryptionJobRepository jobRepository;
+    private final SecretRepository secretRepository;
+    private final UserRepository userRepository;
+    private final DataKeyService dataKeyService;
+    private final SecretEncryptionService encryptionService;
+    private final SecretSummaryService summaryService;
+    private final BlindIndexService blindIndexService;
+    private final ExecutorService reencryptionExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.reencryption.batch-size:50}")
+    private int batchSize;
+
+    public ReencryptionJobService(ReencryptionJobRepository jobRepository,
+                                  SecretRepository secretRepository,
+                                  UserRepository userRepository,
+                                  DataKeyService dataKeyService,
+                                  SecretEncryptionService encryptionService,
+                                  SecretSummaryService summaryService,
+                                  BlindIndexService blindIndexService,
+                                  @Qualifier("reencryptionExecutor") ExecutorService reencryptionExecutor,
+                                  PlatformTransactionManager transactionManager) {
+        this.jobRepository = jobRepository;
+        this.secretRepository = secretRepository;
+        this.userRepository = userRepository;
+        this.dataKeyService = dataKeyService;
+        this.encryptionService = encryptionService;
+        this.summaryService = summaryService;
+        this.blindIndexService = blindIndexService;
+        this.reencryptionExecutor = reencryptionExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Store a new password hash for a user and keep the vault decryptable
+     * @param user the user, still carrying the previous hash
+     * @param newPasswordHash the new hash
+     */
+    public void changePasswordHash(User user, String newPasswordHash) {
+        Long userId = user.getId();
+        String previousPasswordHash = user.getPassword();
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                dataKeyService.changePassword(userId, previousPasswordHash, newPasswordHash);
+            } catch (Exception e) {
+                throw new RuntimeException("Error re-wrapping data key of user " + userId, e);
+            }
+            userRepository.updatePassword(userId, newPasswordHash);
+            user.setPassword(newPasswordHash);
+
+            // An unfinished job keeps its hash: the remaining legacy rows were written with that one
+            if (jobRepository.findByUserId(userId).isEmpty()
+                    && !secretRepository.findLegacyByUserAfter(userId, 0L, PageRequest.ofSize(1)).isEmpty()) {
+                ReencryptionJob job = new ReencryptionJob();
+                job.setUserId(userId);
+                job.setPreviousPasswordHash(previousPasswordHash);
+                jobRepository.save(job);
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    schedule(userId);
+                }
+            });
+        });
+    }
+
+    /**
+     * Pick up jobs that are not running, e.g. after a restart or a full queue
+     */
+    @Scheduled(fixedDelayString = "${app.reencryption.resume-interval-ms:60000}")
+    public void resumeJobs() {
+        for (Long userId : jobRepository.findAllUserIds()) {
+            schedule(userId);
+        }
+    }
+
+    private void schedule(Long userId) {
+        if (!runningJobs.add(userId)) {
+            return;
+        }
+        try {
+            reencryptionExecutor.execute(() -> {
+                try {
+                    run(userId);
+                } catch (Exception e) {
+                    logger.error("Re-encryption job of user ID {} stopped: {}", userId, e.getMessage());
+                } finally {
+                    runningJobs.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue is full, resumeJobs() schedules it again
+            runningJobs.remove(userId);
+        }
+    }
+
+    private void run(Long userId) throws Exception {
+        ReencryptionJob job = jobRepository.findByUserId(userId).orElse(null);
+        if (job == null) {
+            return;
+        }
+        User user = userRepository.findById(userId).orElseThrow(() -> new IllegalStateException("User not found"));
+
+        // The data key is unwrapped once for the whole job
+        SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+        while (true) {
+            List<Secret> batch = secretRepository.findLegacyByUserAfter(userId, job.getCursorId(), PageRequest.ofSize(batchSize));
+            if (batch.isEmpty()) {
+                finishPass(job);
+                return;
+            }
+
+            // Crypto outside of the transaction, the batch and the progress are committed together.
+            // A row is only changed once all of it is encrypted, a failing row stays legacy.
+            int converted = 0;
+            for (Secret secret : batch) {
+                try {
+                    String plainText = encryptionService.decrypt(secret, dataKey, userId, job.getPreviousPasswordHash());
+                    byte[] payload = encryptionService.encrypt(plainText, dataKey);
+                    byte[] metadata = summaryService.encryptMetadata(plainText, dataKey);
+                    secret.setPayload(payload);
+                    secret.setMetadata(metadata);
+                    secret.setLegacyContent(null);
+                    secret.setContent(plainText);
+                    converted++;
+                } catch (Exception e) {
+                    logger.error("Error re-encrypting secret {}: {}", secret.getId(), e.getMessage());
+                }
+            }
+            job.setCursorId(batch.get(batch.size() - 1).getId());
+            job.setMigrated(job.getMigrated() + converted);
+            job.setFailed(job.getFailed() + batch.size() - converted);
+            ReencryptionJob progress = job;
+            job = transactionTemplate.execute(status -> {
+                for (Secret secret : batch) {
+                    if (secret.getPayload() != null) {
+                        secretRepository.save(secret);
+                        try {
+                            blindIndexService.index(userId, secret.getId(), dataKey, secret.getContent());
+                        } catch (Exception e) {
+                            throw new RuntimeException("Error indexing secret " + secret.getId(), e);
+                        }
+                    }
+                }
+                return jobRepository.save(progress);
+            });
+        }
+    }
+
+    // The previous hash is only dropped once no legacy row of the user is left, rows that failed
+    // in this pass keep the job and are retried from the start by the next resumeJobs() run
+    private void finishPass(ReencryptionJob job) {
+        Long userId = job.getUserId();
+        if (secretRepository.findLegacyByUserAfter(userId, 0L, PageRequest.ofSize(1)).isEmpty()) {
+            jobRepository.delete(job);
+            logger.info("Re-encryption of user ID {} finished: {} converted", userId, job.getMigrated());
+            return;
+        }
+        logger.warn("Re-encryption of user ID {} incomplete: {} secrets failed, keeping the previous key material",
+                userId, job.getFailed());
+        job.setCursorId(0);
+        job.setFailed(0);
+        jobRepository.save(job);
+    }
+}
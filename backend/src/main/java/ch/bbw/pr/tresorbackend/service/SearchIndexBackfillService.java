@@ -0,0 +1,98 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds secrets stored before the blind index existed to the index.
+ * Runs in small scheduled batches over envelope rows not marked as indexed; legacy rows are
+ * indexed by {@link SecretMigrationService} when they are converted. A failing row is logged
+ * and retried in the next pass. Until a user's rows are covered, search may miss them,
+ * {@link BlindIndexService#pendingCount(Long)} tells how many.
+ */
+@Service
+public class SearchIndexBackfillService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexBackfillService.class);
+
+    private final SecretRepository secretRepository;
+    private final SecretEncryptionService encryptionService;
+    private final DataKeyService dataKeyService;
+    private final UserService userService;
+    private final BlindIndexService blindIndexService;
+
+    @Value("${app.secret-search.backfill-enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.secret-search.backfill-batch-size:100}")
+    private int batchSize;
+
+    // Highest secret id looked at in the current pass, restarts from 0 once a pass is complete
+    private long cursor = 0;
+
+    public SearchIndexBackfillService(SecretRepository secretRepository,
+                                      SecretEncryptionService encryptionService,
+                                      DataKeyService dataKeyService,
+                                      UserService userService,
+                                      BlindIndexService blindIndexService) {
+        this.secretRepository = secretRepository;
+        this.encryptionService = encryptionService;
+        this.dataKeyService = dataKeyService;
+        this.userService = userService;
+        this.blindIndexService = blindIndexService;
+    }
+
+    /**
+     * Index the next batch of secrets missing from the blind index
+     * @return number of secrets indexed
+     */
+    @Scheduled(fixedDelayString = "${app.secret-search.backfill-interval-ms:30000}")
+    public synchronized int backfill() {
+        if (!enabled) {
+            return 0;
+        }
+        List<Secret> batch = secretRepository.findUnindexedAfter(cursor, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            cursor = 0;
+            return 0;
+        }
+
+        // One user lookup and one data key unwrap per user and batch
+        Map<Long, User> users = new HashMap<>();
+        Map<Long, SecretKey> dataKeys = new HashMap<>();
+        int indexed = 0;
+        for (Secret secret : batch) {
+            cursor = secret.getId();
+            try {
+                User user = users.computeIfAbsent(secret.getUserId(), userService::getUserById);
+                SecretKey dataKey = dataKeys.get(user.getId());
+                if (dataKey == null) {
+                    dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+                    dataKeys.put(user.getId(), dataKey);
+                }
+                // Streamed secrets have no searchable fields, they are only marked as indexed
+                String content = SecretStreamService.isStream(secret)
+                        ? null
+                        : encryptionService.decrypt(secret, dataKey, user.getId(), user.getPassword());
+                blindIndexService.index(user.getId(), secret.getId(), dataKey, content);
+                indexed++;
+            } catch (Exception e) {
+                logger.error("Error indexing secret {}: {}", secret.getId(), e.getMessage());
+            }
+        }
+        logger.info("Added {} of {} secrets to the search index", indexed, batch.size());
+        return indexed;
+    }
+}
@@ -0,0 +1,301 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretBatchRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk import and export of a user's vault.
+ * Imports are parsed as a stream, encrypted in parallel and written with JDBC batch inserts,
+ * one transaction per chunk, so a bad chunk does not roll back the items before it.
+ * Exports page through the vault by id and stream the decrypted items out as a JSON array;
+ * streamed files are listed as skipped instead of exporting their descriptor as content.
+ */
+@Service
+public class SecretBulkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretBulkService.class);
+
+    private final SecretBatchRepository secretBatchRepository;
+    private final SecretEncryptionService encryptionService;
+    private final DataKeyService dataKeyService;
+    private final SecretDecryptionPipeline cryptoPipeline;
+    private final UserService userService;
+    private final BlindIndexService blindIndexService;
+    private final SecretSummaryService summaryService;
+    private final VaultVersionService vaultVersionService;
+    private final VaultChangeFeed changeFeed;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.secret-bulk.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.secret-bulk.max-items:10000}")
+    private int maxItems;
+
+    public SecretBulkService(SecretBatchRepository secretBatchRepository,
+                             SecretEncryptionService encryptionService,
+                             DataKeyService dataKeyService,
+                             SecretDecryptionPipeline cryptoPipeline,
+                             UserService userService,
+                             BlindIndexService blindIndexService,
+                             SecretSummaryService summaryService,
+                             VaultVersionService vaultVersionService,
+                             VaultChangeFeed changeFeed,
+                             PlatformTransactionManager transactionManager,
+                             ObjectMapper objectMapper) {
+        this.secretBatchRepository = secretBatchRepository;
+        this.encryptionService = encryptionService;
+        this.dataKeyService = dataKeyService;
+        this.cryptoPipeline = cryptoPipeline;
+        this.userService = userService;
+        this.blindIndexService = blindIndexService;
+        this.summaryService = summaryService;
+        this.vaultVersionService = vaultVersionService;
+        this.changeFeed = changeFeed;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Result for one item of an import, either the new id or an error
+     */
+    public record ItemResult(int index, Long id, String error) {
+    }
+
+    /**
+     * Summary of an import
+     */
+    public record ImportResult(int imported, int failed, List<ItemResult> results) {
+    }
+
+    /**
+     * Everything needed to stream an export, resolved before the response starts
+     */
+    public record Export(Long userId, SecretKey dataKey, String password) {
+    }
+
+    private record PendingItem(int index, JsonNode node) {
+    }
+
+    private record EncryptedItem(int index, Secret secret, List<String> tokens, String error) {
+    }
+
+    /**
+     * Import a JSON array of items of the form {"content": ...} for a user
+     * @param userId owner of the new secrets
+     * @param in request body
+     * @return per-item results
+     */
+    public ImportResult importSecrets(Long userId, InputStream in) throws Exception {
+        User user = userService.getUserById(userId);
+        SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+        SecretKey indexKey = blindIndexService.indexKey(dataKey);
+
+        List<ItemResult> results = new ArrayList<>();
+        List<PendingItem> batch = new ArrayList<>(batchSize);
+        try (JsonParser parser = objectMapper.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array of secrets");
+            }
+            int index = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IllegalArgumentException("Unexpected end of input");
+                }
+                if (index >= maxItems) {
+                    throw new IllegalArgumentException("Import exceeds the maximum of " + maxItems + " secrets");
+                }
+                batch.add(new PendingItem(index++, parser.readValueAsTree()));
+                if (batch.size() == batchSize) {
+                    results.addAll(storeBatch(userId, dataKey, indexKey, batch));
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            results.addAll(storeBatch(userId, dataKey, indexKey, batch));
+        }
+
+        int imported = (int) results.stream().filter(r -> r.error() == null).count();
+        logger.info("Imported {} of {} secrets for user ID: {}", imported, results.size(), userId);
+        return new ImportResult(imported, results.size() - imported, results);
+    }
+
+    private List<ItemResult> storeBatch(Long userId, SecretKey dataKey, SecretKey indexKey, List<PendingItem> batch) {
+        List<EncryptedItem> encrypted = cryptoPipeline.encryptAll(batch, item -> {
+            String content = contentOf(item.node());
+            if (content == null) {
+                return new EncryptedItem(item.index(), null, null, "content is required");
+            }
+            // A failing item is reported on its own, the rest of the chunk is still stored
+            try {
+                Secret secret = new Secret();
+                secret.setUserId(userId);
+                secret.setPayload(encryptionService.encrypt(content, dataKey));
+                secret.setMetadata(summaryService.encryptMetadata(content, dataKey));
+                return new EncryptedItem(item.index(), secret, blindIndexService.tokensFor(indexKey, content), null);
+            } catch (Exception e) {
+                logger.error("Error encrypting imported secret {}: {}", item.index(), e.getMessage());
+                return new EncryptedItem(item.index(), null, null, "could not be encrypted");
+            }
+        });
+
+        List<EncryptedItem> valid = encrypted.stream().filter(e -> e.secret() != null).toList();
+        List<Long> ids;
+        String storageError = null;
+        try {
+            ids = valid.isEmpty() ? List.of() : transactionTemplate.execute(status -> insert(userId, valid));
+        } catch (DataAccessException e) {
+            logger.error("Error storing imported secrets: " + e.getMessage());
+            ids = List.of();
+            storageError = "could not be stored";
+        }
+
+        List<ItemResult> results = new ArrayList<>(batch.size());
+        int stored = 0;
+        for (EncryptedItem item : encrypted) {
+            if (item.secret() == null) {
+                results.add(new ItemResult(item.index(), null, item.error()));
+            } else if (storageError != null) {
+                results.add(new ItemResult(item.index(), null, storageError));
+            } else {
+                results.add(new ItemResult(item.index(), ids.get(stored++), null));
+            }
+        }
+        return results;
+    }
+
+    // Secrets and their search tokens go in together, in the caller's transaction; open feeds hear about them after commit
+    private List<Long> insert(Long userId, List<EncryptedItem> items) {
+        long version = vaultVersionService.bump(userId);
+        items.forEach(item -> item.secret().setChangeSeq(version));
+        List<Long> ids = secretBatchRepository.insertAll(items.stream().map(EncryptedItem::secret).toList());
+        List<Long> tokenSecretIds = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            for (String token : items.get(i).tokens()) {
+                tokenSecretIds.add(ids.get(i));
+                tokens.add(token);
+            }
+        }
+        secretBatchRepository.insertTokens(userId, tokenSecretIds, tokens);
+        for (Long id : ids) {
+            changeFeed.publish(userId, id, VaultChangeFeed.Op.CREATED, version);
+        }
+        return ids;
+    }
+
+    private static String contentOf(JsonNode node) {
+        JsonNode content = node != null ? node.get("content") : null;
+        if (content == null || content.isNull()) {
+            return null;
+        }
+        return content.isTextual() ? content.asText() : content.toString();
+    }
+
+    /**
+     * Resolve user and data key of an export
+     * @param userId the owner of the vault
+     * @return the export handle
+     */
+    public Export openExport(Long userId) throws Exception {
+        User user = userService.getUserById(userId);
+        SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+        return new Export(user.getId(), dataKey, user.getPassword());
+    }
+
+    /**
+     * Write the vault as a JSON array of {"id": ..., "content": ...}, one page at a time
+     * @param export handle from {@link #openExport(Long)}
+     * @param out target stream
+     */
+    public void exportSecrets(Export export, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            generator.writeStartArray();
+            long afterId = 0;
+            List<Secret> page;
+            do {
+                page = secretBatchRepository.findPage(export.userId(), afterId, batchSize);
+                List<String> contents = cryptoPipeline.decryptAll(page, secret -> {
+                    if (isStream(secret)) {
+                        return null;
+                    }
+                    try {
+                        return encryptionService.decrypt(secret, export.dataKey(), export.userId(), export.password());
+                    } catch (Exception e) {
+                        logger.error("Error exporting secret {}: {}", secret.getId(), e.getMessage());
+                        return null;
+                    }
+                });
+                for (int i = 0; i < page.size(); i++) {
+                    Secret secret = page.get(i);
+                    if (isStream(secret)) {
+                        writeSkipped(generator, secret.getId(), "streamed");
+                    } else {
+                        writeItem(generator, secret.getId(), contents.get(i));
+                    }
+                }
+                generator.flush();
+                if (!page.isEmpty()) {
+                    afterId = page.get(page.size() - 1).getId();
+                }
+            } while (page.size() == batchSize);
+            generator.writeEndArray();
+        }
+    }
+
+    // A payload that cannot be parsed is reported by the decryption as an error item
+    private static boolean isStream(Secret secret) {
+        try {
+            return SecretStreamService.isStream(secret);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // Streamed files are not part of the JSON export, they are downloaded through /{id}/stream
+    private static void writeSkipped(JsonGenerator generator, Long id, String reason) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("skipped", reason);
+        generator.writeEndObject();
+    }
+
+    private void writeItem(JsonGenerator generator, Long id, String content) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        if (content == null) {
+            generator.writeStringField("error", "could not be decrypted");
+        } else {
+            generator.writeFieldName("content");
+            try {
+                generator.writeTree(objectMapper.readTree(content));
+            } catch (IOException e) {
+                generator.writeString(content);
+            }
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,119 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decrypts (or encrypts, for bulk imports) the secrets of a vault in parallel on the dedicated pool.
+ * The list is split into at most max-parallelism contiguous slices, so results keep their order.
+ * The first failing item stops the remaining slices and its exception is rethrown.
+ * Slices the pool rejects run on the calling thread.
+ */
+@Service
+public class SecretDecryptionPipeline {
+
+    private final ExecutorService executor;
+    private final int maxParallelism;
+    private final int minItemsPerTask;
+
+    public SecretDecryptionPipeline(@Qualifier("secretDecryptionExecutor") ExecutorService executor,
+                                    @Value("${app.secret-decryption.max-parallelism:4}") int maxParallelism,
+                                    @Value("${app.secret-decryption.min-items-per-task:8}") int minItemsPerTask) {
+        this.executor = executor;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.minItemsPerTask = Math.max(1, minItemsPerTask);
+    }
+
+    /**
+     * Decrypt or encrypt function for a single item
+     */
+    @FunctionalInterface
+    public interface CryptoTask<S, T> {
+        T apply(S item) throws Exception;
+    }
+
+    /**
+     * Apply the task to every item, in parallel for larger lists
+     * @param items encrypted items
+     * @param task decrypts one item
+     * @return decrypted items in the same order
+     */
+    public <S, T> List<T> decryptAll(List<S> items, CryptoTask<S, T> task) {
+        return applyAll(items, task);
+    }
+
+    /**
+     * Apply the task to every item, in parallel for larger lists
+     * @param items plain text items
+     * @param task encrypts one item
+     * @return encrypted items in the same order
+     */
+    public <S, T> List<T> encryptAll(List<S> items, CryptoTask<S, T> task) {
+        return applyAll(items, task);
+    }
+
+    private <S, T> List<T> applyAll(List<S> items, CryptoTask<S, T> task) {
+        int slices = Math.min(maxParallelism, items.size() / minItemsPerTask);
+        if (slices <= 1) {
+            List<T> results = new ArrayList<>(items.size());
+            for (S item : items) {
+                results.add(apply(task, item));
+            }
+            return results;
+        }
+
+        Object[] results = new Object[items.size()];
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[slices];
+        int sliceSize = (items.size() + slices - 1) / slices;
+        for (int i = 0; i < slices; i++) {
+            int from = i * sliceSize;
+            int to = Math.min(items.size(), from + sliceSize);
+            Runnable slice = () -> {
+                // Stop early once any slice has failed, the whole request fails anyway
+                for (int j = from; j < to && failure.get() == null; j++) {
+                    try {
+                        results[j] = apply(task, items.get(j));
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            try {
+                futures[i] = CompletableFuture.runAsync(slice, executor);
+            } catch (RejectedExecutionException e) {
+                // Pool saturated or shut down: run the slice here, so join() never waits on a dropped task
+                slice.run();
+                futures[i] = CompletableFuture.completedFuture(null);
+            }
+        }
+
+        CompletableFuture.allOf(futures).join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> ordered = (List<T>) Arrays.asList(results);
+        return new ArrayList<>(ordered);
+    }
+
+    private static <S, T> T apply(CryptoTask<S, T> task, S item) {
+        try {
+            return task.apply(item);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error decrypting secret", e);
+        }
+    }
+}
@@ -1,106 +1,192 @@
 package ch.bbw.pr.tresorbackend.service;
 
-import lombok.AllArgsConstructor;
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.repository.ReencryptionJobRepository;
+import com.google.gson.JsonObject;
 import org.springframework.stereotype.Service;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Optional;
 
 /**
  * Service for encrypting and decrypting secrets
- * Uses AES/GCM/NoPadding with a persistent key derivation approach
+ * Uses AES/GCM/NoPadding with the user's data key (envelope encryption) and stores
+ * the result in the binary {@link SecretEnvelope} format. Contents pass through the
+ * {@link PayloadCodec} before encryption.
+ * Older rows in one of the text formats are still readable.
  */
 @Service
 public class SecretEncryptionService {
-    private static final String ALGORITHM = "AES/GCM/NoPadding";
     private static final int TAG_LENGTH_BIT = 128;
     private static final int IV_LENGTH_BYTE = 12;
     private static final String SEPARATOR = "###";
+    private static final String TEXT_ENVELOPE_PREFIX = "v2$";
 
     private final SecureRandom secureRandom;
     private final SecretKeyService secretKeyService;
-
-    public SecretEncryptionService() {
+    private final SecretKeyCache secretKeyCache;
+    private final CryptoPrimitives cryptoPrimitives;
+    private final PayloadCodec payloadCodec;
+    private final ReencryptionJobRepository reencryptionJobRepository;
+
+    public SecretEncryptionService(SecretKeyService secretKeyService,
+                                   SecretKeyCache secretKeyCache,
+                                   CryptoPrimitives cryptoPrimitives,
+                                   PayloadCodec payloadCodec,
+                                   ReencryptionJobRepository reencryptionJobRepository) {
         this.secureRandom = new SecureRandom();
-        this.secretKeyService = new SecretKeyService();
+        this.secretKeyService = secretKeyService;
+        this.secretKeyCache = secretKeyCache;
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.payloadCodec = payloadCodec;
+        this.reencryptionJobRepository = reencryptionJobRepository;
     }
 
     /**
-     * Encrypts a secret and stores key information with the encrypted content
-     * Format: encryptedContent###keyData
+     * Encrypts a secret with the user's data key into the binary envelope format
      */
-    public String encrypt(String content, String password) throws Exception {
-        // Generate a new key for this secret
-        SecretKeyService.KeyData keyData = secretKeyService.generateKey(password);
-        SecretKey key = keyData.getKey();
-
+    public byte[] encrypt(String content, SecretKey dataKey) throws Exception {
         // Generate a random IV (Initialization Vector)
         byte[] iv = new byte[IV_LENGTH_BYTE];
         secureRandom.nextBytes(iv);
 
-        // Initialize cipher for encryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        // Encode the content, then initialize cipher for encryption, the header is authenticated as well
+        PayloadCodec.Encoded encoded = payloadCodec.encode(content);
+        byte[] plainText = encoded.bytes();
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        ByteBuffer envelope = SecretEnvelope.allocate(encoded.codec(), iv, cipher.getOutputSize(plainText.length));
+        cipher.updateAAD(envelope.array(), 0, SecretEnvelope.HEADER_LENGTH);
+
+        // Encrypt straight into the envelope behind header and IV
+        cipher.doFinal(plainText, 0, plainText.length, envelope.array(), SecretEnvelope.CIPHERTEXT_OFFSET);
+        return envelope.array();
+    }
+
+    /**
+     * Decrypts a secret in any storage format
+     * Binary and v2$ text envelopes are decrypted with the data key, legacy secrets
+     * (encryptedContent###keyData) with a key derived from the password and the stored salt,
+     * or from the previous password hash while a re-encryption job is pending
+     */
+    public String decrypt(Secret secret, SecretKey dataKey, Long userId, String password) throws Exception {
+        if (secret.getPayload() != null) {
+            SecretEnvelope envelope = SecretEnvelope.parse(secret.getPayload());
+            if (envelope.isStream()) {
+                return describeStream(envelope);
+            }
+            return decryptEnvelope(envelope, dataKey);
+        }
+        String storedContent = secret.getLegacyContent();
+        if (storedContent == null) {
+            throw new IllegalArgumentException("Secret " + secret.getId() + " has no content");
+        }
+        if (storedContent.startsWith(TEXT_ENVELOPE_PREFIX)) {
+            return decryptCipherMessage(storedContent.substring(TEXT_ENVELOPE_PREFIX.length()), dataKey);
+        }
+        try {
+            return decryptLegacy(storedContent, userId, password);
+        } catch (AEADBadTagException e) {
+            // The password hash changed and this row is not re-encrypted yet, try the previous one
+            Optional<String> previousPassword = reencryptionJobRepository.findPreviousPasswordHash(userId);
+            if (previousPassword.isEmpty() || previousPassword.get().equals(password)) {
+                throw e;
+            }
+            return decryptLegacy(storedContent, userId, previousPassword.get());
+        }
+    }
+
+    /**
+     * Decrypts a standalone binary envelope, e.g. the metadata of a secret
+     */
+    public String decrypt(byte[] envelopeBytes, SecretKey dataKey) throws Exception {
+        SecretEnvelope envelope = SecretEnvelope.parse(envelopeBytes);
+        if (envelope.isStream()) {
+            throw new IllegalArgumentException("Streamed content cannot be decrypted inline");
+        }
+        return decryptEnvelope(envelope, dataKey);
+    }
 
-        // Encrypt the content
-        byte[] cipherText = cipher.doFinal(content.getBytes());
+    /**
+     * @return true if the secret is still stored in one of the text formats
+     */
+    public boolean isLegacy(Secret secret) {
+        return secret.getPayload() == null;
+    }
 
-        // Combine IV and ciphertext into a single message
-        byte[] cipherMessage = ByteBuffer.allocate(iv.length + cipherText.length)
-                .put(iv)
-                .put(cipherText)
-                .array();
+    // Streamed secrets are too large to inline, listings get a small description instead
+    private String describeStream(SecretEnvelope envelope) {
+        JsonObject description = new JsonObject();
+        description.addProperty("kind", "file");
+        description.addProperty("streamed", true);
+        description.addProperty("size", envelope.streamTotalLength());
+        return description.toString();
+    }
 
-        // Encode to Base64 for storage
-        String encryptedContent = Base64.getEncoder().encodeToString(cipherMessage);
-        
-        // Combine encrypted content with key data for storage
-        return encryptedContent + SEPARATOR + keyData.formatForStorage();
+    private String decryptEnvelope(SecretEnvelope envelope, SecretKey dataKey) throws Exception {
+        byte[] bytes = envelope.bytes();
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, dataKey,
+                new GCMParameterSpec(TAG_LENGTH_BIT, bytes, SecretEnvelope.HEADER_LENGTH, SecretEnvelope.IV_LENGTH));
+        cipher.updateAAD(bytes, 0, SecretEnvelope.HEADER_LENGTH);
+        byte[] plainText = cipher.doFinal(bytes, SecretEnvelope.CIPHERTEXT_OFFSET, envelope.cipherTextLength());
+        return payloadCodec.decode(envelope.codec(), plainText);
     }
 
     /**
-     * Decrypts a secret using the key information stored with the encrypted content
+     * Decrypts a legacy secret using the key information stored with the encrypted content
      * Format: encryptedContent###keyData
+     * Derived keys are looked up in the key cache first, so repeated reads skip PBKDF2
      */
-    public String decrypt(String combinedContent, String password) throws Exception {
+    private String decryptLegacy(String combinedContent, Long userId, String password) throws Exception {
         // Split the combined content into encrypted content and key data
         String[] parts = combinedContent.split(SEPARATOR);
         if (parts.length != 2) {
             throw new IllegalArgumentException("Invalid encrypted content format");
         }
-        
+
         String encryptedContent = parts[0];
         String keyDataStr = parts[1];
-        
+
         // Parse key data
         String[] keyDataParts = SecretKeyService.KeyData.parseFromStorage(keyDataStr);
         if (keyDataParts.length != 2) {
             throw new IllegalArgumentException("Invalid key data format");
         }
-        
+
         String encodedSalt = keyDataParts[0];
         int iterations = Integer.parseInt(keyDataParts[1]);
-        
-        // Recreate the key using the stored salt and iterations
-        SecretKey key = secretKeyService.recreateKey(password, encodedSalt, iterations);
 
+        // Recreate the key using the stored salt and iterations, unless it is cached
+        SecretKey key = secretKeyCache.get(userId, password, encodedSalt, iterations);
+        if (key == null) {
+            key = secretKeyService.recreateKey(password, encodedSalt, iterations);
+            secretKeyCache.put(userId, password, encodedSalt, iterations, key);
+        }
+
+        return decryptCipherMessage(encryptedContent, key);
+    }
+
+    private String decryptCipherMessage(String encryptedContent, SecretKey key) throws Exception {
         // Decode the Base64 content
         byte[] decoded = Base64.getDecoder().decode(encryptedContent);
 
         // Extract IV and ciphertext
         ByteBuffer bb = ByteBuffer.wrap(decoded);
-        
+
         byte[] iv = new byte[IV_LENGTH_BYTE];
         bb.get(iv);
-        
+
         byte[] cipherText = new byte[bb.remaining()];
         bb.get(cipherText);
 
         // Initialize cipher for decryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        Cipher cipher = cryptoPrimitives.aesGcm();
         cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
         // Decrypt the content
@@ -108,6 +194,4 @@ public class SecretEncryptionService {
 
         return new String(plainText);
     }
-
-
 }
@@ -0,0 +1,175 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary storage format of an encrypted secret.
+ * <pre>
+ * offset  size  field
+ * 0       1     format version (currently 1)
+ * 1       1     key scheme (1 = user data key, 2 = streamed, see below)
+ * 2       1     payload codec (0 = UTF-8 text, 1 = opaque bytes, 2 = Smile,
+ *               3 = deflated UTF-8, 4 = deflated Smile, see {@link PayloadCodec})
+ * 3       12    AES-GCM IV
+ * 15      n     ciphertext including the 16 byte GCM tag
+ * </pre>
+ * The three header bytes are authenticated as AAD, so they cannot be changed without
+ * breaking decryption. The KDF parameters are not repeated per row, they live with the
+ * wrapped data key in user_data_key.
+ * <p>
+ * Streamed secrets (key scheme 2) only keep a descriptor here, their ciphertext is stored
+ * in fixed-size chunks in secret_chunk:
+ * <pre>
+ * offset  size  field
+ * 0       3     header as above
+ * 3       7     random nonce prefix
+ * 10      4     plain text chunk size
+ * 14      4     number of chunks
+ * 18      8     total plain text length
+ * </pre>
+ * Chunk i is sealed with AES-GCM under the data key and the nonce
+ * prefix || i (4 bytes) || last flag (1 byte), so reordering, dropping or
+ * appending chunks breaks decryption (STREAM construction).
+ */
+public final class SecretEnvelope {
+
+    public static final byte VERSION_1 = 1;
+    public static final byte KEY_SCHEME_DATA_KEY = 1;
+    public static final byte KEY_SCHEME_DATA_KEY_STREAM = 2;
+    public static final byte CODEC_UTF8 = 0;
+    public static final byte CODEC_RAW = 1;
+    public static final byte CODEC_SMILE = 2;
+    public static final byte CODEC_UTF8_DEFLATE = 3;
+    public static final byte CODEC_SMILE_DEFLATE = 4;
+
+    public static final int HEADER_LENGTH = 3;
+    public static final int IV_LENGTH = 12;
+    public static final int CIPHERTEXT_OFFSET = HEADER_LENGTH + IV_LENGTH;
+    public static final int STREAM_NONCE_PREFIX_LENGTH = 7;
+    public static final int STREAM_DESCRIPTOR_LENGTH = HEADER_LENGTH + STREAM_NONCE_PREFIX_LENGTH + 4 + 4 + 8;
+
+    private final byte[] bytes;
+    private final byte version;
+    private final byte keyScheme;
+    private final byte codec;
+
+    private SecretEnvelope(byte[] bytes, byte version, byte keyScheme, byte codec) {
+        this.bytes = bytes;
+        this.version = version;
+        this.keyScheme = keyScheme;
+        this.codec = codec;
+    }
+
+    /**
+     * Parse the header of a stored envelope without copying the body
+     * @param bytes the stored payload
+     * @return a view on the payload
+     */
+    public static SecretEnvelope parse(byte[] bytes) {
+        if (bytes == null || bytes.length < CIPHERTEXT_OFFSET) {
+            throw new IllegalArgumentException("Invalid encrypted content format");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        byte version = bb.get();
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported secret format version: " + version);
+        }
+        byte keyScheme = bb.get();
+        if (keyScheme != KEY_SCHEME_DATA_KEY && keyScheme != KEY_SCHEME_DATA_KEY_STREAM) {
+            throw new IllegalArgumentException("Unsupported key scheme: " + keyScheme);
+        }
+        if (keyScheme == KEY_SCHEME_DATA_KEY_STREAM && bytes.length != STREAM_DESCRIPTOR_LENGTH) {
+            throw new IllegalArgumentException("Invalid stream descriptor");
+        }
+        return new SecretEnvelope(bytes, version, keyScheme, bb.get());
+    }
+
+    /**
+     * Build the descriptor of a streamed secret
+     * @param codec codec of the plain text
+     * @param noncePrefix random nonce prefix shared by all chunks
+     * @param chunkSize plain text bytes per chunk
+     * @param chunkCount number of chunks
+     * @param totalLength total plain text length
+     * @return the descriptor bytes
+     */
+    public static byte[] streamDescriptor(byte codec, byte[] noncePrefix, int chunkSize, int chunkCount, long totalLength) {
+        return ByteBuffer.allocate(STREAM_DESCRIPTOR_LENGTH)
+                .put(VERSION_1).put(KEY_SCHEME_DATA_KEY_STREAM).put(codec)
+                .put(noncePrefix)
+                .putInt(chunkSize)
+                .putInt(chunkCount)
+                .putLong(totalLength)
+                .array();
+    }
+
+    /**
+     * Nonce of a chunk of a streamed secret
+     * @param noncePrefix the random prefix from the descriptor
+     * @param index chunk index
+     * @param last true for the final chunk
+     * @return the 12 byte nonce
+     */
+    public static byte[] streamNonce(byte[] noncePrefix, int index, boolean last) {
+        return ByteBuffer.allocate(IV_LENGTH)
+                .put(noncePrefix)
+                .putInt(index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    /**
+     * Allocate an envelope with header and IV filled in, leaving room for the ciphertext
+     * @param codec codec of the plain text
+     * @param iv the IV used for encryption
+     * @param cipherTextLength length of the ciphertext including tag
+     * @return a buffer positioned at the ciphertext offset
+     */
+    public static ByteBuffer allocate(byte codec, byte[] iv, int cipherTextLength) {
+        ByteBuffer bb = ByteBuffer.allocate(CIPHERTEXT_OFFSET + cipherTextLength);
+        bb.put(VERSION_1).put(KEY_SCHEME_DATA_KEY).put(codec).put(iv);
+        return bb;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public byte version() {
+        return version;
+    }
+
+    public byte keyScheme() {
+        return keyScheme;
+    }
+
+    public byte codec() {
+        return codec;
+    }
+
+    public int cipherTextLength() {
+        return bytes.length - CIPHERTEXT_OFFSET;
+    }
+
+    public boolean isStream() {
+        return keyScheme == KEY_SCHEME_DATA_KEY_STREAM;
+    }
+
+    public byte[] streamNoncePrefix() {
+        byte[] prefix = new byte[STREAM_NONCE_PREFIX_LENGTH];
+        System.arraycopy(bytes, HEADER_LENGTH, prefix, 0, STREAM_NONCE_PREFIX_LENGTH);
+        return prefix;
+    }
+
+    public int streamChunkSize() {
+        return ByteBuffer.wrap(bytes).getInt(HEADER_LENGTH + STREAM_NONCE_PREFIX_LENGTH);
+    }
+
+    public int streamChunkCount() {
+        return ByteBuffer.wrap(bytes).getInt(HEADER_LENGTH + STREAM_NONCE_PREFIX_LENGTH + 4);
+    }
+
+    public long streamTotalLength() {
+        return ByteBuffer.wrap(bytes).getLong(HEADER_LENGTH + STREAM_NONCE_PREFIX_LENGTH + 8);
+    }
+}
@@ -0,0 +1,210 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.util.OffHeapBytes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for PBKDF2-derived secret keys.
+ * Entries are keyed by (user, salt, iterations), live off-heap and are zeroed when evicted.
+ * An entry only matches while the password material it was derived from is unchanged.
+ */
+@Service
+public class SecretKeyCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretKeyCache.class);
+    private static final String KEY_ALGORITHM = "AES";
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<CacheKey, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SecretKeyCache(@Value("${app.secret-key-cache.max-entries:10000}") int maxEntries,
+                          @Value("${app.secret-key-cache.ttl-seconds:900}") long ttlSeconds,
+                          MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        FunctionCounter.builder("tresor.secretkey.cache.hits", hits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("tresor.secretkey.cache.misses", misses, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("tresor.secretkey.cache.evictions", evictions, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("tresor.secretkey.cache.size", this, SecretKeyCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Look up a cached key
+     * @param userId owner of the key
+     * @param password the password material the key was derived from
+     * @param encodedSalt Base64 encoded salt
+     * @param iterations KDF iterations
+     * @return the key, or null if it is not cached
+     */
+    public SecretKey get(Long userId, String password, String encodedSalt, int iterations) {
+        CacheKey cacheKey = new CacheKey(userId, encodedSalt, iterations);
+        byte[] fingerprint = fingerprint(password);
+        byte[] keyBytes = null;
+        synchronized (entries) {
+            Entry entry = entries.get(cacheKey);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    remove(cacheKey);
+                } else if (!MessageDigest.isEqual(entry.fingerprint, fingerprint)) {
+                    // Password material changed since the key was derived, nothing for this user is valid any more
+                    invalidateUserLocked(userId);
+                } else {
+                    keyBytes = entry.keyBytes.copy();
+                }
+            }
+        }
+        if (keyBytes == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        try {
+            return new SecretKeySpec(keyBytes, KEY_ALGORITHM);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Store a derived key
+     * @param userId owner of the key
+     * @param password the password material the key was derived from
+     * @param encodedSalt Base64 encoded salt
+     * @param iterations KDF iterations
+     * @param key the derived key
+     */
+    public void put(Long userId, String password, String encodedSalt, int iterations, SecretKey key) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        CacheKey cacheKey = new CacheKey(userId, encodedSalt, iterations);
+        Entry entry = new Entry(OffHeapBytes.moveFrom(key.getEncoded()), fingerprint(password),
+                System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            Entry previous = entries.put(cacheKey, entry);
+            if (previous != null) {
+                previous.keyBytes.wipe();
+            }
+            Iterator<Map.Entry<CacheKey, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next().getValue().keyBytes.wipe();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop and wipe every cached key of a user, e.g. after the password hash changed
+     * @param userId the user
+     */
+    public void invalidateUser(Long userId) {
+        synchronized (entries) {
+            invalidateUserLocked(userId);
+        }
+    }
+
+    /**
+     * Periodically wipe expired entries so unused keys do not linger until the next lookup
+     */
+    @Scheduled(fixedDelayString = "${app.secret-key-cache.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Map.Entry<CacheKey, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (entry.isExpired(now)) {
+                    entry.keyBytes.wipe();
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            evictions.addAndGet(removed);
+            logger.debug("Evicted {} expired secret keys", removed);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void invalidateUserLocked(Long userId) {
+        Iterator<Map.Entry<CacheKey, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, Entry> mapEntry = it.next();
+            if (mapEntry.getKey().userId().equals(userId)) {
+                mapEntry.getValue().keyBytes.wipe();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(CacheKey cacheKey) {
+        Entry removed = entries.remove(cacheKey);
+        if (removed != null) {
+            removed.keyBytes.wipe();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static byte[] fingerprint(String password) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record CacheKey(Long userId, String encodedSalt, int iterations) {
+    }
+
+    private record Entry(OffHeapBytes keyBytes, byte[] fingerprint, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package ch.bbw.pr.tresorbackend.service;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
@@ -20,18 +19,22 @@ import java.util.Base64;
 public class SecretKeyService {
     
     private static final String PEPPER = "tresor-app-pepper";
-    private static final int ITERATION_COUNT = 65536;
     private static final int KEY_LENGTH = 256;
     private static final int SALT_LENGTH = 16;
     
     private final SecureRandom secureRandom;
+    private final CryptoPrimitives cryptoPrimitives;
+    private final KdfCalibrationService kdfCalibrationService;
     
-    public SecretKeyService() {
+    public SecretKeyService(CryptoPrimitives cryptoPrimitives, KdfCalibrationService kdfCalibrationService) {
         this.secureRandom = new SecureRandom();
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.kdfCalibrationService = kdfCalibrationService;
     }
     
     /**
      * Generate a new encryption key and its encoded form
+     * Uses the iteration count calibrated at startup
      * @param password The user's password
      * @return A KeyData object containing the key and its encoded form
      */
@@ -44,8 +47,9 @@ public class SecretKeyService {
         String pepperedPassword = password + PEPPER;
         
         // Generate a key using PBKDF2
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        KeySpec spec = new PBEKeySpec(pepperedPassword.toCharArray(), salt, ITERATION_COUNT, KEY_LENGTH);
+        int iterations = kdfCalibrationService.getIterations();
+        SecretKeyFactory factory = cryptoPrimitives.pbkdf2();
+        KeySpec spec = new PBEKeySpec(pepperedPassword.toCharArray(), salt, iterations, KEY_LENGTH);
         SecretKey tmp = factory.generateSecret(spec);
         SecretKey key = new SecretKeySpec(tmp.getEncoded(), "AES");
         
@@ -53,7 +57,7 @@ public class SecretKeyService {
         String encodedSalt = Base64.getEncoder().encodeToString(salt);
         
         // Create and return key data
-        return new KeyData(key, encodedSalt, ITERATION_COUNT);
+        return new KeyData(key, encodedSalt, iterations);
     }
     
     /**
@@ -71,7 +75,7 @@ public class SecretKeyService {
         String pepperedPassword = password + PEPPER;
         
         // Recreate the key
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        SecretKeyFactory factory = cryptoPrimitives.pbkdf2();
         KeySpec spec = new PBEKeySpec(pepperedPassword.toCharArray(), salt, iterations, KEY_LENGTH);
         SecretKey tmp = factory.generateSecret(spec);
         
@@ -0,0 +1,148 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Background migration of secrets still stored in one of the text formats
+ * (one PBKDF2 key per secret, or the v2$ text envelope) to the binary envelope
+ * format encrypted with the user's data key.
+ * Runs in small scheduled batches; a failing row is logged and skipped.
+ * Reads that meet such a secret queue it so it is converted right away, off the request path.
+ * Migrated secrets are added to the blind search index as well.
+ */
+@Service
+public class SecretMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretMigrationService.class);
+
+    private final SecretRepository secretRepository;
+    private final SecretEncryptionService encryptionService;
+    private final DataKeyService dataKeyService;
+    private final UserService userService;
+    private final BlindIndexService blindIndexService;
+    private final SecretSummaryService summaryService;
+    private final ExecutorService reencryptionExecutor;
+    private final Set<Long> pendingSecrets = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.secret-migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.secret-migration.batch-size:100}")
+    private int batchSize;
+
+    // Highest secret id looked at in the current pass, restarts from 0 once a pass is complete
+    private long cursor = 0;
+
+    public SecretMigrationService(SecretRepository secretRepository,
+                                  SecretEncryptionService encryptionService,
+                                  DataKeyService dataKeyService,
+                                  UserService userService,
+                                  BlindIndexService blindIndexService,
+                                  SecretSummaryService summaryService,
+                                  @Qualifier("reencryptionExecutor") ExecutorService reencryptionExecutor) {
+        this.secretRepository = secretRepository;
+        this.encryptionService = encryptionService;
+        this.dataKeyService = dataKeyService;
+        this.userService = userService;
+        this.blindIndexService = blindIndexService;
+        this.summaryService = summaryService;
+        this.reencryptionExecutor = reencryptionExecutor;
+    }
+
+    /**
+     * Queue a single secret for re-encryption with the current parameters
+     * @param secretId the secret
+     */
+    public void enqueue(Long secretId) {
+        if (!pendingSecrets.add(secretId)) {
+            return;
+        }
+        try {
+            reencryptionExecutor.execute(() -> {
+                try {
+                    Secret secret = secretRepository.findById(secretId).orElse(null);
+                    if (secret != null && encryptionService.isLegacy(secret)) {
+                        User user = userService.getUserById(secret.getUserId());
+                        migrate(secret, user, dataKeyService.getDataKey(user.getId(), user.getPassword()));
+                    }
+                } catch (Exception e) {
+                    logger.error("Error re-encrypting secret {}: {}", secretId, e.getMessage());
+                } finally {
+                    pendingSecrets.remove(secretId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue is full, the scheduled batch or the next read picks it up
+            pendingSecrets.remove(secretId);
+        }
+    }
+
+    /**
+     * Convert the next batch of legacy secrets
+     */
+    @Scheduled(fixedDelayString = "${app.secret-migration.interval-ms:30000}")
+    public synchronized void migrateLegacySecrets() {
+        if (!enabled) {
+            return;
+        }
+        List<Secret> batch = secretRepository.findLegacyAfter(cursor, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            cursor = 0;
+            return;
+        }
+
+        // One user lookup and one data key unwrap per user and batch
+        Map<Long, User> users = new HashMap<>();
+        Map<Long, SecretKey> dataKeys = new HashMap<>();
+        int migrated = 0;
+        for (Secret secret : batch) {
+            cursor = secret.getId();
+            // Skip rows a read has already queued
+            if (!pendingSecrets.add(secret.getId())) {
+                continue;
+            }
+            try {
+                User user = users.computeIfAbsent(secret.getUserId(), userService::getUserById);
+                SecretKey dataKey = dataKeys.get(user.getId());
+                if (dataKey == null) {
+                    dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+                    dataKeys.put(user.getId(), dataKey);
+                }
+                migrate(secret, user, dataKey);
+                migrated++;
+            } catch (Exception e) {
+                logger.error("Error migrating secret {}: {}", secret.getId(), e.getMessage());
+            } finally {
+                pendingSecrets.remove(secret.getId());
+            }
+        }
+        logger.info("Migrated {} of {} legacy secrets to the binary envelope format", migrated, batch.size());
+    }
+
+    private void migrate(Secret secret, User user, SecretKey dataKey) throws Exception {
+        String plainText = encryptionService.decrypt(secret, dataKey, user.getId(), user.getPassword());
+        secret.setPayload(encryptionService.encrypt(plainText, dataKey));
+        secret.setMetadata(summaryService.encryptMetadata(plainText, dataKey));
+        secret.setLegacyContent(null);
+        secretRepository.save(secret);
+        blindIndexService.index(user.getId(), secret.getId(), dataKey, plainText);
+    }
+}
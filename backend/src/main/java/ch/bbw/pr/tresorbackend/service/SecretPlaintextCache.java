@@ -0,0 +1,216 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.util.OffHeapBytes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in, short-lived cache of decrypted secret contents.
+ * Contents are kept off-heap as UTF-8 and zeroed when they are evicted, expire or are invalidated.
+ * Entries are keyed by (owner, secret, revision) and only returned to their owner; the total
+ * size is bounded by max-bytes, least recently used entries are evicted first.
+ */
+@Service
+public class SecretPlaintextCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretPlaintextCache.class);
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, Entry> entries;
+    private long bytesInUse;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SecretPlaintextCache(@Value("${app.secret-plaintext-cache.enabled:false}") boolean enabled,
+                                @Value("${app.secret-plaintext-cache.max-bytes:4194304}") long maxBytes,
+                                @Value("${app.secret-plaintext-cache.ttl-seconds:60}") long ttlSeconds,
+                                MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        FunctionCounter.builder("tresor.plaintext.cache.hits", hits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("tresor.plaintext.cache.misses", misses, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("tresor.plaintext.cache.evictions", evictions, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("tresor.plaintext.cache.bytes", this, SecretPlaintextCache::bytesInUse)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("tresor.plaintext.cache.hit.ratio", this, SecretPlaintextCache::hitRatio).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Look up the content of a secret
+     * @param userId the requesting user, must be the owner
+     * @param secretId the secret
+     * @param revision current revision of the secret
+     * @return the content, or null if it is not cached
+     */
+    public String get(Long userId, Long secretId, long revision) {
+        if (!enabled) {
+            return null;
+        }
+        byte[] content = null;
+        synchronized (entries) {
+            Entry entry = entries.get(secretId);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis()) || entry.revision != revision) {
+                    remove(secretId);
+                } else if (entry.userId.equals(userId)) {
+                    content = entry.content.copy();
+                }
+            }
+        }
+        if (content == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        try {
+            return new String(content, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(content, (byte) 0);
+        }
+    }
+
+    /**
+     * Cache the decrypted content of a secret
+     * @param userId owner of the secret
+     * @param secretId the secret
+     * @param revision revision the content belongs to
+     * @param content the decrypted content
+     */
+    public void put(Long userId, Long secretId, long revision, String content) {
+        if (!enabled || content == null) {
+            return;
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            Arrays.fill(bytes, (byte) 0);
+            return;
+        }
+        Entry entry = new Entry(userId, revision, OffHeapBytes.moveFrom(bytes), System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            Entry previous = entries.put(secretId, entry);
+            if (previous != null) {
+                wipe(previous);
+            }
+            bytesInUse += entry.content.length();
+            Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+            while (bytesInUse > maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                wipe(evicted);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop a secret, e.g. after it was updated or deleted
+     */
+    public void invalidate(Long secretId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            remove(secretId);
+        }
+    }
+
+    /**
+     * Drop every cached secret of a user
+     */
+    public void invalidateUser(Long userId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (entry.userId.equals(userId)) {
+                    it.remove();
+                    wipe(entry);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.secret-plaintext-cache.sweep-interval-ms:10000}")
+    public void evictExpired() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (entry.isExpired(now)) {
+                    it.remove();
+                    wipe(entry);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            evictions.addAndGet(removed);
+            logger.debug("Evicted {} expired plaintext entries", removed);
+        }
+    }
+
+    public long bytesInUse() {
+        synchronized (entries) {
+            return bytesInUse;
+        }
+    }
+
+    public double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private void remove(Long secretId) {
+        Entry removed = entries.remove(secretId);
+        if (removed != null) {
+            wipe(removed);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Caller holds the lock
+    private void wipe(Entry entry) {
+        bytesInUse -= entry.content.length();
+        entry.content.wipe();
+    }
+
+    private record Entry(Long userId, long revision, OffHeapBytes content, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package ch.bbw.pr.tresorbackend.service;
 
 import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretChanges;
+import ch.bbw.pr.tresorbackend.model.SecretPage;
+import ch.bbw.pr.tresorbackend.model.SecretSummary;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * SecretService
@@ -12,11 +16,27 @@ public interface SecretService {
 
    Secret getSecretById(Long secretId);
 
+   Secret getSecretById(Long secretId, Long requesterId);
+
    List<Secret> getAllSecrets();
 
    Secret updateSecret(Secret secret);
 
+   Secret updateSecret(Secret secret, Long expectedRevision);
+
    void deleteSecret(Long secretId);
 
-   List<Secret> getSecretsByUserId(Long userId);
+   Optional<Long> getSecretRevision(Long secretId);
+
+   List<Secret> getSecretsByUserId(Long userId, long vaultVersion);
+
+   SecretPage<Secret> getSecretsPage(Long userId, Long afterId, int size);
+
+   SecretPage<SecretSummary> getSecretSummaries(Long userId, Long afterId, int size);
+
+   List<Secret> searchSecrets(Long userId, String query, String kind);
+
+   long countSecretsPendingSearchIndex(Long userId);
+
+   SecretChanges getChanges(Long userId, Long since, Long afterId, int size);
 }
@@ -0,0 +1,223 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Chunked upload and download of large secrets.
+ * The request body is encrypted chunk by chunk (STREAM construction, see {@link SecretEnvelope})
+ * and every chunk is written to secret_chunk as soon as it is sealed, so peak memory is
+ * bounded by the chunk size instead of the secret size. Downloads decrypt one chunk at a time
+ * straight into the response.
+ */
+@Service
+public class SecretStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretStreamService.class);
+    private static final int TAG_LENGTH_BIT = 128;
+
+    private final SecretRepository secretRepository;
+    private final SecretChunkRepository chunkRepository;
+    private final DataKeyService dataKeyService;
+    private final UserService userService;
+    private final CryptoPrimitives cryptoPrimitives;
+    private final VaultVersionService vaultVersionService;
+    private final VaultChangeFeed changeFeed;
+    private final TransactionTemplate transactionTemplate;
+    private final SecureRandom secureRandom;
+
+    @Value("${app.secret-stream.chunk-size:65536}")
+    private int chunkSize;
+
+    @Value("${app.secret-stream.max-bytes:104857600}")
+    private long maxBytes;
+
+    public SecretStreamService(SecretRepository secretRepository,
+                               SecretChunkRepository chunkRepository,
+                               DataKeyService dataKeyService,
+                               UserService userService,
+                               CryptoPrimitives cryptoPrimitives,
+                               VaultVersionService vaultVersionService,
+                               VaultChangeFeed changeFeed,
+                               PlatformTransactionManager transactionManager) {
+        this.secretRepository = secretRepository;
+        this.chunkRepository = chunkRepository;
+        this.dataKeyService = dataKeyService;
+        this.userService = userService;
+        this.cryptoPrimitives = cryptoPrimitives;
+        this.vaultVersionService = vaultVersionService;
+        this.changeFeed = changeFeed;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.secureRandom = new SecureRandom();
+    }
+
+    /**
+     * A streamed secret ready to be written to a response
+     */
+    public record Download(Long secretId, SecretKey dataKey, SecretEnvelope descriptor) {
+        public long totalLength() {
+            return descriptor.streamTotalLength();
+        }
+    }
+
+    /**
+     * Encrypt the input stream chunk by chunk and store it as a new secret
+     * @param userId owner of the secret
+     * @param in plain text input
+     * @return the stored secret (content not set)
+     */
+    public Secret upload(Long userId, InputStream in) throws Exception {
+        User user = userService.getUserById(userId);
+        SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+
+        byte[] noncePrefix = new byte[SecretEnvelope.STREAM_NONCE_PREFIX_LENGTH];
+        secureRandom.nextBytes(noncePrefix);
+
+        // The descriptor is saved first to get an id; chunk count 0 marks an unfinished upload
+        Secret secret = new Secret();
+        secret.setUserId(userId);
+        secret.setPayload(SecretEnvelope.streamDescriptor(SecretEnvelope.CODEC_RAW, noncePrefix, chunkSize, 0, 0));
+        secret = secretRepository.save(secret);
+        byte[] aad = aad(secret);
+
+        int seq = 0;
+        long total = 0;
+        try {
+            // Read one chunk ahead to know whether the current chunk is the last one
+            byte[] current = in.readNBytes(chunkSize);
+            while (true) {
+                byte[] next = current.length == chunkSize ? in.readNBytes(chunkSize) : new byte[0];
+                boolean last = next.length == 0;
+                total += current.length;
+                if (total > maxBytes) {
+                    throw new IllegalArgumentException("Secret exceeds the maximum size of " + maxBytes + " bytes");
+                }
+                chunkRepository.insertChunk(secret.getId(), seq, seal(dataKey, noncePrefix, seq, last, aad, current));
+                seq++;
+                if (last) {
+                    break;
+                }
+                current = next;
+            }
+        } catch (Exception e) {
+            chunkRepository.deleteBySecretId(secret.getId());
+            secretRepository.deleteById(secret.getId());
+            throw e;
+        }
+
+        secret.setPayload(SecretEnvelope.streamDescriptor(SecretEnvelope.CODEC_RAW, noncePrefix, chunkSize, seq, total));
+        // The secret becomes visible to delta sync together with the version it carries, the feed announces it after commit
+        Secret completed = secret;
+        secret = transactionTemplate.execute(status -> {
+            long version = vaultVersionService.bump(userId);
+            completed.setChangeSeq(version);
+            Secret saved = secretRepository.save(completed);
+            changeFeed.publish(userId, saved.getId(), VaultChangeFeed.Op.CREATED, version);
+            return saved;
+        });
+        logger.info("Stored streamed secret {} ({} bytes in {} chunks)", secret.getId(), total, seq);
+        return secret;
+    }
+
+    /**
+     * Look up a streamed secret and unwrap its key, before anything is written to the response
+     * @param secretId the secret
+     * @return the download handle
+     */
+    public Download openDownload(Long secretId) throws Exception {
+        Secret secret = secretRepository.findById(secretId)
+                .orElseThrow(() -> new RuntimeException("Secret not found"));
+        if (secret.getPayload() == null) {
+            throw new IllegalArgumentException("Secret " + secretId + " is not a streamed secret");
+        }
+        SecretEnvelope descriptor = SecretEnvelope.parse(secret.getPayload());
+        if (!descriptor.isStream()) {
+            throw new IllegalArgumentException("Secret " + secretId + " is not a streamed secret");
+        }
+        if (descriptor.streamChunkCount() == 0) {
+            throw new IllegalStateException("Upload of secret " + secretId + " is not complete");
+        }
+        User user = userService.getUserById(secret.getUserId());
+        SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+        return new Download(secretId, dataKey, descriptor);
+    }
+
+    /**
+     * Decrypt the chunks of a streamed secret into the output stream
+     * @param download handle from {@link #openDownload(Long)}
+     * @param out target stream
+     */
+    public void write(Download download, OutputStream out) throws IOException {
+        SecretEnvelope descriptor = download.descriptor();
+        byte[] noncePrefix = descriptor.streamNoncePrefix();
+        byte[] aad = aad(download.secretId(), descriptor);
+        int chunkCount = descriptor.streamChunkCount();
+        for (int seq = 0; seq < chunkCount; seq++) {
+            byte[] data = chunkRepository.findData(download.secretId(), seq);
+            if (data == null) {
+                throw new IOException("Chunk " + seq + " of secret " + download.secretId() + " is missing");
+            }
+            try {
+                out.write(open(download.dataKey(), noncePrefix, seq, seq == chunkCount - 1, aad, data));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Chunk " + seq + " of secret " + download.secretId() + " failed authentication", e);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return true if the secret is stored in chunks
+     */
+    public static boolean isStream(Secret secret) {
+        return secret.getPayload() != null && SecretEnvelope.parse(secret.getPayload()).isStream();
+    }
+
+    private byte[] seal(SecretKey dataKey, byte[] noncePrefix, int seq, boolean last, byte[] aad, byte[] plainText)
+            throws GeneralSecurityException {
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey,
+                new GCMParameterSpec(TAG_LENGTH_BIT, SecretEnvelope.streamNonce(noncePrefix, seq, last)));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(plainText);
+    }
+
+    private byte[] open(SecretKey dataKey, byte[] noncePrefix, int seq, boolean last, byte[] aad, byte[] cipherText)
+            throws GeneralSecurityException {
+        Cipher cipher = cryptoPrimitives.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, dataKey,
+                new GCMParameterSpec(TAG_LENGTH_BIT, SecretEnvelope.streamNonce(noncePrefix, seq, last)));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(cipherText);
+    }
+
+    // Header bytes and secret id, so chunks cannot be moved to another secret
+    private static byte[] aad(Secret secret) {
+        return aad(secret.getId(), SecretEnvelope.parse(secret.getPayload()));
+    }
+
+    private static byte[] aad(Long secretId, SecretEnvelope descriptor) {
+        return ByteBuffer.allocate(SecretEnvelope.HEADER_LENGTH + Long.BYTES)
+                .put(descriptor.bytes(), 0, SecretEnvelope.HEADER_LENGTH)
+                .putLong(secretId)
+                .array();
+    }
+}
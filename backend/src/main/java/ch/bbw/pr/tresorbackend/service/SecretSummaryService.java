@@ -0,0 +1,95 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.SecretSummary;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Builds the small metadata blob stored next to each secret body.
+ * It holds what the list view needs (kind and a title) and is encrypted on its own
+ * with the user's data key, so listings never have to decrypt the bodies.
+ */
+@Service
+public class SecretSummaryService {
+
+    private final SecretEncryptionService encryptionService;
+
+    public SecretSummaryService(SecretEncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Encrypt the metadata of a secret's content
+     * @param content the plain text content
+     * @param dataKey the user's data key
+     * @return the metadata envelope
+     */
+    public byte[] encryptMetadata(String content, SecretKey dataKey) throws Exception {
+        return encryptionService.encrypt(summarize(content), dataKey);
+    }
+
+    /**
+     * Decrypt a metadata envelope into a summary
+     * @param id id of the secret
+     * @param metadata the stored metadata envelope
+     * @param dataKey the user's data key
+     */
+    public SecretSummary decryptSummary(Long id, byte[] metadata, SecretKey dataKey) throws Exception {
+        return toSummary(id, encryptionService.decrypt(metadata, dataKey));
+    }
+
+    /**
+     * Summary of a decrypted body, for rows written before metadata existed
+     */
+    public SecretSummary toSummary(Long id, String content) {
+        JsonObject summary = parse(summarize(content));
+        return new SecretSummary(id,
+                summary.has("kindid") ? summary.get("kindid").getAsInt() : null,
+                stringField(summary, "kind"),
+                stringField(summary, "title"));
+    }
+
+    // {kindid, kind, title}; credentials use the URL and credit cards the card type as title
+    private String summarize(String content) {
+        JsonObject body = parse(content);
+        JsonObject summary = new JsonObject();
+        JsonElement kindid = body.get("kindid");
+        if (kindid != null && kindid.isJsonPrimitive() && kindid.getAsJsonPrimitive().isNumber()) {
+            summary.add("kindid", kindid);
+        }
+        String kind = stringField(body, "kind");
+        if (kind != null) {
+            summary.addProperty("kind", kind);
+        }
+        String title = stringField(body, "title");
+        if (title == null) {
+            title = stringField(body, "url");
+        }
+        if (title == null) {
+            title = stringField(body, "cardtype");
+        }
+        if (title != null) {
+            summary.addProperty("title", title);
+        }
+        return summary.toString();
+    }
+
+    private static JsonObject parse(String content) {
+        try {
+            JsonElement element = content != null ? JsonParser.parseString(content) : null;
+            return element != null && element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+        } catch (JsonSyntaxException e) {
+            return new JsonObject();
+        }
+    }
+
+    private static String stringField(JsonObject json, String name) {
+        JsonElement value = json.get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+}
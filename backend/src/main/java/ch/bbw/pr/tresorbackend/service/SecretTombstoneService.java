@@ -0,0 +1,41 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Removes tombstones after the retention period. The highest pruned sequence of each user is
+ * kept as tombstone floor, clients that last synced below it get a full resync.
+ */
+@Service
+public class SecretTombstoneService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecretTombstoneService.class);
+
+    private final SecretTombstoneRepository tombstoneRepository;
+
+    @Value("${app.secret-sync.tombstone-retention-days:90}")
+    private int retentionDays;
+
+    public SecretTombstoneService(SecretTombstoneRepository tombstoneRepository) {
+        this.tombstoneRepository = tombstoneRepository;
+    }
+
+    @Scheduled(fixedDelayString = "${app.secret-sync.prune-interval-ms:3600000}")
+    @Transactional
+    public void prune() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        tombstoneRepository.raiseTombstoneFloors(cutoff);
+        int removed = tombstoneRepository.deleteOlderThan(cutoff);
+        if (removed > 0) {
+            logger.info("Pruned {} tombstones older than {} days", removed, retentionDays);
+        }
+    }
+}
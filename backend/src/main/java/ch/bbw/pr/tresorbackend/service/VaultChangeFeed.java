@@ -0,0 +1,327 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-sent events about changes to a user's vault (secret id, operation, vault version).
+ * Connections are servlet async requests written in non-blocking mode, so neither an idle nor a
+ * slow client holds a thread. Publishing only offers the event to a bounded queue per connection;
+ * a small shared pool writes the queues out for as long as the socket accepts data and the
+ * container resumes the write once it does again. A connection whose queue overflows gets a
+ * single "resync" event instead of the dropped ones and is expected to reload the vault; one
+ * that accepts no data for longer than write-timeout-ms is closed.
+ */
+@Service
+public class VaultChangeFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(VaultChangeFeed.class);
+    private static final byte[] RESYNC = event(null, "resync", "{}");
+
+    public enum Op { CREATED, UPDATED, DELETED }
+
+    private final ConcurrentHashMap<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ExecutorService writer;
+    private final Counter stalled;
+    private final long timeoutMillis;
+    private final long writeTimeoutNanos;
+    private final int queueCapacity;
+    private final int maxConnectionsPerUser;
+
+    public VaultChangeFeed(@Value("${app.vault-events.timeout-ms:1800000}") long timeoutMillis,
+                           @Value("${app.vault-events.write-timeout-ms:10000}") long writeTimeoutMillis,
+                           @Value("${app.vault-events.queue-capacity:64}") int queueCapacity,
+                           @Value("${app.vault-events.max-connections-per-user:8}") int maxConnectionsPerUser,
+                           @Value("${app.vault-events.writer-threads:2}") int writerThreads,
+                           MeterRegistry meterRegistry) {
+        this.timeoutMillis = timeoutMillis;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.queueCapacity = queueCapacity;
+        this.maxConnectionsPerUser = maxConnectionsPerUser;
+        this.writer = Executors.newFixedThreadPool(writerThreads, new CustomizableThreadFactory("vault-events-"));
+        this.stalled = Counter.builder("tresor.vault.events.stalled").register(meterRegistry);
+        Gauge.builder("tresor.vault.events.connections", connections, AtomicInteger::get).register(meterRegistry);
+    }
+
+    /**
+     * Open a change feed for a user on the current request, which is switched to async mode
+     * @param userId the authenticated user
+     * @param request the request of the feed
+     * @param response its response, written by the feed from now on
+     * @throws IllegalStateException if the user already has too many open feeds
+     */
+    public void subscribe(Long userId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Subscriber subscriber = new Subscriber(userId, new ArrayBlockingQueue<>(queueCapacity));
+        Set<Subscriber> own = subscribers.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet());
+        synchronized (own) {
+            if (own.size() >= maxConnectionsPerUser) {
+                throw new IllegalStateException("Too many open change feeds");
+            }
+            own.add(subscriber);
+        }
+        connections.incrementAndGet();
+
+        try {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            response.setHeader("X-Accel-Buffering", "no");
+            AsyncContext async = request.startAsync();
+            async.setTimeout(timeoutMillis);
+            async.addListener(subscriber);
+            subscriber.async = async;
+            subscriber.out = async.getResponse().getOutputStream();
+            // Written by the first onWritePossible(), once the request thread has left the servlet
+            subscriber.queue.offer(comment("connected"));
+            subscriber.out.setWriteListener(subscriber);
+        } catch (IOException | RuntimeException e) {
+            remove(subscriber);
+            throw e;
+        }
+    }
+
+    /**
+     * Announce a change to the user's open feeds once the current transaction has committed
+     * @param userId owner of the vault
+     * @param secretId the changed secret
+     * @param op what happened to it
+     * @param version vault version after the change
+     */
+    public void publish(Long userId, Long secretId, Op op, long version) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publishNow(userId, secretId, op, version);
+                }
+            });
+        } else {
+            publishNow(userId, secretId, op, version);
+        }
+    }
+
+    private void publishNow(Long userId, Long secretId, Op op, long version) {
+        Set<Subscriber> own = subscribers.get(userId);
+        if (own == null || own.isEmpty()) {
+            return;
+        }
+        JsonObject data = new JsonObject();
+        data.addProperty("secretId", secretId);
+        data.addProperty("op", op.name().toLowerCase());
+        data.addProperty("version", version);
+        byte[] event = event(Long.toString(version), "change", data.toString());
+        for (Subscriber subscriber : own) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * Keeps idle connections open through proxies and closes those that stopped reading
+     */
+    @Scheduled(fixedDelayString = "${app.vault-events.heartbeat-ms:25000}")
+    public void heartbeat() {
+        long now = System.nanoTime();
+        for (Set<Subscriber> own : subscribers.values()) {
+            for (Subscriber subscriber : own) {
+                long blockedSince = subscriber.blockedSince;
+                if (blockedSince != 0 && now - blockedSince > writeTimeoutNanos) {
+                    stalled.increment();
+                    logger.debug("Closing stalled change feed of user ID {}", subscriber.userId);
+                    subscriber.close();
+                } else if (subscriber.queue.isEmpty()) {
+                    subscriber.offer(comment("ping"));
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdownNow();
+        for (Set<Subscriber> own : subscribers.values()) {
+            for (Subscriber subscriber : own) {
+                subscriber.close();
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        Set<Subscriber> own = subscribers.get(subscriber.userId);
+        if (own != null && own.remove(subscriber)) {
+            connections.decrementAndGet();
+            subscribers.computeIfPresent(subscriber.userId, (id, set) -> set.isEmpty() ? null : set);
+        }
+    }
+
+    // Same wire format as Spring's SseEmitter; data is single-line JSON
+    private static byte[] event(String id, String name, String data) {
+        StringBuilder event = new StringBuilder();
+        if (id != null) {
+            event.append("id:").append(id).append('\n');
+        }
+        event.append("event:").append(name).append('\n').append("data:").append(data).append("\n\n");
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] comment(String text) {
+        return (":" + text + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private final class Subscriber implements WriteListener, AsyncListener {
+        private final Long userId;
+        private final BlockingQueue<byte[]> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile AsyncContext async;
+        private volatile ServletOutputStream out;
+        // false until the container first reports the stream as writable
+        private volatile boolean started;
+        // nanoTime since the socket stopped accepting data with events pending, 0 while writable
+        private volatile long blockedSince;
+
+        private Subscriber(Long userId, BlockingQueue<byte[]> queue) {
+            this.userId = userId;
+            this.queue = queue;
+        }
+
+        private void offer(byte[] event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                overflowed.set(true);
+            }
+            if (started && scheduled.compareAndSet(false, true)) {
+                try {
+                    writer.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        // Writes only while the stream is ready, so no call here blocks on the socket.
+        // Runs on the writer pool and in onWritePossible(), one at a time to keep the order.
+        private synchronized void drain() {
+            scheduled.set(false);
+            if (closed.get()) {
+                return;
+            }
+            try {
+                boolean written = false;
+                while (out.isReady()) {
+                    byte[] event;
+                    if (overflowed.getAndSet(false)) {
+                        queue.clear();
+                        event = RESYNC;
+                    } else {
+                        event = queue.poll();
+                    }
+                    if (event == null) {
+                        if (written) {
+                            out.flush();
+                            written = false;
+                            continue;
+                        }
+                        blockedSince = 0;
+                        return;
+                    }
+                    out.write(event);
+                    written = true;
+                }
+                // The container calls onWritePossible() once the socket accepts data again
+                if (blockedSince == 0) {
+                    blockedSince = System.nanoTime();
+                }
+            } catch (IOException | IllegalStateException e) {
+                onError(e);
+            }
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            queue.clear();
+            remove(this);
+            AsyncContext context = async;
+            if (context != null) {
+                try {
+                    context.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed by the container
+                }
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            started = true;
+            blockedSince = 0;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Closing change feed of user ID {}: {}", userId, t.getMessage());
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            closed.set(true);
+            queue.clear();
+            remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for full vault reads: while the vault of a user is being decrypted, identical
+ * requests wait for that result instead of decrypting it again. Every caller gets its own copy.
+ * Reads are shared only between callers that saw the same vault version before reading, so a
+ * request that sees a newer version is never handed a load that started before the write.
+ */
+@Component
+public class VaultReadCoalescer {
+
+    private final ConcurrentHashMap<FlightKey, CompletableFuture<List<Secret>>> flights = new ConcurrentHashMap<>();
+    private final Counter loads;
+    private final Counter coalesced;
+
+    public VaultReadCoalescer(MeterRegistry meterRegistry) {
+        this.loads = Counter.builder("tresor.vault.reads").tag("result", "loaded").register(meterRegistry);
+        this.coalesced = Counter.builder("tresor.vault.reads").tag("result", "coalesced").register(meterRegistry);
+    }
+
+    /**
+     * Read a user's vault, sharing an identical read that is already in flight
+     * @param userId owner of the vault
+     * @param version vault version the caller read before, e.g. for its ETag
+     * @param loader loads and decrypts the vault
+     * @return a copy of the decrypted secrets
+     */
+    public List<Secret> read(Long userId, long version, Supplier<List<Secret>> loader) {
+        FlightKey key = new FlightKey(userId, version);
+        CompletableFuture<List<Secret>> flight = new CompletableFuture<>();
+        CompletableFuture<List<Secret>> current = flights.putIfAbsent(key, flight);
+        if (current != null) {
+            coalesced.increment();
+            return copy(join(current));
+        }
+        loads.increment();
+        try {
+            List<Secret> secrets = loader.get();
+            flight.complete(secrets);
+            return copy(secrets);
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private static List<Secret> join(CompletableFuture<List<Secret>> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static List<Secret> copy(List<Secret> secrets) {
+        List<Secret> copy = new ArrayList<>(secrets.size());
+        for (Secret secret : secrets) {
+            copy.add(new Secret(secret.getId(), secret.getUserId(), secret.getContent()));
+        }
+        return copy;
+    }
+
+    private record FlightKey(Long userId, long version) {
+    }
+}
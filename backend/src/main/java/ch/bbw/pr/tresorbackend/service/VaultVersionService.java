@@ -0,0 +1,66 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.repository.VaultVersionRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Per-user vault version used as ETag of the vault listings.
+ * Writers bump it in the same transaction as the change itself; readers must read it
+ * before loading the secrets, so a tag can be older than the data it is sent with but never newer.
+ */
+@Service
+public class VaultVersionService {
+
+    private final VaultVersionRepository vaultVersionRepository;
+
+    public VaultVersionService(VaultVersionRepository vaultVersionRepository) {
+        this.vaultVersionRepository = vaultVersionRepository;
+    }
+
+    /**
+     * @return the current version of the user's vault, 0 if it was never written
+     */
+    public long currentVersion(Long userId) {
+        return vaultVersionRepository.findVersion(userId).orElse(0L);
+    }
+
+    /**
+     * @return the version below which deletions are no longer known, see SecretTombstone
+     */
+    public long tombstoneFloor(Long userId) {
+        return vaultVersionRepository.findTombstoneFloor(userId).orElse(0L);
+    }
+
+    /**
+     * Mark the user's vault as changed, joins the caller's transaction.
+     * @return the new version, the row stays locked until the caller commits
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public long bump(Long userId) {
+        vaultVersionRepository.increment(userId);
+        return currentVersion(userId);
+    }
+
+    /**
+     * Strong ETag of a user's vault listing
+     */
+    public String vaultETag(Long userId) {
+        return vaultETagOf(currentVersion(userId));
+    }
+
+    /**
+     * Strong ETag of a vault listing at the given version
+     */
+    public static String vaultETagOf(long version) {
+        return "\"v" + version + "\"";
+    }
+
+    /**
+     * Strong ETag of a single secret
+     */
+    public static String secretETag(Long secretId, long revision) {
+        return "\"s" + secretId + "-" + revision + "\"";
+    }
+}
@@ -1,17 +1,40 @@
 package ch.bbw.pr.tresorbackend.service.impl;
 
 import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretChanges;
+import ch.bbw.pr.tresorbackend.model.SecretPage;
+import ch.bbw.pr.tresorbackend.model.SecretSummary;
+import ch.bbw.pr.tresorbackend.model.SecretTombstone;
 import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
 import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import ch.bbw.pr.tresorbackend.service.BlindIndexService;
+import ch.bbw.pr.tresorbackend.service.DataKeyService;
+import ch.bbw.pr.tresorbackend.service.SecretDecryptionPipeline;
 import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+import ch.bbw.pr.tresorbackend.service.SecretMigrationService;
+import ch.bbw.pr.tresorbackend.service.SecretPlaintextCache;
 import ch.bbw.pr.tresorbackend.service.SecretService;
+import ch.bbw.pr.tresorbackend.service.SecretStreamService;
+import ch.bbw.pr.tresorbackend.service.SecretSummaryService;
 import ch.bbw.pr.tresorbackend.service.UserService;
-import lombok.AllArgsConstructor;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultReadCoalescer;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.crypto.SecretKey;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,16 +43,31 @@ import java.util.Optional;
  * Handles CRUD operations for secrets with encryption
  */
 @Service
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class SecretServiceImpl implements SecretService {
 
     private static final Logger logger = LoggerFactory.getLogger(SecretServiceImpl.class);
     
     private final SecretRepository secretRepository;
+    private final SecretChunkRepository secretChunkRepository;
     private final SecretEncryptionService encryptionService;
+    private final DataKeyService dataKeyService;
+    private final SecretDecryptionPipeline decryptionPipeline;
+    private final SecretMigrationService migrationService;
     private final UserService userService;
+    private final BlindIndexService blindIndexService;
+    private final SecretSummaryService summaryService;
+    private final VaultVersionService vaultVersionService;
+    private final SecretPlaintextCache plaintextCache;
+    private final VaultReadCoalescer vaultReadCoalescer;
+    private final VaultChangeFeed changeFeed;
+    private final SecretTombstoneRepository tombstoneRepository;
+
+    @Value("${app.secret-page.max-size:100}")
+    private int maxPageSize;
 
     @Override
+    @Transactional
     public Secret createSecret(Secret secret) {
         try {
             // Get user's password for encryption
@@ -38,12 +76,17 @@ public class SecretServiceImpl implements SecretService {
                 throw new RuntimeException("User not found");
             }
 
-            // Encrypt the content using the user's password
-            // This will store both the encrypted content and key data together
-            String encryptedContent = encryptionService.encrypt(secret.getContent(), user.getPassword());
-            secret.setContent(encryptedContent);
+            // Encrypt the content with the user's data key
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            secret.setPayload(encryptionService.encrypt(secret.getContent(), dataKey));
+            secret.setMetadata(summaryService.encryptMetadata(secret.getContent(), dataKey));
 
-            return secretRepository.save(secret);
+            long version = vaultVersionService.bump(user.getId());
+            secret.setChangeSeq(version);
+            Secret savedSecret = secretRepository.save(secret);
+            blindIndexService.index(user.getId(), savedSecret.getId(), dataKey, secret.getContent());
+            changeFeed.publish(user.getId(), savedSecret.getId(), VaultChangeFeed.Op.CREATED, version);
+            return savedSecret;
         } catch (Exception e) {
             logger.error("Error creating secret: " + e.getMessage());
             throw new RuntimeException("Error creating secret", e);
@@ -52,7 +95,23 @@ public class SecretServiceImpl implements SecretService {
 
     @Override
     public Secret getSecretById(Long secretId) {
+        return getSecretById(secretId, null);
+    }
+
+    @Override
+    public Secret getSecretById(Long secretId, Long requesterId) {
         try {
+            // Served from the plaintext cache without reading the body, only for the owner
+            if (requesterId != null && plaintextCache.isEnabled()) {
+                Optional<SecretRepository.OwnerView> owner = secretRepository.findOwnerAndRevision(secretId);
+                if (owner.isPresent() && owner.get().getUserId().equals(requesterId)) {
+                    String cached = plaintextCache.get(requesterId, secretId, owner.get().getRevision());
+                    if (cached != null) {
+                        return new Secret(secretId, requesterId, cached);
+                    }
+                }
+            }
+
             Optional<Secret> optionalSecret = secretRepository.findById(secretId);
             if (optionalSecret.isEmpty()) {
                 throw new RuntimeException("Secret not found");
@@ -66,10 +125,16 @@ public class SecretServiceImpl implements SecretService {
                 throw new RuntimeException("User not found");
             }
 
-            // Decrypt the content using the user's password
-            // The key data is stored with the encrypted content
-            String decryptedContent = encryptionService.decrypt(secret.getContent(), user.getPassword());
+            // Decrypt the content with the user's data key (legacy rows use the password)
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            String decryptedContent = encryptionService.decrypt(secret, dataKey, user.getId(), user.getPassword());
+            if (encryptionService.isLegacy(secret)) {
+                migrationService.enqueue(secret.getId());
+            }
             secret.setContent(decryptedContent);
+            if (secret.getUserId().equals(requesterId)) {
+                plaintextCache.put(secret.getUserId(), secret.getId(), secret.getRevision(), decryptedContent);
+            }
 
             return secret;
         } catch (Exception e) {
@@ -84,7 +149,14 @@ public class SecretServiceImpl implements SecretService {
     }
 
     @Override
+    @Transactional
     public Secret updateSecret(Secret secret) {
+        return updateSecret(secret, null);
+    }
+
+    @Override
+    @Transactional
+    public Secret updateSecret(Secret secret, Long expectedRevision) {
         try {
             Secret existingSecret = secretRepository.findById(secret.getId())
                     .orElseThrow(() -> new RuntimeException("Secret not found"));
@@ -94,18 +166,38 @@ public class SecretServiceImpl implements SecretService {
                 throw new RuntimeException("Unauthorized access to secret");
             }
 
+            // Fail before the expensive part if the client edited an older revision
+            if (expectedRevision != null && existingSecret.getRevision() != expectedRevision) {
+                throw new OptimisticLockingFailureException("Secret " + secret.getId() + " was changed");
+            }
+
             // Get user's password for encryption
             User user = userService.getUserById(secret.getUserId());
             if (user == null) {
                 throw new RuntimeException("User not found");
             }
 
-            // Encrypt the new content using the user's password
-            // This will store both the encrypted content and key data together
-            String encryptedContent = encryptionService.encrypt(secret.getContent(), user.getPassword());
-            existingSecret.setContent(encryptedContent);
+            // A streamed secret replaced by inline content leaves no chunks behind
+            if (SecretStreamService.isStream(existingSecret)) {
+                secretChunkRepository.deleteBySecretId(existingSecret.getId());
+            }
+
+            // Encrypt the new content with the user's data key
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            existingSecret.setPayload(encryptionService.encrypt(secret.getContent(), dataKey));
+            existingSecret.setMetadata(summaryService.encryptMetadata(secret.getContent(), dataKey));
+            existingSecret.setLegacyContent(null);
+            plaintextCache.invalidate(existingSecret.getId());
+            long version = vaultVersionService.bump(user.getId());
+            existingSecret.setChangeSeq(version);
 
-            return secretRepository.save(existingSecret);
+            // No row lock is taken, the UPDATE only succeeds if the revision is still the one read above
+            Secret savedSecret = secretRepository.saveAndFlush(existingSecret);
+            blindIndexService.index(user.getId(), savedSecret.getId(), dataKey, secret.getContent());
+            changeFeed.publish(user.getId(), savedSecret.getId(), VaultChangeFeed.Op.UPDATED, version);
+            return savedSecret;
+        } catch (OptimisticLockingFailureException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error updating secret: " + e.getMessage());
             throw new RuntimeException("Error updating secret", e);
@@ -113,12 +205,28 @@ public class SecretServiceImpl implements SecretService {
     }
 
     @Override
+    @Transactional
     public void deleteSecret(Long secretId) {
+        Optional<Long> userId = secretRepository.findUserId(secretId);
+        secretChunkRepository.deleteBySecretId(secretId);
+        blindIndexService.deleteTokens(secretId);
         secretRepository.deleteById(secretId);
+        plaintextCache.invalidate(secretId);
+        userId.ifPresent(owner -> {
+            // The tombstone tells delta sync clients to drop their copy
+            long version = vaultVersionService.bump(owner);
+            tombstoneRepository.save(new SecretTombstone(secretId, owner, version, LocalDateTime.now()));
+            changeFeed.publish(owner, secretId, VaultChangeFeed.Op.DELETED, version);
+        });
     }
 
     @Override
-    public List<Secret> getSecretsByUserId(Long userId) {
+    public Optional<Long> getSecretRevision(Long secretId) {
+        return secretRepository.findRevision(secretId);
+    }
+
+    @Override
+    public List<Secret> getSecretsByUserId(Long userId, long vaultVersion) {
         try {
             // Get user's password for decryption
             User user = userService.getUserById(userId);
@@ -126,27 +234,177 @@ public class SecretServiceImpl implements SecretService {
                 throw new RuntimeException("User not found");
             }
 
-            List<Secret> encryptedSecrets = secretRepository.findByUserId(userId);
-            List<Secret> decryptedSecrets = new ArrayList<>();
+            // Concurrent requests that saw the same vault version share one load and decryption
+            return vaultReadCoalescer.read(userId, vaultVersion, () -> {
+                List<Secret> encryptedSecrets = secretRepository.findByUserId(userId);
+                try {
+                    // Unwrap the data key once for the whole vault
+                    SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+                    return decryptAll(encryptedSecrets, user, dataKey);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Error unwrapping data key", e);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Error getting secrets for user: " + e.getMessage());
+            throw new RuntimeException("Error getting secrets", e);
+        }
+    }
 
-            // Decrypt all secrets
-            for (Secret secret : encryptedSecrets) {
-                // Decrypt the content using the user's password
-                // The key data is stored with the encrypted content
-                String decryptedContent = encryptionService.decrypt(secret.getContent(), user.getPassword());
-                Secret decryptedSecret = new Secret(
-                        secret.getId(),
-                        secret.getUserId(),
-                        decryptedContent
-                );
-                decryptedSecrets.add(decryptedSecret);
+    @Override
+    public SecretPage<Secret> getSecretsPage(Long userId, Long afterId, int size) {
+        try {
+            User user = userService.getUserById(userId);
+            if (user == null) {
+                throw new RuntimeException("User not found");
             }
 
-            return decryptedSecrets;
+            // Keyset on id: one row more than requested tells whether another page follows
+            int pageSize = Math.max(1, Math.min(size, maxPageSize));
+            List<Secret> rows = secretRepository.findPageAfter(userId, afterId != null ? afterId : 0L,
+                    PageRequest.ofSize(pageSize + 1));
+            boolean hasMore = rows.size() > pageSize;
+            List<Secret> encryptedSecrets = hasMore ? rows.subList(0, pageSize) : rows;
+
+            // Only the rows of this page are decrypted
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            List<Secret> items = decryptAll(encryptedSecrets, user, dataKey);
+            Long nextCursor = hasMore ? encryptedSecrets.get(pageSize - 1).getId() : null;
+            return new SecretPage<>(items, nextCursor);
         } catch (Exception e) {
-            logger.error("Error getting secrets for user: " + e.getMessage());
+            logger.error("Error getting secret page for user: " + e.getMessage());
+            throw new RuntimeException("Error getting secrets", e);
+        }
+    }
+
+    @Override
+    public SecretPage<SecretSummary> getSecretSummaries(Long userId, Long afterId, int size) {
+        try {
+            User user = userService.getUserById(userId);
+            if (user == null) {
+                throw new RuntimeException("User not found");
+            }
+
+            int pageSize = Math.max(1, Math.min(size, maxPageSize));
+            List<SecretRepository.MetadataView> rows = secretRepository.findMetadataPageAfter(userId,
+                    afterId != null ? afterId : 0L, PageRequest.ofSize(pageSize + 1));
+            boolean hasMore = rows.size() > pageSize;
+            List<SecretRepository.MetadataView> page = hasMore ? rows.subList(0, pageSize) : rows;
+
+            // Only the small metadata blobs are decrypted, the bodies stay in the database
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            List<SecretSummary> items = new ArrayList<>(decryptionPipeline.decryptAll(page, row ->
+                    row.getMetadata() != null ? summaryService.decryptSummary(row.getId(), row.getMetadata(), dataKey) : null));
+
+            // Rows written before metadata existed are summarized from their body once
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) == null) {
+                    items.set(i, backfillSummary(page.get(i).getId(), user, dataKey));
+                }
+            }
+            Long nextCursor = hasMore ? page.get(pageSize - 1).getId() : null;
+            return new SecretPage<>(items, nextCursor);
+        } catch (Exception e) {
+            logger.error("Error getting secret summaries for user: " + e.getMessage());
             throw new RuntimeException("Error getting secrets", e);
         }
     }
 
+    private SecretSummary backfillSummary(Long secretId, User user, SecretKey dataKey) throws Exception {
+        Secret secret = secretRepository.findById(secretId)
+                .orElseThrow(() -> new RuntimeException("Secret not found"));
+        String content = encryptionService.decrypt(secret, dataKey, user.getId(), user.getPassword());
+        secretRepository.updateMetadata(secretId, summaryService.encryptMetadata(content, dataKey));
+        return summaryService.toSummary(secretId, content);
+    }
+
+    @Override
+    public List<Secret> searchSecrets(Long userId, String query, String kind) {
+        try {
+            User user = userService.getUserById(userId);
+            if (user == null) {
+                throw new RuntimeException("User not found");
+            }
+
+            // Look up candidates in the blind index, only the hits are loaded and decrypted
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            List<Long> ids = blindIndexService.findSecretIds(user.getId(), dataKey, query, kind);
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            List<Secret> encryptedSecrets = secretRepository.findAllById(ids).stream()
+                    .filter(secret -> secret.getUserId().equals(user.getId()))
+                    .sorted(Comparator.comparing(Secret::getId))
+                    .toList();
+            return decryptAll(encryptedSecrets, user, dataKey);
+        } catch (Exception e) {
+            logger.error("Error searching secrets for user: " + e.getMessage());
+            throw new RuntimeException("Error searching secrets", e);
+        }
+    }
+
+    @Override
+    public long countSecretsPendingSearchIndex(Long userId) {
+        return blindIndexService.pendingCount(userId);
+    }
+
+    @Override
+    public SecretChanges getChanges(Long userId, Long since, Long afterId, int size) {
+        try {
+            User user = userService.getUserById(userId);
+            if (user == null) {
+                throw new RuntimeException("User not found");
+            }
+
+            // Everything up to this version is committed, later writes get a higher sequence
+            long version = vaultVersionService.currentVersion(userId);
+            // Checked when a sync starts, later pages continue behind the last row they received
+            if (since != null && afterId == null && since < vaultVersionService.tombstoneFloor(userId)) {
+                return new SecretChanges(version, List.of(), List.of(), null, null, true);
+            }
+
+            // Without since this is a full sync; rows older than the change sequence carry 0.
+            // Without after the client has every row of version since, only the continuation of a
+            // page that ended inside a version resumes behind its last id.
+            long from = since != null ? since : -1L;
+            int pageSize = Math.max(1, Math.min(size, maxPageSize));
+            List<Secret> rows = secretRepository.findChangedAfter(userId, from, afterId != null ? afterId : Long.MAX_VALUE,
+                    version, PageRequest.ofSize(pageSize + 1));
+            boolean hasMore = rows.size() > pageSize;
+            List<Secret> encryptedSecrets = hasMore ? rows.subList(0, pageSize) : rows;
+            Secret last = hasMore ? encryptedSecrets.get(pageSize - 1) : null;
+
+            // Deletions in the same sequence range as the rows of this page
+            long upTo = last != null ? last.getChangeSeq() : version;
+            List<Long> deleted = since != null
+                    ? tombstoneRepository.findDeletedSecretIds(userId, from, upTo)
+                    : List.of();
+
+            SecretKey dataKey = dataKeyService.getDataKey(user.getId(), user.getPassword());
+            List<Secret> changed = decryptAll(encryptedSecrets, user, dataKey);
+            return new SecretChanges(version, changed, deleted,
+                    last != null ? last.getChangeSeq() : null, last != null ? last.getId() : null, false);
+        } catch (Exception e) {
+            logger.error("Error getting secret changes for user: " + e.getMessage());
+            throw new RuntimeException("Error getting secret changes", e);
+        }
+    }
+
+    // Decrypt the secrets, spread over the decryption pool for larger lists
+    private List<Secret> decryptAll(List<Secret> encryptedSecrets, User user, SecretKey dataKey) {
+        return decryptionPipeline.decryptAll(encryptedSecrets, secret -> {
+            try {
+                String decryptedContent = encryptionService.decrypt(secret, dataKey, user.getId(), user.getPassword());
+                if (encryptionService.isLegacy(secret)) {
+                    migrationService.enqueue(secret.getId());
+                }
+                return new Secret(secret.getId(), secret.getUserId(), decryptedContent);
+            } catch (Exception e) {
+                throw new RuntimeException("Error decrypting secret " + secret.getId(), e);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,67 @@
+package ch.bbw.pr.tresorbackend.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * OffHeapBytes
+ * Holds sensitive bytes in a direct (off-heap) buffer so they are not copied around
+ * by the garbage collector and can be overwritten with zeros deterministically.
+ */
+public final class OffHeapBytes {
+
+    private final ByteBuffer buffer;
+    private final int length;
+    private volatile boolean wiped;
+
+    private OffHeapBytes(int length) {
+        this.buffer = ByteBuffer.allocateDirect(length);
+        this.length = length;
+    }
+
+    /**
+     * Copy the given bytes off-heap and zero the source array
+     * @param source bytes to move off-heap, overwritten with zeros afterwards
+     * @return the off-heap copy
+     */
+    public static OffHeapBytes moveFrom(byte[] source) {
+        OffHeapBytes bytes = new OffHeapBytes(source.length);
+        bytes.buffer.put(0, source);
+        Arrays.fill(source, (byte) 0);
+        return bytes;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copy the bytes back onto the heap. The caller owns the returned array
+     * and should zero it when done.
+     */
+    public synchronized byte[] copy() {
+        if (wiped) {
+            throw new IllegalStateException("Bytes have already been wiped");
+        }
+        byte[] copy = new byte[length];
+        buffer.get(0, copy);
+        return copy;
+    }
+
+    /**
+     * Overwrite the buffer with zeros. Further reads fail.
+     */
+    public synchronized void wipe() {
+        if (wiped) {
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        wiped = true;
+    }
+
+    public boolean isWiped() {
+        return wiped;
+    }
+}
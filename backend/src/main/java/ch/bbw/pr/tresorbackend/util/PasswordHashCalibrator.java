@@ -0,0 +1,82 @@
+package ch.bbw.pr.tresorbackend.util;
+
+import ch.bbw.pr.tresorbackend.service.Argon2idHashPolicy;
+import ch.bbw.pr.tresorbackend.service.BCryptHashPolicy;
+import ch.bbw.pr.tresorbackend.service.PasswordHashPolicy;
+
+import java.util.Arrays;
+
+/**
+ * Picks password hash parameters for a target verification time on the current machine and
+ * prints them as application properties. Run it on the production hardware, e.g.
+ * <pre>java -cp tresorbackend.jar -Dloader.main=ch.bbw.pr.tresorbackend.util.PasswordHashCalibrator
+ *   org.springframework.boot.loader.launch.PropertiesLauncher 250</pre>
+ * Arguments: target milliseconds (default 250), max. Argon2id memory in MiB (default 256).
+ */
+public class PasswordHashCalibrator {
+
+    private static final String SAMPLE_PASSWORD = "Calibration-Password-1!";
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 250;
+        int maxMemoryMib = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+
+        System.out.println("# Target verification time: " + targetMillis + " ms on "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+
+        // BCrypt: every step doubles the work, take the highest cost within the target
+        int cost = 10;
+        double millis = measure(new BCryptHashPolicy(cost));
+        while (cost < 31) {
+            double next = measure(new BCryptHashPolicy(cost + 1));
+            if (next > targetMillis) {
+                break;
+            }
+            cost++;
+            millis = next;
+        }
+        System.out.printf("# bcrypt(cost=%d): %.0f ms%n", cost, millis);
+        System.out.println("app.password-hash.bcrypt.cost=" + cost);
+
+        // Argon2id: one lane per request, memory first (up to the limit), then more passes
+        int parallelism = 1;
+        int iterations = 2;
+        int memoryKib = 19 * 1024;
+        millis = measure(new Argon2idHashPolicy(memoryKib, iterations, parallelism));
+        while (memoryKib * 2 <= maxMemoryMib * 1024) {
+            double next = measure(new Argon2idHashPolicy(memoryKib * 2, iterations, parallelism));
+            if (next > targetMillis) {
+                break;
+            }
+            memoryKib *= 2;
+            millis = next;
+        }
+        while (true) {
+            double next = measure(new Argon2idHashPolicy(memoryKib, iterations + 1, parallelism));
+            if (next > targetMillis) {
+                break;
+            }
+            iterations++;
+            millis = next;
+        }
+        System.out.printf("# argon2id(m=%d,t=%d,p=%d): %.0f ms%n", memoryKib, iterations, parallelism, millis);
+        System.out.println("app.password-hash.argon2.memory-kib=" + memoryKib);
+        System.out.println("app.password-hash.argon2.iterations=" + iterations);
+        System.out.println("app.password-hash.argon2.parallelism=" + parallelism);
+    }
+
+    // Median verification time in milliseconds, after one warm-up round
+    private static double measure(PasswordHashPolicy policy) {
+        String hash = policy.hash(SAMPLE_PASSWORD);
+        policy.verify(SAMPLE_PASSWORD, hash);
+        long[] samples = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            policy.verify(SAMPLE_PASSWORD, hash);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[ROUNDS / 2] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,100 @@
+package ch.bbw.pr.tresorbackend.benchmark;
+
+import ch.bbw.pr.tresorbackend.service.CryptoPrimitives;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares Cipher/SecretKeyFactory.getInstance per operation with the per-thread instances of
+ * CryptoPrimitives: init + doFinal of a 256 byte AES-GCM message plus a key factory lookup.
+ * Not run by the test suite; run it with
+ * <pre>mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) ch.bbw.pr.tresorbackend.benchmark.CryptoPrimitivesBenchmark</pre>
+ */
+public class CryptoPrimitivesBenchmark {
+
+    private static final int WARMUP_ROUNDS = 4;
+    private static final long ROUND_MILLIS = 1000;
+
+    private static final CryptoPrimitives PRIMITIVES = new CryptoPrimitives();
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final byte[] MESSAGE = new byte[256];
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{1, 8}) {
+            report("getInstance ", threads, CryptoPrimitivesBenchmark::withGetInstance);
+            report("thread-local", threads, CryptoPrimitivesBenchmark::withThreadLocal);
+        }
+    }
+
+    private interface Op {
+        void run(byte[] iv) throws Exception;
+    }
+
+    private static void withGetInstance(byte[] iv) throws Exception {
+        Cipher cipher = Cipher.getInstance(CryptoPrimitives.AES_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, KEY, new GCMParameterSpec(128, iv));
+        cipher.doFinal(MESSAGE);
+        SecretKeyFactory.getInstance(CryptoPrimitives.PBKDF2_HMAC_SHA256);
+    }
+
+    private static void withThreadLocal(byte[] iv) throws Exception {
+        Cipher cipher = PRIMITIVES.aesGcm();
+        cipher.init(Cipher.ENCRYPT_MODE, KEY, new GCMParameterSpec(128, iv));
+        cipher.doFinal(MESSAGE);
+        PRIMITIVES.pbkdf2();
+    }
+
+    private static void report(String name, int threads, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(threads, op);
+        }
+        long[] result = run(threads, op);
+        System.out.printf("%s %d thread(s) %,10d ops/s %,8d B/op%n", name, threads,
+                result[0] * 1000 / ROUND_MILLIS, result[1] / Math.max(1, result[0]));
+    }
+
+    // Runs op on all threads for one round, returns {operations, allocated bytes}
+    private static long[] run(int threads, Op op) throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.currentTimeMillis() + ROUND_MILLIS;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit((Callable<Void>) () -> {
+                // GCM refuses to reuse an IV with the same key, so every operation gets a fresh one
+                SecureRandom random = new SecureRandom();
+                byte[] iv = new byte[12];
+                long before = mx.getCurrentThreadAllocatedBytes();
+                long n = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    random.nextBytes(iv);
+                    op.run(iv);
+                    n++;
+                }
+                allocated.addAndGet(mx.getCurrentThreadAllocatedBytes() - before);
+                ops.addAndGet(n);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        return new long[]{ops.get(), allocated.get()};
+    }
+}
@@ -0,0 +1,114 @@
+package ch.bbw.pr.tresorbackend.benchmark;
+
+import ch.bbw.pr.tresorbackend.security.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Compares the per-request work of the JWT filter: four parses, each with a new key and parser
+ * (userId, email, role, expiry) as before, against one JwtUtil.parseVerified() on the cached parser.
+ * Not run by the test suite; run it with
+ * <pre>mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) ch.bbw.pr.tresorbackend.benchmark.JwtAuthBenchmark</pre>
+ */
+public class JwtAuthBenchmark {
+
+    private static final int WARMUP_ROUNDS = 4;
+    private static final long ROUND_MILLIS = 1000;
+    private static final String SECRET = "defaultSecretKeyWhichShouldBeAtLeast32CharactersLong";
+
+    private static final JwtUtil JWT_UTIL = jwtUtil();
+    private static final String TOKEN = JWT_UTIL.generateToken(42L, "alice@example.com", "USER");
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{1, 8}) {
+            report("four parses   ", threads, JwtAuthBenchmark::fourParses);
+            report("parseVerified", threads, JwtAuthBenchmark::parseVerified);
+        }
+    }
+
+    private static JwtUtil jwtUtil() {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "jwtExpirationMs", 3_600_000L);
+        ReflectionTestUtils.invokeMethod(jwtUtil, "init");
+        return jwtUtil;
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    // What the filter did before: every claim lookup built the key and parser and verified again
+    private static <T> T claimOfFreshParser(Function<Claims, T> resolver) {
+        Claims claims = Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .build()
+                .parseClaimsJws(TOKEN)
+                .getBody();
+        return resolver.apply(claims);
+    }
+
+    private static void fourParses() {
+        claimOfFreshParser(claims -> claims.get("userId", String.class));
+        claimOfFreshParser(claims -> claims.get("email", String.class));
+        claimOfFreshParser(claims -> claims.get("role", String.class));
+        if (claimOfFreshParser(Claims::getExpiration).before(new Date())) {
+            throw new IllegalStateException("expired");
+        }
+    }
+
+    private static void parseVerified() {
+        JWT_UTIL.parseVerified(TOKEN);
+    }
+
+    private static void report(String name, int threads, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(threads, op);
+        }
+        long[] result = run(threads, op);
+        System.out.printf("%s %d thread(s) %,10d ops/s %,8d B/op%n", name, threads,
+                result[0] * 1000 / ROUND_MILLIS, result[1] / Math.max(1, result[0]));
+    }
+
+    // Runs op on all threads for one round, returns {operations, allocated bytes}
+    private static long[] run(int threads, Op op) throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.currentTimeMillis() + ROUND_MILLIS;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit((Callable<Void>) () -> {
+                long before = mx.getCurrentThreadAllocatedBytes();
+                long n = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    op.run();
+                    n++;
+                }
+                allocated.addAndGet(mx.getCurrentThreadAllocatedBytes() - before);
+                ops.addAndGet(n);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        return new long[]{ops.get(), allocated.get()};
+    }
+}
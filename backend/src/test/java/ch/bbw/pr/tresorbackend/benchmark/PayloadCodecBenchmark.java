@@ -0,0 +1,83 @@
+package ch.bbw.pr.tresorbackend.benchmark;
+
+import ch.bbw.pr.tresorbackend.service.CryptoPrimitives;
+import ch.bbw.pr.tresorbackend.service.PayloadCodec;
+import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.util.Random;
+
+/**
+ * Stored size and latency of note secrets {kind,title,content} of growing size with the
+ * codecs of PayloadCodec, through the real encrypt/decrypt path of SecretEncryptionService.
+ * Prints stored bytes (including the envelope), encode+encrypt and decrypt+decode time.
+ * Not run by the test suite; run it with
+ * <pre>mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) ch.bbw.pr.tresorbackend.benchmark.PayloadCodecBenchmark</pre>
+ */
+public class PayloadCodecBenchmark {
+
+    private static final int[] CONTENT_LENGTHS = {20, 116, 244, 1012, 4084, 16372};
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2000;
+    private static final String[] WORDS = ("und eragon ging auf den drachen zu saphira hob kopf sah ihn an "
+            + "der wald war still nur wind in blaettern brom wartete am feuer schwert glaenzte mond "
+            + "stadt teirm lag hinter huegeln murtagh ritt voraus pfad schmal stein wasser fluss "
+            + "nacht kalt morgen sonne zwerge elfen urgals hoehle berg tal reise weit lange").split(" ");
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        SecretKey key = generator.generateKey();
+        SecretEncryptionService utf8 = service(false, false);
+        SecretEncryptionService deflate = service(false, true);
+        SecretEncryptionService smileDeflate = service(true, true);
+
+        System.out.printf("%-10s %-22s %-22s %-22s%n", "json bytes", "utf8", "deflate", "smile+deflate");
+        for (int length : CONTENT_LENGTHS) {
+            String json = note(length);
+            System.out.printf("%-10d %-22s %-22s %-22s%n", json.length(),
+                    measure(utf8, json, key), measure(deflate, json, key), measure(smileDeflate, json, key));
+        }
+    }
+
+    // Only encrypt(String, key) and decrypt(byte[], key) are used, they need codec and primitives only
+    private static SecretEncryptionService service(boolean smile, boolean deflate) {
+        PayloadCodec codec = new PayloadCodec(smile, deflate, 0, 6, 16 * 1024 * 1024);
+        return new SecretEncryptionService(null, null, new CryptoPrimitives(), codec, null);
+    }
+
+    private static String note(int contentLength) {
+        // Seeded random word sequence: compresses roughly like prose, not like a repeated sentence
+        Random random = new Random(contentLength);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < contentLength) {
+            content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        content.setLength(contentLength);
+        return "{\"kind\":\"note\",\"title\":\"Eragon\",\"content\":\"" + content + "\"}";
+    }
+
+    // "stored bytes / encrypt us / decrypt us", best of ROUNDS
+    private static String measure(SecretEncryptionService service, String json, SecretKey key) throws Exception {
+        byte[] stored = service.encrypt(json, key);
+        double bestEncrypt = Double.MAX_VALUE;
+        double bestDecrypt = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                stored = service.encrypt(json, key);
+            }
+            bestEncrypt = Math.min(bestEncrypt, (System.nanoTime() - start) / 1000.0 / ITERATIONS);
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (!json.equals(service.decrypt(stored, key))) {
+                    throw new IllegalStateException("Round trip failed");
+                }
+            }
+            bestDecrypt = Math.min(bestDecrypt, (System.nanoTime() - start) / 1000.0 / ITERATIONS);
+        }
+        return String.format("%d / %.1f / %.1fus", stored.length, bestEncrypt, bestDecrypt);
+    }
+}
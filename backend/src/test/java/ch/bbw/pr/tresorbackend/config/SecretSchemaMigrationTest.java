@@ -0,0 +1,52 @@
+package ch.bbw.pr.tresorbackend.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretSchemaMigrationTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    private void column(String nullable, String type) {
+        when(jdbcTemplate.queryForList(anyString()))
+                .thenReturn(List.of(Map.of("IS_NULLABLE", nullable, "DATA_TYPE", type)));
+    }
+
+    @Test
+    void relaxesOriginalJsonNotNullColumn() {
+        column("NO", "json");
+
+        new SecretSchemaMigration(jdbcTemplate, mock(EntityManagerFactory.class), true).migrate();
+
+        verify(jdbcTemplate).execute(SecretSchemaMigration.RELAX_CONTENT_SQL);
+    }
+
+    @Test
+    void leavesMigratedColumnAlone() {
+        column("YES", "longtext");
+
+        new SecretSchemaMigration(jdbcTemplate, mock(EntityManagerFactory.class), true).migrate();
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void failsStartupWhenMigrationIsDisabled() {
+        column("NO", "json");
+        SecretSchemaMigration migration = new SecretSchemaMigration(jdbcTemplate, mock(EntityManagerFactory.class), false);
+
+        assertThrows(IllegalStateException.class, migration::migrate);
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+}
@@ -0,0 +1,238 @@
+package ch.bbw.pr.tresorbackend.controller;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.repository.VaultVersionRepository;
+import ch.bbw.pr.tresorbackend.service.IdempotencyKeyInProgressException;
+import ch.bbw.pr.tresorbackend.service.IdempotencyKeyReusedException;
+import ch.bbw.pr.tresorbackend.service.IdempotencyStore;
+import ch.bbw.pr.tresorbackend.service.SecretBulkService;
+import ch.bbw.pr.tresorbackend.service.SecretService;
+import ch.bbw.pr.tresorbackend.service.SecretStreamService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class SecretControllerTest {
+
+    private static final String BODY = "{\"userId\":1,\"content\":\"{\\\"kind\\\":\\\"note\\\",\\\"title\\\":\\\"a\\\"}\"}";
+
+    private final SecretService secretService = mock(SecretService.class);
+    private final IdempotencyStore idempotencyStore = mock(IdempotencyStore.class);
+    private final SecretBulkService bulkService = mock(SecretBulkService.class);
+    private final VaultVersionRepository versionRepository = mock(VaultVersionRepository.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        SecretController controller = new SecretController(secretService, mock(SecretStreamService.class),
+                bulkService, mock(UserService.class), new VaultVersionService(versionRepository),
+                mock(VaultChangeFeed.class), idempotencyStore);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .addPlaceholderValue("CROSS_ORIGIN", "http://localhost:3000")
+                .build();
+    }
+
+    private static Secret stored(long revision) {
+        Secret secret = new Secret(5L, 1L, null);
+        secret.setRevision(revision);
+        return secret;
+    }
+
+    @Test
+    void updateWithCurrentETagSucceedsAndReturnsTheNewOne() throws Exception {
+        when(secretService.updateSecret(any(Secret.class), eq(3L))).thenReturn(stored(4));
+
+        mockMvc.perform(put("/api/secrets/5").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header(HttpHeaders.IF_MATCH, "\"s5-3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"s5-4\""));
+    }
+
+    @Test
+    void updateWithOutdatedETagIsPreconditionFailed() throws Exception {
+        when(secretService.updateSecret(any(Secret.class), eq(3L)))
+                .thenThrow(new OptimisticLockingFailureException("Secret 5 was changed"));
+
+        mockMvc.perform(put("/api/secrets/5").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header(HttpHeaders.IF_MATCH, "\"s5-3\""))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void updateWithETagOfAnotherSecretIsPreconditionFailedWithoutWriting() throws Exception {
+        mockMvc.perform(put("/api/secrets/5").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header(HttpHeaders.IF_MATCH, "\"s6-3\""))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(secretService, never()).updateSecret(any(Secret.class), anyLong());
+    }
+
+    @Test
+    void concurrentUpdateWithoutIfMatchIsConflict() throws Exception {
+        when(secretService.updateSecret(any(Secret.class), isNull()))
+                .thenThrow(new OptimisticLockingFailureException("Row was updated by another transaction"));
+
+        mockMvc.perform(put("/api/secrets/5").contentType(MediaType.APPLICATION_JSON).content(BODY))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void wildcardIfMatchUpdatesWhateverIsStored() throws Exception {
+        when(secretService.updateSecret(any(Secret.class), isNull())).thenReturn(stored(8));
+
+        mockMvc.perform(put("/api/secrets/5").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header(HttpHeaders.IF_MATCH, "*"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"s5-8\""));
+    }
+
+    @Test
+    void retriedCreateIsMarkedAsReplayed() throws Exception {
+        when(idempotencyStore.execute(eq(1L), eq("key-1"), anyString(), any()))
+                .thenReturn(new IdempotencyStore.Outcome(9L, true));
+
+        mockMvc.perform(post("/api/secrets").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header("Idempotency-Key", "key-1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(jsonPath("$.id").value(9));
+
+        verify(secretService, never()).createSecret(any(Secret.class));
+    }
+
+    @Test
+    void firstCreateWithKeyIsNotMarkedAsReplayed() throws Exception {
+        when(idempotencyStore.execute(eq(1L), eq("key-1"), anyString(), any()))
+                .thenReturn(new IdempotencyStore.Outcome(9L, false));
+
+        mockMvc.perform(post("/api/secrets").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header("Idempotency-Key", "key-1"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Idempotent-Replayed"));
+    }
+
+    @Test
+    void keyReusedForDifferentBodyIsUnprocessable() throws Exception {
+        when(idempotencyStore.execute(eq(1L), eq("key-1"), anyString(), any()))
+                .thenThrow(new IdempotencyKeyReusedException());
+
+        mockMvc.perform(post("/api/secrets").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header("Idempotency-Key", "key-1"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void keyStillInProgressIsConflict() throws Exception {
+        when(idempotencyStore.execute(eq(1L), eq("key-1"), anyString(), any()))
+                .thenThrow(new IdempotencyKeyInProgressException("A request with this \"key\" is still in progress"));
+
+        mockMvc.perform(post("/api/secrets").contentType(MediaType.APPLICATION_JSON).content(BODY)
+                        .header("Idempotency-Key", "key-1"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value("A request with this \"key\" is still in progress"));
+    }
+
+    @Test
+    void invalidArgumentWithoutIdempotencyKeyIsNotReportedAsKeyReuse() throws Exception {
+        when(secretService.createSecret(any(Secret.class))).thenThrow(new IllegalArgumentException("bad content"));
+
+        mockMvc.perform(post("/api/secrets").contentType(MediaType.APPLICATION_JSON).content(BODY))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    void exportOfAnotherUsersVaultIsForbidden() throws Exception {
+        mockMvc.perform(get("/api/secrets/user/2/export").principal(new TestingAuthenticationToken("1", null)))
+                .andExpect(status().isForbidden());
+
+        verify(bulkService, never()).openExport(anyLong());
+    }
+
+    @Test
+    void importWithoutAuthenticationIsUnauthorized() throws Exception {
+        mockMvc.perform(post("/api/secrets/user/1/import").contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isUnauthorized());
+
+        verify(bulkService, never()).importSecrets(anyLong(), any());
+    }
+
+    @Test
+    void importIntoAnotherUsersVaultIsForbidden() throws Exception {
+        mockMvc.perform(post("/api/secrets/user/2/import").contentType(MediaType.APPLICATION_JSON).content("[]")
+                        .principal(new TestingAuthenticationToken("1", null)))
+                .andExpect(status().isForbidden());
+
+        verify(bulkService, never()).importSecrets(anyLong(), any());
+    }
+
+    @Test
+    void vaultListWithCurrentETagIsNotModifiedWithoutReadingSecrets() throws Exception {
+        when(versionRepository.findVersion(1L)).thenReturn(Optional.of(4L));
+
+        mockMvc.perform(get("/api/secrets/user/1").header(HttpHeaders.IF_NONE_MATCH, "\"v4\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"v4\""));
+
+        verify(secretService, never()).getSecretsByUserId(anyLong(), anyLong());
+    }
+
+    @Test
+    void vaultListWithOutdatedETagIsServedWithTheCurrentOne() throws Exception {
+        when(versionRepository.findVersion(1L)).thenReturn(Optional.of(4L));
+        when(secretService.getSecretsByUserId(1L, 4L)).thenReturn(List.of(stored(1)));
+
+        mockMvc.perform(get("/api/secrets/user/1").header(HttpHeaders.IF_NONE_MATCH, "\"v3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"v4\""))
+                .andExpect(jsonPath("$[0].id").value(5));
+    }
+
+    @Test
+    void summariesWithWeakCurrentETagAreNotModifiedWithoutReadingSecrets() throws Exception {
+        when(versionRepository.findVersion(1L)).thenReturn(Optional.of(4L));
+
+        mockMvc.perform(get("/api/secrets/user/1/summaries").param("size", "10").header(HttpHeaders.IF_NONE_MATCH, "W/\"v4\""))
+                .andExpect(status().isNotModified());
+
+        verify(secretService, never()).getSecretSummaries(anyLong(), any(), anyInt());
+    }
+
+    @Test
+    void secretWithCurrentETagIsNotModifiedWithoutDecrypting() throws Exception {
+        when(secretService.getSecretRevision(5L)).thenReturn(Optional.of(3L));
+
+        mockMvc.perform(get("/api/secrets/5").header(HttpHeaders.IF_NONE_MATCH, "\"s5-3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"s5-3\""));
+
+        verify(secretService, never()).getSecretById(anyLong(), any());
+    }
+}
@@ -0,0 +1,158 @@
+package ch.bbw.pr.tresorbackend.controller;
+
+import ch.bbw.pr.tresorbackend.model.ConfigProperties;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.security.JwtUtil;
+import ch.bbw.pr.tresorbackend.service.EmailTwoFactorService;
+import ch.bbw.pr.tresorbackend.service.PasswordEncryptionService;
+import ch.bbw.pr.tresorbackend.service.PasswordHashingBusyException;
+import ch.bbw.pr.tresorbackend.service.PasswordRehashService;
+import ch.bbw.pr.tresorbackend.service.TurnstileService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class UserControllerTest {
+
+    private static final String LOGIN = login("user@example.com", "secret");
+    private static final String SECURITY_FAILED = "Security verification failed. Please try again.";
+
+    private final UserService userService = mock(UserService.class);
+    private final PasswordEncryptionService passwordService = mock(PasswordEncryptionService.class);
+    private final TurnstileService turnstileService = mock(TurnstileService.class);
+    private final ExecutorService loginExecutor = Executors.newFixedThreadPool(2);
+    private final EmailTwoFactorService emailTwoFactorService = mock(EmailTwoFactorService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        UserController controller = new UserController(mock(ConfigProperties.class), userService, passwordService,
+                turnstileService, mock(JwtUtil.class));
+        ReflectionTestUtils.setField(controller, "emailTwoFactorService", emailTwoFactorService);
+        ReflectionTestUtils.setField(controller, "passwordRehashService", mock(PasswordRehashService.class));
+        ReflectionTestUtils.setField(controller, "loginExecutor", loginExecutor);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new PasswordHashingBusyHandler())
+                .addPlaceholderValue("CROSS_ORIGIN", "http://localhost:3000")
+                .build();
+
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("user@example.com");
+        user.setPassword("stored-hash");
+        when(userService.findByEmail("user@example.com")).thenReturn(user);
+        when(userService.findByEmail("nobody@example.com")).thenThrow(new NoSuchElementException());
+        when(turnstileService.verifyToken(anyString(), anyString())).thenReturn(true);
+        when(passwordService.verifyPasswordAsync("secret", "stored-hash")).thenReturn(CompletableFuture.completedFuture(true));
+        when(passwordService.verifyPasswordAsync("wrong", "stored-hash")).thenReturn(CompletableFuture.completedFuture(false));
+        when(passwordService.verifyUnknownAccountAsync(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+    }
+
+    @AfterEach
+    void tearDown() {
+        loginExecutor.shutdownNow();
+    }
+
+    private static String login(String email, String password) {
+        return "{\"email\":\"" + email + "\",\"password\":\"" + password + "\",\"turnstileToken\":\"token\"}";
+    }
+
+    private ResultActions login(String body) throws Exception {
+        MvcResult started = mockMvc.perform(post("/api/users/login").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    @Test
+    void saturatedPasswordHashingIsServiceUnavailableWithRetryAfter() throws Exception {
+        when(passwordService.verifyPasswordAsync("secret", "stored-hash"))
+                .thenReturn(CompletableFuture.failedFuture(new PasswordHashingBusyException(2)));
+
+        login(LOGIN)
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+    }
+
+    @Test
+    void failedTurnstileWinsOverACorrectPassword() throws Exception {
+        when(turnstileService.verifyToken(anyString(), anyString())).thenReturn(false);
+
+        login(LOGIN)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value(SECURITY_FAILED));
+
+        verify(emailTwoFactorService, never()).generateAndSendVerificationCode(anyLong());
+    }
+
+    @Test
+    void failedTurnstileWinsOverInvalidCredentials() throws Exception {
+        when(turnstileService.verifyToken(anyString(), anyString())).thenReturn(false);
+
+        login(login("nobody@example.com", "secret"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value(SECURITY_FAILED));
+    }
+
+    @Test
+    void failedTurnstileWinsOverValidationErrors() throws Exception {
+        when(turnstileService.verifyToken(anyString(), anyString())).thenReturn(false);
+
+        login(login("not-an-email", "secret"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value(SECURITY_FAILED));
+    }
+
+    @Test
+    void unknownEmailIsUnauthorizedAfterADummyVerification() throws Exception {
+        login(login("nobody@example.com", "secret"))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.message").value("Invalid credentials"));
+
+        verify(passwordService).verifyUnknownAccountAsync("secret");
+    }
+
+    @Test
+    void wrongPasswordGetsTheSameAnswerAsAnUnknownEmail() throws Exception {
+        login(login("user@example.com", "wrong"))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.message").value("Invalid credentials"));
+
+        verify(passwordService, never()).verifyUnknownAccountAsync(anyString());
+    }
+
+    @Test
+    void correctPasswordAsksForTheSecondFactor() throws Exception {
+        when(emailTwoFactorService.generateAndSendVerificationCode(1L)).thenReturn(true);
+
+        login(LOGIN)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.requiresTwoFactor").value(true));
+    }
+}
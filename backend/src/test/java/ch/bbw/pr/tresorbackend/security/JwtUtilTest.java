@@ -0,0 +1,104 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtUtilTest {
+
+    private static final String SECRET = "testSecretKeyWhichIsAtLeast32CharactersLong";
+
+    private JwtUtil jwtUtil;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtil = jwtUtil(SECRET, 3_600_000L);
+    }
+
+    private static JwtUtil jwtUtil(String secret, long expirationMs) {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", secret);
+        ReflectionTestUtils.setField(jwtUtil, "jwtExpirationMs", expirationMs);
+        jwtUtil.init();
+        return jwtUtil;
+    }
+
+    @Test
+    void validTokenYieldsItsClaims() {
+        String token = jwtUtil.generateToken(42L, "alice@example.com", "USER");
+
+        JwtPrincipal principal = jwtUtil.parseVerified(token);
+
+        assertEquals("42", principal.userId());
+        assertEquals("alice@example.com", principal.email());
+        assertEquals("USER", principal.role());
+        assertTrue(principal.expiresAt().isAfter(Instant.now()));
+        assertTrue(jwtUtil.validateToken(token));
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        String token = jwtUtil(SECRET, -60_000L).generateToken(42L, "alice@example.com", "USER");
+
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.parseVerified(token));
+        assertFalse(jwtUtil.validateToken(token));
+    }
+
+    @Test
+    void tokenWithChangedClaimsIsRejected() {
+        String token = jwtUtil.generateToken(42L, "alice@example.com", "USER");
+        String[] parts = token.split("\\.");
+        String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8)
+                .replace("\"USER\"", "\"ADMIN\"");
+        String tampered = parts[0] + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + parts[2];
+
+        assertThrows(SignatureException.class, () -> jwtUtil.parseVerified(tampered));
+    }
+
+    @Test
+    void tokenSignedWithAnotherKeyIsRejected() {
+        String token = jwtUtil("anotherSecretKeyWhichIsAtLeast32CharactersLong", 3_600_000L)
+                .generateToken(42L, "alice@example.com", "ADMIN");
+
+        assertThrows(SignatureException.class, () -> jwtUtil.parseVerified(token));
+    }
+
+    @Test
+    void unsignedTokenIsRejected() {
+        String token = Jwts.builder()
+                .setClaims(Map.of("userId", "42", "role", "ADMIN"))
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .compact();
+
+        assertThrows(JwtException.class, () -> jwtUtil.parseVerified(token));
+    }
+
+    @Test
+    void tokenWithoutExpirationIsRejected() {
+        String token = Jwts.builder()
+                .setClaims(Map.of("userId", "42", "email", "alice@example.com", "role", "USER"))
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes()), SignatureAlgorithm.HS256)
+                .compact();
+
+        assertThrows(MalformedJwtException.class, () -> jwtUtil.parseVerified(token));
+    }
+}
@@ -0,0 +1,121 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RateLimitFilterTest {
+
+    private static final String BODY = "{\"email\":\"Alice@Example.com\",\"password\":\"x\"}";
+
+    private final RateLimitFilter filter = new RateLimitFilter(new TokenBucketRateLimiter(1000), new SimpleMeterRegistry(),
+            true, 100, 100, 2, 1, 100, 100, 5, 1, 100, 100, 3, 1);
+
+    private static MockHttpServletRequest login(String email) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/users/login");
+        request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setContent(("{\"email\":\"" + email + "\",\"password\":\"x\"}").getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    @Test
+    void forwardedBodyCanBeReadWithAReadListener() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/users/login");
+        request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+        AtomicReference<ServletRequest> forwarded = new AtomicReference<>();
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> forwarded.set(req));
+
+        ServletInputStream in = forwarded.get().getInputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        List<String> calls = new ArrayList<>();
+        in.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                calls.add("data");
+                byte[] buffer = new byte[8];
+                while (in.isReady() && !in.isFinished()) {
+                    int n = in.read(buffer);
+                    read.write(buffer, 0, n);
+                }
+            }
+
+            @Override
+            public void onAllDataRead() {
+                calls.add("done");
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                calls.add("error");
+            }
+        });
+
+        assertEquals(List.of("data", "done"), calls);
+        assertEquals(BODY, read.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void readListenerErrorIsReported() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/users/login");
+        request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+        AtomicReference<ServletRequest> forwarded = new AtomicReference<>();
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> forwarded.set(req));
+
+        List<String> calls = new ArrayList<>();
+        forwarded.get().getInputStream().setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public void onAllDataRead() {
+                calls.add("done");
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                calls.add("error:" + t.getMessage());
+            }
+        });
+
+        assertEquals(List.of("error:broken"), calls);
+    }
+
+    @Test
+    void rejectsAccountOverItsLimitWithRetryAfter() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(login("alice@example.com"), response, (req, res) -> { });
+            assertEquals(200, response.getStatus());
+        }
+
+        // Same account in another spelling, another account is not affected
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(login(" ALICE@example.com"), rejected, (req, res) -> { });
+        MockHttpServletResponse other = new MockHttpServletResponse();
+        filter.doFilter(login("bob@example.com"), other, (req, res) -> { });
+
+        assertEquals(429, rejected.getStatus());
+        assertEquals("60", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(200, other.getStatus());
+        assertNull(other.getHeader(HttpHeaders.RETRY_AFTER));
+    }
+}
@@ -0,0 +1,98 @@
+package ch.bbw.pr.tresorbackend.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRateLimiterTest {
+
+    private static final TokenBucketRateLimiter.Limit FIVE_PER_MINUTE = new TokenBucketRateLimiter.Limit(5, 5);
+
+    // Limiter on a clock the test moves forward
+    private static final class ManualClockLimiter extends TokenBucketRateLimiter {
+        private long now;
+
+        private ManualClockLimiter(int maxEntries) {
+            super(maxEntries);
+        }
+
+        @Override
+        long nowMillis() {
+            return now;
+        }
+    }
+
+    private final ManualClockLimiter limiter = new ManualClockLimiter(1000);
+
+    @Test
+    void allowsABurstUpToCapacityThenWaitsForOneRefill() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+        }
+        // 5 per minute is one token every 12 seconds
+        assertEquals(12_000, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+
+        limiter.now = 6_000;
+        assertEquals(6_000, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+
+        limiter.now = 12_000;
+        assertEquals(0, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+        assertEquals(12_000, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+    }
+
+    @Test
+    void refillStopsAtCapacity() {
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("k", FIVE_PER_MINUTE);
+        }
+
+        limiter.now = 3_600_000;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+        }
+        assertEquals(12_000, limiter.tryAcquire("k", FIVE_PER_MINUTE));
+    }
+
+    @Test
+    void frequentRejectedCallsDoNotLoseRefillTime() {
+        TokenBucketRateLimiter.Limit onePerMinute = new TokenBucketRateLimiter.Limit(1, 1);
+        assertEquals(0, limiter.tryAcquire("k", onePerMinute));
+
+        // Each call turns a fraction of a token into tokens; the rounding must not add up to a delay
+        for (long t = 10_000; t < 60_000; t += 10_000) {
+            limiter.now = t;
+            assertEquals(60_000 - t, limiter.tryAcquire("k", onePerMinute), 200);
+        }
+        limiter.now = 60_000;
+        assertEquals(0, limiter.tryAcquire("k", onePerMinute));
+    }
+
+    @Test
+    void keysHaveTheirOwnBuckets() {
+        TokenBucketRateLimiter.Limit onePerMinute = new TokenBucketRateLimiter.Limit(1, 1);
+
+        assertEquals(0, limiter.tryAcquire("login:ip:10.0.0.1", onePerMinute));
+        assertTrue(limiter.tryAcquire("login:ip:10.0.0.1", onePerMinute) > 0);
+        assertEquals(0, limiter.tryAcquire("login:ip:10.0.0.2", onePerMinute));
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    void trackedKeysStayBounded() {
+        ManualClockLimiter small = new ManualClockLimiter(64);
+        for (int i = 0; i < 10_000; i++) {
+            small.tryAcquire("login:ip:" + i, FIVE_PER_MINUTE);
+        }
+
+        assertTrue(small.size() <= 64);
+    }
+
+    @Test
+    void rejectsLimitsOutsideTheBucketEncoding() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter.Limit(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter.Limit(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter.Limit(20_000, 1));
+    }
+}
@@ -0,0 +1,167 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.model.UserDataKey;
+import ch.bbw.pr.tresorbackend.repository.KdfPolicyRepository;
+import ch.bbw.pr.tresorbackend.repository.UserDataKeyRepository;
+import ch.bbw.pr.tresorbackend.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DataKeyServiceTest {
+
+    private static final int WEAK_ITERATIONS = 1000;
+    private static final int POLICY_ITERATIONS = 2000;
+
+    // The user_data_key row; reads return detached copies and saves check the version like Hibernate
+    private final AtomicReference<UserDataKey> row = new AtomicReference<>();
+    private final User user = new User();
+    private KdfCalibrationService kdf;
+    private UserRepository userRepository;
+    private DataKeyService service;
+
+    @BeforeEach
+    void setUp() {
+        CryptoPrimitives cryptoPrimitives = new CryptoPrimitives();
+        kdf = new KdfCalibrationService(cryptoPrimitives, mock(KdfPolicyRepository.class), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(kdf, "calibrationEnabled", false);
+        ReflectionTestUtils.setField(kdf, "minIterations", WEAK_ITERATIONS);
+        kdf.calibrate();
+
+        UserDataKeyRepository userDataKeyRepository = mock(UserDataKeyRepository.class);
+        when(userDataKeyRepository.findByUserId(1L)).thenAnswer(invocation -> Optional.ofNullable(row.get()).map(DataKeyServiceTest::copy));
+        when(userDataKeyRepository.saveAndFlush(any(UserDataKey.class))).thenAnswer(invocation -> store(invocation.getArgument(0)));
+        when(userDataKeyRepository.save(any(UserDataKey.class))).thenAnswer(invocation -> store(invocation.getArgument(0)));
+
+        user.setId(1L);
+        user.setPassword("hash-old");
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findById(1L)).thenAnswer(invocation -> Optional.of(user));
+
+        service = new DataKeyService(userDataKeyRepository, userRepository,
+                new SecretKeyService(cryptoPrimitives, kdf),
+                new SecretKeyCache(100, 900, new SimpleMeterRegistry()),
+                cryptoPrimitives, kdf, mock(ExecutorService.class));
+    }
+
+    private synchronized UserDataKey store(UserDataKey saved) {
+        UserDataKey current = row.get();
+        if (current != null && current.getVersion() != saved.getVersion()) {
+            throw new OptimisticLockingFailureException("user_data_key was updated by another transaction");
+        }
+        UserDataKey stored = copy(saved);
+        stored.setVersion(current == null ? 0 : current.getVersion() + 1);
+        row.set(stored);
+        return copy(stored);
+    }
+
+    private static UserDataKey copy(UserDataKey key) {
+        return new UserDataKey(key.getId(), key.getUserId(), key.getWrappedKey(), key.getKekSalt(),
+                key.getKekIterations(), key.getVersion(), key.getCreatedAt());
+    }
+
+    private void raisePolicy() {
+        ReflectionTestUtils.setField(kdf, "iterations", POLICY_ITERATIONS);
+    }
+
+    @Test
+    void dataKeyIsCreatedOnceAndUnwrapsAgain() throws Exception {
+        SecretKey created = service.getDataKey(1L, "hash-old");
+
+        assertEquals(0, row.get().getVersion());
+        assertArrayEquals(created.getEncoded(), service.getDataKey(1L, "hash-old").getEncoded());
+    }
+
+    @Test
+    void wrongPasswordDoesNotUnwrapTheDataKey() throws Exception {
+        service.getDataKey(1L, "hash-old");
+
+        assertThrows(AEADBadTagException.class, () -> service.getDataKey(1L, "hash-wrong"));
+    }
+
+    @Test
+    void passwordChangeRewrapsTheSameDataKey() throws Exception {
+        SecretKey dataKey = service.getDataKey(1L, "hash-old");
+
+        service.changePassword(1L, "hash-old", "hash-new");
+
+        assertArrayEquals(dataKey.getEncoded(), service.getDataKey(1L, "hash-new").getEncoded());
+        assertThrows(AEADBadTagException.class, () -> service.getDataKey(1L, "hash-old"));
+    }
+
+    @Test
+    void passwordChangeWithAWrongPreviousPasswordKeepsTheKey() throws Exception {
+        SecretKey dataKey = service.getDataKey(1L, "hash-old");
+        UserDataKey before = row.get();
+
+        assertThrows(AEADBadTagException.class, () -> service.changePassword(1L, "hash-wrong", "hash-new"));
+
+        assertEquals(before, row.get());
+        assertArrayEquals(dataKey.getEncoded(), service.getDataKey(1L, "hash-old").getEncoded());
+    }
+
+    @Test
+    void rewrapStrengthensTheKekAndKeepsTheDataKey() throws Exception {
+        SecretKey dataKey = service.getDataKey(1L, "hash-old");
+        raisePolicy();
+
+        service.rewrap(1L, "hash-old");
+
+        assertEquals(POLICY_ITERATIONS, row.get().getKekIterations());
+        assertArrayEquals(dataKey.getEncoded(), service.getDataKey(1L, "hash-old").getEncoded());
+    }
+
+    @Test
+    void rewrapWithAnOutdatedPasswordIsSkipped() throws Exception {
+        SecretKey dataKey = service.getDataKey(1L, "hash-old");
+        service.changePassword(1L, "hash-old", "hash-new");
+        user.setPassword("hash-new");
+        raisePolicy();
+        UserDataKey before = row.get();
+
+        service.rewrap(1L, "hash-old");
+
+        assertEquals(before, row.get());
+        assertArrayEquals(dataKey.getEncoded(), service.getDataKey(1L, "hash-new").getEncoded());
+    }
+
+    @Test
+    void passwordChangeDuringRewrapWins() throws Exception {
+        SecretKey dataKey = service.getDataKey(1L, "hash-old");
+        raisePolicy();
+        // The password change commits right after rewrap has checked the hash, while it derives the new KEK
+        when(userRepository.findById(1L)).thenAnswer(invocation -> {
+            Optional<User> checked = Optional.of(copyOf(user));
+            service.changePassword(1L, "hash-old", "hash-new");
+            user.setPassword("hash-new");
+            return checked;
+        });
+
+        service.rewrap(1L, "hash-old");
+
+        assertArrayEquals(dataKey.getEncoded(), service.getDataKey(1L, "hash-new").getEncoded());
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setPassword(user.getPassword());
+        return copy;
+    }
+}
@@ -0,0 +1,141 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyStoreTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private IdempotencyStore store(long ttlSeconds, long waitMillis) {
+        return new IdempotencyStore(new CryptoPrimitives(), ttlSeconds, 100, waitMillis);
+    }
+
+    private Long create() {
+        return 100L + created.incrementAndGet();
+    }
+
+    @Test
+    void retryWithSameKeyAndBodyReplaysTheFirstResult() {
+        IdempotencyStore store = store(3600, 1000);
+
+        IdempotencyStore.Outcome first = store.execute(1L, "key-1", "1\nbody", this::create);
+        IdempotencyStore.Outcome retry = store.execute(1L, "key-1", "1\nbody", this::create);
+
+        assertFalse(first.replayed());
+        assertTrue(retry.replayed());
+        assertEquals(first.secretId(), retry.secretId());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void sameKeyWithDifferentBodyIsRejected() {
+        IdempotencyStore store = store(3600, 1000);
+        store.execute(1L, "key-1", "1\nbody", this::create);
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> store.execute(1L, "key-1", "1\nother body", this::create));
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void keysAreScopedPerUser() {
+        IdempotencyStore store = store(3600, 1000);
+
+        IdempotencyStore.Outcome own = store.execute(1L, "key-1", "body", this::create);
+        IdempotencyStore.Outcome other = store.execute(2L, "key-1", "body", this::create);
+
+        assertFalse(other.replayed());
+        assertEquals(2, created.get());
+        assertTrue(own.secretId() < other.secretId());
+    }
+
+    @Test
+    void failedRequestCanBeRetriedWithTheSameKey() {
+        IdempotencyStore store = store(3600, 1000);
+
+        assertThrows(IllegalStateException.class, () -> store.execute(1L, "key-1", "body", () -> {
+            throw new IllegalStateException("database down");
+        }));
+        IdempotencyStore.Outcome retry = store.execute(1L, "key-1", "body", this::create);
+
+        assertFalse(retry.replayed());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void expiredKeyRunsTheActionAgain() {
+        IdempotencyStore store = store(0, 1000);
+        store.execute(1L, "key-1", "body", this::create);
+
+        IdempotencyStore.Outcome again = store.execute(1L, "key-1", "body", this::create);
+
+        assertFalse(again.replayed());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    void duplicateWaitsForTheRunningRequest() throws Exception {
+        IdempotencyStore store = store(3600, 10000);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<IdempotencyStore.Outcome> first = executor.submit(() -> store.execute(1L, "key-1", "body", () -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return create();
+            }));
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            new Thread(release::countDown).start();
+            IdempotencyStore.Outcome duplicate = store.execute(1L, "key-1", "body", this::create);
+
+            assertTrue(duplicate.replayed());
+            assertEquals(first.get(10, TimeUnit.SECONDS).secretId(), duplicate.secretId());
+            assertEquals(1, created.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void duplicateGivesUpWhenTheFirstRequestRunsTooLong() throws Exception {
+        IdempotencyStore store = store(3600, 50);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> store.execute(1L, "key-1", "body", () -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return create();
+            }));
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+
+            assertThrows(IdempotencyKeyInProgressException.class, () -> store.execute(1L, "key-1", "body", this::create));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.KdfPolicy;
+import ch.bbw.pr.tresorbackend.repository.KdfPolicyRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KdfCalibrationServiceTest {
+
+    private KdfPolicyRepository repository;
+    private KdfCalibrationService service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(KdfPolicyRepository.class);
+        service = new KdfCalibrationService(new CryptoPrimitives(), repository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "minIterations", 65536);
+        ReflectionTestUtils.setField(service, "maxIterations", 2000000);
+        ReflectionTestUtils.setField(service, "raiseThresholdPercent", 25);
+        ReflectionTestUtils.setField(service, "weakTolerancePercent", 10);
+    }
+
+    private void stored(int iterations) {
+        when(repository.findById(KdfPolicy.ID))
+                .thenReturn(Optional.of(new KdfPolicy(KdfPolicy.ID, iterations, LocalDateTime.now())));
+    }
+
+    @Test
+    void firstCalibrationIsStored() {
+        when(repository.findById(KdfPolicy.ID)).thenReturn(Optional.empty());
+
+        assertEquals(300000, service.apply(300000));
+        verify(repository).save(argThat(p -> p.getIterations() == 300000));
+    }
+
+    @Test
+    void slightlyFasterRestartKeepsStoredPolicy() {
+        stored(300000);
+
+        assertEquals(300000, service.apply(301000));
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void slowerRestartNeverLowersPolicy() {
+        stored(300000);
+
+        assertEquals(300000, service.apply(150000));
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void meaningfullyFasterHardwareRaisesPolicy() {
+        stored(300000);
+
+        assertEquals(400000, service.apply(400000));
+        verify(repository).save(argThat(p -> p.getIterations() == 400000));
+    }
+
+    @Test
+    void weakOnlyBeyondTolerance() {
+        stored(300000);
+        ReflectionTestUtils.setField(service, "iterations", service.apply(301000));
+
+        assertFalse(service.isWeak(300000));
+        assertFalse(service.isWeak(271000));
+        assertTrue(service.isWeak(269000));
+    }
+}
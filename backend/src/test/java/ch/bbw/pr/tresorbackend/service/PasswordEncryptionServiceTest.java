@@ -0,0 +1,142 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordEncryptionServiceTest {
+
+    // One worker and one queue slot, like a small production pool
+    private final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.AbortPolicy());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private PasswordEncryptionService service(String policy, int bcryptCost, int argon2MemoryKib) {
+        PasswordEncryptionService service = new PasswordEncryptionService(pool, meterRegistry, policy,
+                bcryptCost, argon2MemoryKib, 1, 1);
+        ReflectionTestUtils.setField(service, "pepper", "pepper");
+        ReflectionTestUtils.setField(service, "retryAfterSeconds", 2L);
+        return service;
+    }
+
+    // Occupies the worker and the queue slot until the latch is released
+    private void saturate(CountDownLatch release) throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        pool.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        pool.execute(() -> { });
+    }
+
+    @Test
+    void saturatedPoolFailsVerificationFastWithRetryAfter() throws Exception {
+        PasswordEncryptionService service = service("bcrypt", 4, 1024);
+        String hash = service.hashPassword("secret");
+        CountDownLatch release = new CountDownLatch(1);
+        saturate(release);
+        try {
+            CompletableFuture<Boolean> verified = service.verifyPasswordAsync("secret", hash);
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> verified.get(1, TimeUnit.SECONDS));
+            PasswordHashingBusyException busy = assertInstanceOf(PasswordHashingBusyException.class, e.getCause());
+            assertEquals(2, busy.getRetryAfterSeconds());
+            assertEquals(1.0, meterRegistry.get("tresor.password.hash.rejected").counter().count());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void saturatedPoolFailsHashingFast() throws Exception {
+        PasswordEncryptionService service = service("bcrypt", 4, 1024);
+        CountDownLatch release = new CountDownLatch(1);
+        saturate(release);
+        try {
+            assertThrows(PasswordHashingBusyException.class, () -> service.hashPassword("secret"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void hashesOfEitherPolicyVerifyUnderTheOther() {
+        PasswordEncryptionService bcrypt = service("bcrypt", 4, 1024);
+        PasswordEncryptionService argon2 = service("argon2id", 4, 1024);
+        String bcryptHash = bcrypt.hashPassword("secret");
+        String argon2Hash = argon2.hashPassword("secret");
+
+        assertTrue(bcryptHash.startsWith("$2a$04$"));
+        assertTrue(argon2Hash.startsWith("$argon2id$"));
+        assertTrue(argon2.verifyPassword("secret", bcryptHash));
+        assertTrue(bcrypt.verifyPassword("secret", argon2Hash));
+        assertFalse(argon2.verifyPassword("wrong", bcryptHash));
+        assertFalse(bcrypt.verifyPassword("wrong", argon2Hash));
+    }
+
+    @Test
+    void hashOfTheOtherAlgorithmNeedsRehash() {
+        PasswordEncryptionService bcrypt = service("bcrypt", 4, 1024);
+        PasswordEncryptionService argon2 = service("argon2id", 4, 1024);
+
+        assertTrue(argon2.needsRehash(bcrypt.hashPassword("secret")));
+        assertTrue(bcrypt.needsRehash(argon2.hashPassword("secret")));
+    }
+
+    @Test
+    void weakerParametersNeedRehash() {
+        String bcryptCost4 = service("bcrypt", 4, 1024).hashPassword("secret");
+        String argon2Memory1024 = service("argon2id", 4, 1024).hashPassword("secret");
+
+        assertFalse(service("bcrypt", 4, 1024).needsRehash(bcryptCost4));
+        assertTrue(service("bcrypt", 5, 1024).needsRehash(bcryptCost4));
+        assertFalse(service("argon2id", 4, 1024).needsRehash(argon2Memory1024));
+        assertTrue(service("argon2id", 4, 2048).needsRehash(argon2Memory1024));
+    }
+
+    @Test
+    void hashOfUnknownFormatNeverVerifiesAndNeedsRehash() throws Exception {
+        PasswordEncryptionService service = service("bcrypt", 4, 1024);
+
+        assertFalse(service.verifyPassword("secret", "plain-text"));
+        assertFalse(service.verifyPasswordAsync("secret", "plain-text").get(10, TimeUnit.SECONDS));
+        assertTrue(service.needsRehash("plain-text"));
+    }
+
+    @Test
+    void unknownPolicyIsRejectedAtStartup() {
+        assertThrows(IllegalArgumentException.class, () -> service("scrypt", 4, 1024));
+    }
+
+    @Test
+    void unknownAccountIsVerifiedOnThePoolAndNeverMatches() throws Exception {
+        PasswordEncryptionService service = service("bcrypt", 4, 1024);
+
+        assertFalse(service.verifyUnknownAccountAsync("secret").get(10, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("tresor.password.hash.duration").tag("op", "verify").timer().count());
+    }
+}
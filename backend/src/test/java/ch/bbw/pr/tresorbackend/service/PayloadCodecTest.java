@@ -0,0 +1,99 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PayloadCodecTest {
+
+    private static final String NOTE = "{\"kind\":\"note\",\"title\":\"Eragon\",\"content\":\"Und Eragon ging auf den Drachen zu.\"}";
+
+    private static PayloadCodec codec(boolean smile, boolean deflate) {
+        return new PayloadCodec(smile, deflate, 256, 6, 1024 * 1024);
+    }
+
+    private static String roundTrip(PayloadCodec codec, String content) throws IOException {
+        PayloadCodec.Encoded encoded = codec.encode(content);
+        return codec.decode(encoded.codec(), encoded.bytes());
+    }
+
+    @Test
+    void smallContentStaysUtf8() throws IOException {
+        PayloadCodec.Encoded encoded = codec(false, true).encode(NOTE);
+
+        assertEquals(SecretEnvelope.CODEC_UTF8, encoded.codec());
+        assertEquals(NOTE, roundTrip(codec(false, true), NOTE));
+    }
+
+    @Test
+    void largeContentIsDeflated() throws IOException {
+        String large = NOTE.repeat(20);
+        PayloadCodec.Encoded encoded = codec(false, true).encode(large);
+
+        assertEquals(SecretEnvelope.CODEC_UTF8_DEFLATE, encoded.codec());
+        assertEquals(large, roundTrip(codec(false, true), large));
+    }
+
+    @Test
+    void deflateStartsAtThreshold() {
+        assertEquals(SecretEnvelope.CODEC_UTF8, codec(false, true).encode("a".repeat(255)).codec());
+        assertEquals(SecretEnvelope.CODEC_UTF8_DEFLATE, codec(false, true).encode("a".repeat(256)).codec());
+        assertEquals(SecretEnvelope.CODEC_UTF8, codec(false, false).encode("a".repeat(1000)).codec());
+    }
+
+    @Test
+    void smileIsUsedOnlyWhenLossless() throws IOException {
+        PayloadCodec codec = codec(true, false);
+
+        assertEquals(SecretEnvelope.CODEC_SMILE, codec.encode(NOTE).codec());
+        assertEquals(NOTE, roundTrip(codec, NOTE));
+
+        // Whitespace would be lost by re-serializing, so the text is kept as it is
+        String spaced = "{ \"kind\": \"note\" }";
+        assertEquals(SecretEnvelope.CODEC_UTF8, codec.encode(spaced).codec());
+        assertEquals(spaced, roundTrip(codec, spaced));
+    }
+
+    @Test
+    void smileAndDeflateRoundTrip() throws IOException {
+        String large = "[" + String.join(",", Collections.nCopies(20, NOTE)) + "]";
+        PayloadCodec.Encoded encoded = codec(true, true).encode(large);
+
+        assertEquals(SecretEnvelope.CODEC_SMILE_DEFLATE, encoded.codec());
+        assertEquals(large, roundTrip(codec(true, true), large));
+    }
+
+    @Test
+    void nonAsciiTextRoundTrips() throws IOException {
+        String text = "Grüezi 🗝️ ".repeat(40);
+
+        assertEquals(text, roundTrip(codec(true, true), text));
+    }
+
+    @Test
+    void truncatedDeflateIsRejected() {
+        PayloadCodec codec = codec(false, true);
+        PayloadCodec.Encoded encoded = codec.encode(NOTE.repeat(20));
+        byte[] truncated = Arrays.copyOf(encoded.bytes(), encoded.bytes().length / 2);
+
+        assertThrows(IOException.class, () -> codec.decode(encoded.codec(), truncated));
+    }
+
+    @Test
+    void decodedSizeIsLimited() {
+        PayloadCodec small = new PayloadCodec(false, true, 256, 6, 1000);
+        PayloadCodec.Encoded encoded = small.encode("a".repeat(5000));
+
+        assertThrows(IOException.class, () -> small.decode(encoded.codec(), encoded.bytes()));
+    }
+
+    @Test
+    void unknownCodecIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> codec(false, true).decode((byte) 9, new byte[0]));
+    }
+}
@@ -0,0 +1,181 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.ReencryptionJob;
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.KdfPolicyRepository;
+import ch.bbw.pr.tresorbackend.repository.ReencryptionJobRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReencryptionJobServiceTest {
+
+    private static final String GOOD = "{\"kind\":\"note\",\"title\":\"Saphira\"}";
+    private static final String FLAKY = "{\"kind\":\"note\",\"title\":\"Glaedr\"}";
+
+    private final AtomicReference<ReencryptionJob> jobRow = new AtomicReference<>();
+    private final AtomicBoolean metadataFails = new AtomicBoolean(true);
+    private SecretKeyService secretKeyService;
+    private SecretEncryptionService encryptionService;
+    private ReencryptionJobService service;
+    private SecretKey dataKey;
+    private Secret good;
+    private Secret flaky;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CryptoPrimitives cryptoPrimitives = new CryptoPrimitives();
+        KdfCalibrationService kdf = new KdfCalibrationService(cryptoPrimitives, mock(KdfPolicyRepository.class),
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(kdf, "calibrationEnabled", false);
+        ReflectionTestUtils.setField(kdf, "minIterations", 1000);
+        kdf.calibrate();
+        secretKeyService = new SecretKeyService(cryptoPrimitives, kdf);
+
+        // Job table with a single row, as the unique user_id constraint allows
+        ReencryptionJobRepository jobRepository = mock(ReencryptionJobRepository.class);
+        when(jobRepository.findByUserId(1L)).thenAnswer(invocation -> Optional.ofNullable(jobRow.get()));
+        when(jobRepository.findPreviousPasswordHash(1L))
+                .thenAnswer(invocation -> Optional.ofNullable(jobRow.get()).map(ReencryptionJob::getPreviousPasswordHash));
+        when(jobRepository.findAllUserIds()).thenAnswer(invocation -> jobRow.get() == null ? List.of() : List.of(1L));
+        when(jobRepository.save(any(ReencryptionJob.class))).thenAnswer(invocation -> {
+            jobRow.set(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        doAnswer(invocation -> {
+            jobRow.set(null);
+            return null;
+        }).when(jobRepository).delete(any(ReencryptionJob.class));
+
+        encryptionService = new SecretEncryptionService(secretKeyService,
+                new SecretKeyCache(100, 900, new SimpleMeterRegistry()),
+                cryptoPrimitives,
+                new PayloadCodec(false, true, 256, 6, 16 * 1024 * 1024),
+                jobRepository);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        dataKey = generator.generateKey();
+
+        // Two legacy rows written before the password change
+        good = new Secret(1L, 1L, null);
+        good.setLegacyContent(legacyContent(GOOD, "hash-old"));
+        flaky = new Secret(2L, 1L, null);
+        flaky.setLegacyContent(legacyContent(FLAKY, "hash-old"));
+        SecretRepository secretRepository = mock(SecretRepository.class);
+        when(secretRepository.findLegacyByUserAfter(anyLong(), anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(1);
+            Pageable pageable = invocation.getArgument(2);
+            return List.of(good, flaky).stream()
+                    .filter(secret -> secret.getPayload() == null && secret.getId() > afterId)
+                    .limit(pageable.getPageSize())
+                    .toList();
+        });
+        when(secretRepository.save(any(Secret.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash-new");
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash-new")).thenReturn(dataKey);
+
+        // Metadata of the second row fails until the flag is cleared
+        SecretSummaryService summaryService = mock(SecretSummaryService.class);
+        when(summaryService.encryptMetadata(anyString(), any())).thenAnswer(invocation -> {
+            if (FLAKY.equals(invocation.getArgument(0)) && metadataFails.get()) {
+                throw new IllegalStateException("metadata failure");
+            }
+            return new byte[1];
+        });
+
+        ExecutorService executor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        service = new ReencryptionJobService(jobRepository, secretRepository, userRepository, dataKeyService,
+                encryptionService, summaryService, mock(BlindIndexService.class), executor, transactionManager);
+        ReflectionTestUtils.setField(service, "batchSize", 1);
+
+        ReencryptionJob job = new ReencryptionJob();
+        job.setUserId(1L);
+        job.setPreviousPasswordHash("hash-old");
+        jobRow.set(job);
+    }
+
+    // Legacy text format: Base64(iv || ciphertext)###salt::iterations under a password-derived key
+    private String legacyContent(String content, String password) throws Exception {
+        SecretKeyService.KeyData keyData = secretKeyService.generateKey(password);
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CryptoPrimitives.AES_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, keyData.getKey(), new GCMParameterSpec(128, iv));
+        byte[] cipherText = cipher.doFinal(content.getBytes());
+        byte[] combined = ByteBuffer.allocate(iv.length + cipherText.length).put(iv).put(cipherText).array();
+        return Base64.getEncoder().encodeToString(combined) + "###" + keyData.formatForStorage();
+    }
+
+    @Test
+    void failedRowKeepsJobAndVaultStaysReadable() throws Exception {
+        service.resumeJobs();
+
+        assertNotNull(good.getPayload());
+        assertTrue(encryptionService.isLegacy(flaky));
+        ReencryptionJob job = jobRow.get();
+        assertNotNull(job, "job with the previous hash must survive a failed row");
+        assertEquals(0, job.getCursorId());
+        assertEquals(1, job.getMigrated());
+
+        // Both rows still decrypt with the new password hash
+        assertEquals(GOOD, encryptionService.decrypt(good, dataKey, 1L, "hash-new"));
+        assertEquals(FLAKY, encryptionService.decrypt(flaky, dataKey, 1L, "hash-new"));
+    }
+
+    @Test
+    void failedRowIsRetriedAndJobDeletedOnceNothingIsLeft() throws Exception {
+        service.resumeJobs();
+        metadataFails.set(false);
+
+        service.resumeJobs();
+
+        assertNull(jobRow.get());
+        assertFalse(encryptionService.isLegacy(flaky));
+        assertEquals(FLAKY, encryptionService.decrypt(flaky, dataKey, 1L, "hash-new"));
+    }
+}
@@ -0,0 +1,98 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchIndexBackfillServiceTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final SecretRepository secretRepository = mock(SecretRepository.class);
+    private final SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+    private final DataKeyService dataKeyService = mock(DataKeyService.class);
+    private final BlindIndexService blindIndexService = mock(BlindIndexService.class);
+    private SearchIndexBackfillService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+
+        service = new SearchIndexBackfillService(secretRepository, encryptionService, dataKeyService,
+                userService, blindIndexService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "batchSize", 10);
+    }
+
+    private static Secret secret(long id) {
+        Secret secret = new Secret();
+        secret.setId(id);
+        secret.setUserId(1L);
+        return secret;
+    }
+
+    @Test
+    void indexesUnindexedSecretsAndSkipsFailingRows() throws Exception {
+        Secret first = secret(1);
+        Secret broken = secret(2);
+        Secret third = secret(3);
+        when(secretRepository.findUnindexedAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(first, broken, third));
+        when(encryptionService.decrypt(first, KEY, 1L, "hash")).thenReturn("{\"title\":\"one\"}");
+        when(encryptionService.decrypt(broken, KEY, 1L, "hash")).thenThrow(new IllegalStateException("tag mismatch"));
+        when(encryptionService.decrypt(third, KEY, 1L, "hash")).thenReturn("{\"title\":\"three\"}");
+
+        assertEquals(2, service.backfill());
+
+        verify(blindIndexService).index(1L, 1L, KEY, "{\"title\":\"one\"}");
+        verify(blindIndexService).index(1L, 3L, KEY, "{\"title\":\"three\"}");
+        verify(blindIndexService, never()).index(eq(1L), eq(2L), any(), any());
+        // One unwrap for all rows of the user in the batch
+        verify(dataKeyService, times(1)).getDataKey(1L, "hash");
+    }
+
+    @Test
+    void continuesAfterCursorAndRestartsWhenPassIsComplete() throws Exception {
+        when(secretRepository.findUnindexedAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(secret(5)));
+        when(secretRepository.findUnindexedAfter(eq(5L), any(Pageable.class))).thenReturn(List.of());
+        when(encryptionService.decrypt(any(), any(), anyLong(), any())).thenReturn("{}");
+
+        assertEquals(1, service.backfill());
+        assertEquals(0, service.backfill());
+        service.backfill();
+
+        verify(secretRepository, times(2)).findUnindexedAfter(eq(0L), any(Pageable.class));
+        verify(secretRepository, times(1)).findUnindexedAfter(eq(5L), any(Pageable.class));
+    }
+
+    @Test
+    void disabledDoesNothing() {
+        ReflectionTestUtils.setField(service, "enabled", false);
+
+        assertEquals(0, service.backfill());
+
+        verify(secretRepository, never()).findUnindexedAfter(anyLong(), any(Pageable.class));
+    }
+}
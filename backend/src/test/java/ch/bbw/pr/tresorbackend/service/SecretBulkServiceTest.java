@@ -0,0 +1,142 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretBatchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretBulkServiceTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final SecretBatchRepository secretBatchRepository = mock(SecretBatchRepository.class);
+    private final SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+    private final VaultChangeFeed changeFeed = mock(VaultChangeFeed.class);
+    private SecretBulkService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+        BlindIndexService blindIndexService = mock(BlindIndexService.class);
+        when(blindIndexService.indexKey(any())).thenReturn(KEY);
+        when(blindIndexService.tokensFor(any(), anyString())).thenReturn(List.of());
+        SecretSummaryService summaryService = mock(SecretSummaryService.class);
+        when(summaryService.encryptMetadata(anyString(), any())).thenReturn(new byte[1]);
+        VaultVersionService vaultVersionService = mock(VaultVersionService.class);
+        when(vaultVersionService.bump(anyLong())).thenReturn(1L);
+
+        when(encryptionService.encrypt(anyString(), any())).thenReturn(new byte[1]);
+        when(encryptionService.encrypt(eq("bad"), any())).thenThrow(new IllegalStateException("cipher failure"));
+        AtomicLong nextId = new AtomicLong(100);
+        when(secretBatchRepository.insertAll(anyList())).thenAnswer(invocation -> {
+            List<Secret> secrets = invocation.getArgument(0);
+            return LongStream.range(0, secrets.size()).mapToObj(i -> nextId.getAndIncrement()).toList();
+        });
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        // Real pipeline, so the chunk is encrypted in parallel slices as in production
+        SecretDecryptionPipeline pipeline = new SecretDecryptionPipeline(Executors.newFixedThreadPool(2), 4, 2);
+        service = new SecretBulkService(secretBatchRepository, encryptionService, dataKeyService, pipeline,
+                userService, blindIndexService, summaryService, vaultVersionService, changeFeed, transactionManager,
+                new ObjectMapper());
+        ReflectionTestUtils.setField(service, "batchSize", 10);
+        ReflectionTestUtils.setField(service, "maxItems", 1000);
+    }
+
+    private static String items(List<String> contents) {
+        return contents.stream().map(c -> "{\"content\":\"" + c + "\"}").collect(Collectors.joining(",", "[", "]"));
+    }
+
+    @Test
+    void failingItemDoesNotAbortItsChunk() throws Exception {
+        List<String> contents = IntStream.range(0, 25).mapToObj(i -> i == 13 ? "bad" : "item-" + i).toList();
+
+        SecretBulkService.ImportResult result = service.importSecrets(1L,
+                new ByteArrayInputStream(items(contents).getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(24, result.imported());
+        assertEquals(1, result.failed());
+        assertEquals(25, result.results().size());
+        for (SecretBulkService.ItemResult item : result.results()) {
+            if (item.index() == 13) {
+                assertNull(item.id());
+                assertEquals("could not be encrypted", item.error());
+            } else {
+                assertNotNull(item.id());
+                assertNull(item.error());
+            }
+        }
+        // Three chunks of 10, the one with the bad item still stores its other 9
+        verify(secretBatchRepository, times(3)).insertAll(anyList());
+        // Every stored item is announced to open change feeds, the failed one is not
+        verify(changeFeed, times(24)).publish(eq(1L), anyLong(), eq(VaultChangeFeed.Op.CREATED), eq(1L));
+    }
+
+    @Test
+    void missingContentIsReportedPerItem() throws Exception {
+        String body = "[{\"content\":\"a\"},{\"other\":1},{\"content\":\"c\"}]";
+
+        SecretBulkService.ImportResult result = service.importSecrets(1L,
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, result.imported());
+        assertEquals("content is required", result.results().get(1).error());
+    }
+
+    @Test
+    void exportListsStreamedFilesAsSkipped() throws Exception {
+        Secret note = new Secret(1L, 1L, null);
+        note.setPayload(SecretEnvelope.allocate(SecretEnvelope.CODEC_UTF8, new byte[SecretEnvelope.IV_LENGTH], 16).array());
+        Secret file = new Secret(2L, 1L, null);
+        file.setPayload(SecretEnvelope.streamDescriptor(SecretEnvelope.CODEC_RAW, new byte[SecretEnvelope.STREAM_NONCE_PREFIX_LENGTH],
+                1024, 3, 3000));
+        when(secretBatchRepository.findPage(1L, 0L, 10)).thenReturn(List.of(note, file));
+        when(encryptionService.decrypt(eq(note), eq(KEY), eq(1L), eq("hash"))).thenReturn("{\"kind\":\"note\"}");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.exportSecrets(service.openExport(1L), out);
+
+        assertEquals("[{\"id\":1,\"content\":{\"kind\":\"note\"}},{\"id\":2,\"skipped\":\"streamed\"}]",
+                out.toString(StandardCharsets.UTF_8));
+        verify(encryptionService, never()).decrypt(eq(file), any(), anyLong(), anyString());
+    }
+}
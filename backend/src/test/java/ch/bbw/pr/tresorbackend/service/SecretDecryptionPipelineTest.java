@@ -0,0 +1,73 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class SecretDecryptionPipelineTest {
+
+    private static final List<Integer> ITEMS = IntStream.range(0, 100).boxed().toList();
+
+    private static ThreadPoolExecutor pool(int queueCapacity) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Test
+    void keepsOrderAcrossSlices() {
+        ExecutorService executor = pool(100);
+        SecretDecryptionPipeline pipeline = new SecretDecryptionPipeline(executor, 4, 8);
+
+        List<Integer> results = pipeline.decryptAll(ITEMS, i -> i * 2);
+
+        assertEquals(ITEMS.stream().map(i -> i * 2).toList(), results);
+        executor.shutdown();
+    }
+
+    @Test
+    void runsInlineWhenExecutorIsShutDown() {
+        ExecutorService executor = pool(100);
+        executor.shutdown();
+        SecretDecryptionPipeline pipeline = new SecretDecryptionPipeline(executor, 4, 8);
+
+        List<Integer> results = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> pipeline.decryptAll(ITEMS, i -> i + 1));
+
+        assertEquals(ITEMS.stream().map(i -> i + 1).toList(), results);
+    }
+
+    @Test
+    void runsInlineWhenQueueIsFull() {
+        ExecutorService executor = pool(1);
+        SecretDecryptionPipeline pipeline = new SecretDecryptionPipeline(executor, 4, 8);
+
+        List<Integer> results = pipeline.decryptAll(ITEMS, i -> i);
+
+        assertEquals(ITEMS, results);
+        executor.shutdown();
+    }
+
+    @Test
+    void rethrowsFirstFailure() {
+        ExecutorService executor = pool(100);
+        SecretDecryptionPipeline pipeline = new SecretDecryptionPipeline(executor, 4, 8);
+
+        assertThrows(IllegalStateException.class, () -> pipeline.decryptAll(ITEMS, i -> {
+            if (i == 42) {
+                throw new IllegalStateException("bad item");
+            }
+            return i;
+        }));
+        executor.shutdown();
+    }
+}
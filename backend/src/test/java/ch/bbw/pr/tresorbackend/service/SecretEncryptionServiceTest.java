@@ -0,0 +1,140 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.repository.KdfPolicyRepository;
+import ch.bbw.pr.tresorbackend.repository.ReencryptionJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SecretEncryptionServiceTest {
+
+    private static final String CONTENT = "{\"kind\":\"note\",\"title\":\"Eragon\",\"content\":\"Und Eragon ging auf den Drachen zu.\"}";
+
+    private SecretKeyService secretKeyService;
+    private ReencryptionJobRepository reencryptionJobRepository;
+    private SecretEncryptionService service;
+    private SecretKey dataKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CryptoPrimitives cryptoPrimitives = new CryptoPrimitives();
+        KdfCalibrationService kdf = new KdfCalibrationService(cryptoPrimitives, mock(KdfPolicyRepository.class),
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(kdf, "calibrationEnabled", false);
+        ReflectionTestUtils.setField(kdf, "minIterations", 1000);
+        kdf.calibrate();
+        secretKeyService = new SecretKeyService(cryptoPrimitives, kdf);
+        reencryptionJobRepository = mock(ReencryptionJobRepository.class);
+        when(reencryptionJobRepository.findPreviousPasswordHash(anyLong())).thenReturn(Optional.empty());
+        service = new SecretEncryptionService(secretKeyService,
+                new SecretKeyCache(100, 900, new SimpleMeterRegistry()),
+                cryptoPrimitives,
+                new PayloadCodec(false, true, 256, 6, 16 * 1024 * 1024),
+                reencryptionJobRepository);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        dataKey = generator.generateKey();
+    }
+
+    private Secret envelopeSecret(byte[] payload) {
+        Secret secret = new Secret(1L, 1L, null);
+        secret.setPayload(payload);
+        return secret;
+    }
+
+    // Legacy text format: Base64(iv || ciphertext)###salt::iterations under a password-derived key
+    private String legacyContent(String content, String password) throws Exception {
+        SecretKeyService.KeyData keyData = secretKeyService.generateKey(password);
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CryptoPrimitives.AES_GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, keyData.getKey(), new GCMParameterSpec(128, iv));
+        byte[] cipherText = cipher.doFinal(content.getBytes());
+        byte[] combined = ByteBuffer.allocate(iv.length + cipherText.length).put(iv).put(cipherText).array();
+        return Base64.getEncoder().encodeToString(combined) + "###" + keyData.formatForStorage();
+    }
+
+    @Test
+    void envelopeRoundTrip() throws Exception {
+        byte[] payload = service.encrypt(CONTENT, dataKey);
+
+        assertEquals(SecretEnvelope.VERSION_1, payload[0]);
+        assertEquals(CONTENT, service.decrypt(envelopeSecret(payload), dataKey, 1L, "pw"));
+    }
+
+    @Test
+    void largeContentIsDeflatedAndRoundTrips() throws Exception {
+        String large = CONTENT.repeat(50);
+
+        byte[] payload = service.encrypt(large, dataKey);
+
+        assertEquals(SecretEnvelope.CODEC_UTF8_DEFLATE, SecretEnvelope.parse(payload).codec());
+        assertTrue(payload.length < large.length());
+        assertEquals(large, service.decrypt(envelopeSecret(payload), dataKey, 1L, "pw"));
+    }
+
+    @Test
+    void tamperedHeaderFailsDecryption() throws Exception {
+        byte[] payload = service.encrypt(CONTENT.repeat(50), dataKey);
+        payload[2] = SecretEnvelope.CODEC_UTF8;
+
+        assertThrows(AEADBadTagException.class, () -> service.decrypt(envelopeSecret(payload), dataKey, 1L, "pw"));
+    }
+
+    @Test
+    void wrongDataKeyFailsDecryption() throws Exception {
+        byte[] payload = service.encrypt(CONTENT, dataKey);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+
+        assertThrows(AEADBadTagException.class,
+                () -> service.decrypt(envelopeSecret(payload), generator.generateKey(), 1L, "pw"));
+    }
+
+    @Test
+    void legacyRowIsReadableWithPassword() throws Exception {
+        Secret secret = new Secret(1L, 1L, null);
+        secret.setLegacyContent(legacyContent(CONTENT, "hash-1"));
+
+        assertTrue(service.isLegacy(secret));
+        assertEquals(CONTENT, service.decrypt(secret, dataKey, 1L, "hash-1"));
+    }
+
+    @Test
+    void legacyRowFallsBackToPreviousPasswordWhileJobIsPending() throws Exception {
+        Secret secret = new Secret(1L, 1L, null);
+        secret.setLegacyContent(legacyContent(CONTENT, "hash-old"));
+        when(reencryptionJobRepository.findPreviousPasswordHash(1L)).thenReturn(Optional.of("hash-old"));
+
+        assertEquals(CONTENT, service.decrypt(secret, dataKey, 1L, "hash-new"));
+    }
+
+    @Test
+    void legacyRowWithoutJobFailsAfterPasswordChange() throws Exception {
+        Secret secret = new Secret(1L, 1L, null);
+        secret.setLegacyContent(legacyContent(CONTENT, "hash-old"));
+
+        assertThrows(AEADBadTagException.class, () -> service.decrypt(secret, dataKey, 1L, "hash-new"));
+        assertFalse(service.isLegacy(envelopeSecret(service.encrypt(CONTENT, dataKey))));
+    }
+}
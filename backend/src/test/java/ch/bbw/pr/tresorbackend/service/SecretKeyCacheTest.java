@@ -0,0 +1,85 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SecretKeyCacheTest {
+
+    private static SecretKey key(int fill) {
+        byte[] bytes = new byte[32];
+        Arrays.fill(bytes, (byte) fill);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @Test
+    void returnsCachedKeyForSameMaterial() {
+        SecretKeyCache cache = new SecretKeyCache(10, 900, new SimpleMeterRegistry());
+        cache.put(1L, "pw", "salt", 1000, key(7));
+
+        SecretKey cached = cache.get(1L, "pw", "salt", 1000);
+
+        assertNotNull(cached);
+        assertArrayEquals(key(7).getEncoded(), cached.getEncoded());
+        assertEquals(1, cache.getHits());
+        assertNull(cache.get(1L, "pw", "salt", 2000));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void changedPasswordInvalidatesAllKeysOfUser() {
+        SecretKeyCache cache = new SecretKeyCache(10, 900, new SimpleMeterRegistry());
+        cache.put(1L, "old", "saltA", 1000, key(1));
+        cache.put(1L, "old", "saltB", 1000, key(2));
+        cache.put(2L, "other", "saltA", 1000, key(3));
+
+        assertNull(cache.get(1L, "new", "saltA", 1000));
+
+        assertNull(cache.get(1L, "old", "saltB", 1000));
+        assertNotNull(cache.get(2L, "other", "saltA", 1000));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        SecretKeyCache cache = new SecretKeyCache(2, 900, new SimpleMeterRegistry());
+        cache.put(1L, "pw", "s", 1000, key(1));
+        cache.put(2L, "pw", "s", 1000, key(2));
+        cache.get(1L, "pw", "s", 1000);
+        cache.put(3L, "pw", "s", 1000, key(3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1L, "pw", "s", 1000));
+        assertNull(cache.get(2L, "pw", "s", 1000));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() {
+        SecretKeyCache cache = new SecretKeyCache(10, 0, new SimpleMeterRegistry());
+        cache.put(1L, "pw", "s", 1000, key(1));
+
+        assertNull(cache.get(1L, "pw", "s", 1000));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidateUserDropsOnlyThatUser() {
+        SecretKeyCache cache = new SecretKeyCache(10, 900, new SimpleMeterRegistry());
+        cache.put(1L, "pw", "s", 1000, key(1));
+        cache.put(2L, "pw", "s", 1000, key(2));
+
+        cache.invalidateUser(1L);
+
+        assertNull(cache.get(1L, "pw", "s", 1000));
+        assertNotNull(cache.get(2L, "pw", "s", 1000));
+    }
+}
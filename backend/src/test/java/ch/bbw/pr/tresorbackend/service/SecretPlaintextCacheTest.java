@@ -0,0 +1,76 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SecretPlaintextCacheTest {
+
+    private static SecretPlaintextCache cache(boolean enabled, long maxBytes) {
+        return new SecretPlaintextCache(enabled, maxBytes, 60, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void ownerGetsTheCachedContent() {
+        SecretPlaintextCache cache = cache(true, 1024);
+        cache.put(1L, 5L, 3, "secret");
+
+        assertEquals("secret", cache.get(1L, 5L, 3));
+    }
+
+    @Test
+    void nonOwnerNeverGetsTheCachedContent() {
+        SecretPlaintextCache cache = cache(true, 1024);
+        cache.put(1L, 5L, 3, "secret");
+
+        assertNull(cache.get(2L, 5L, 3));
+        // The entry stays for its owner
+        assertEquals("secret", cache.get(1L, 5L, 3));
+    }
+
+    @Test
+    void otherRevisionDropsTheEntry() {
+        SecretPlaintextCache cache = cache(true, 1024);
+        cache.put(1L, 5L, 3, "secret");
+
+        assertNull(cache.get(1L, 5L, 4));
+        assertNull(cache.get(1L, 5L, 3));
+        assertEquals(0, cache.bytesInUse());
+    }
+
+    @Test
+    void invalidatedUserLosesAllEntries() {
+        SecretPlaintextCache cache = cache(true, 1024);
+        cache.put(1L, 5L, 3, "secret");
+        cache.put(2L, 6L, 1, "other");
+
+        cache.invalidateUser(1L);
+
+        assertNull(cache.get(1L, 5L, 3));
+        assertEquals("other", cache.get(2L, 6L, 1));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedOverTheByteLimit() {
+        SecretPlaintextCache cache = cache(true, 10);
+        cache.put(1L, 5L, 1, "aaaa");
+        cache.put(1L, 6L, 1, "bbbb");
+        cache.get(1L, 5L, 1);
+
+        cache.put(1L, 7L, 1, "cccc");
+
+        assertEquals("aaaa", cache.get(1L, 5L, 1));
+        assertNull(cache.get(1L, 6L, 1));
+        assertEquals(8, cache.bytesInUse());
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        SecretPlaintextCache cache = cache(false, 1024);
+        cache.put(1L, 5L, 3, "secret");
+
+        assertNull(cache.get(1L, 5L, 3));
+    }
+}
@@ -0,0 +1,156 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import javax.crypto.KeyGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SecretStreamServiceTest {
+
+    private static final int CHUNK_SIZE = 16;
+    private static final byte[] CONTENT = "Three chunks of secret text, the last one short"
+            .getBytes(StandardCharsets.UTF_8);
+
+    // secret_chunk rows by seq and the single secret row
+    private final Map<Integer, byte[]> chunks = new HashMap<>();
+    private final AtomicReference<Secret> row = new AtomicReference<>();
+    private SecretStreamService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SecretRepository secretRepository = mock(SecretRepository.class);
+        when(secretRepository.save(any(Secret.class))).thenAnswer(invocation -> {
+            Secret secret = invocation.getArgument(0);
+            secret.setId(1L);
+            row.set(secret);
+            return secret;
+        });
+        when(secretRepository.findById(1L)).thenAnswer(invocation -> Optional.ofNullable(row.get()));
+
+        SecretChunkRepository chunkRepository = mock(SecretChunkRepository.class);
+        doAnswer(invocation -> chunks.put(invocation.getArgument(1), invocation.getArgument(2)))
+                .when(chunkRepository).insertChunk(anyLong(), anyInt(), any(byte[].class));
+        doAnswer(invocation -> {
+            chunks.clear();
+            return null;
+        }).when(chunkRepository).deleteBySecretId(anyLong());
+        when(chunkRepository.findData(anyLong(), anyInt())).thenAnswer(invocation -> chunks.get(invocation.<Integer>getArgument(1)));
+
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(generator.generateKey());
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        service = new SecretStreamService(secretRepository, chunkRepository, dataKeyService, userService,
+                new CryptoPrimitives(), mock(VaultVersionService.class), mock(VaultChangeFeed.class), transactionManager);
+        ReflectionTestUtils.setField(service, "chunkSize", CHUNK_SIZE);
+        ReflectionTestUtils.setField(service, "maxBytes", 1024L);
+    }
+
+    private byte[] download() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.write(service.openDownload(1L), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void uploadIsStoredInChunksAndDownloadsUnchanged() throws Exception {
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+
+        assertEquals(3, chunks.size());
+        assertArrayEquals(CONTENT, download());
+    }
+
+    @Test
+    void contentOfAWholeNumberOfChunksHasNoEmptyTrailingChunk() throws Exception {
+        byte[] content = new byte[2 * CHUNK_SIZE];
+
+        service.upload(1L, new ByteArrayInputStream(content));
+
+        assertEquals(2, chunks.size());
+        assertArrayEquals(content, download());
+    }
+
+    @Test
+    void reorderedChunksAreRejected() throws Exception {
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+        byte[] first = chunks.get(0);
+        chunks.put(0, chunks.get(1));
+        chunks.put(1, first);
+
+        assertThrows(IOException.class, this::download);
+    }
+
+    @Test
+    void missingLastChunkIsRejected() throws Exception {
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+        chunks.remove(2);
+
+        assertThrows(IOException.class, this::download);
+    }
+
+    @Test
+    void streamTruncatedBeforeTheLastChunkIsRejected() throws Exception {
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+        // The descriptor claims two chunks, so the second one is opened as the last one
+        SecretEnvelope descriptor = SecretEnvelope.parse(row.get().getPayload());
+        row.get().setPayload(SecretEnvelope.streamDescriptor(descriptor.codec(), descriptor.streamNoncePrefix(),
+                CHUNK_SIZE, 2, 2 * CHUNK_SIZE));
+        chunks.remove(2);
+
+        assertThrows(IOException.class, this::download);
+    }
+
+    @Test
+    void chunkOfAnotherUploadIsRejected() throws Exception {
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+        Map<Integer, byte[]> original = new HashMap<>(chunks);
+        row.set(null);
+        service.upload(1L, new ByteArrayInputStream(CONTENT));
+        chunks.put(1, original.get(1));
+
+        assertThrows(IOException.class, this::download);
+    }
+
+    @Test
+    void tooLargeUploadIsRemovedAgain() {
+        ReflectionTestUtils.setField(service, "maxBytes", 20L);
+
+        assertThrows(IllegalArgumentException.class, () -> service.upload(1L, new ByteArrayInputStream(CONTENT)));
+        assertTrue(chunks.isEmpty());
+    }
+}
@@ -0,0 +1,183 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VaultChangeFeedTest {
+
+    private static final int QUEUE_CAPACITY = 4;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private VaultChangeFeed feed;
+
+    @AfterEach
+    void tearDown() {
+        if (feed != null) {
+            feed.shutdown();
+        }
+    }
+
+    private VaultChangeFeed feed(long writeTimeoutMillis, int maxConnections) {
+        feed = new VaultChangeFeed(60000, writeTimeoutMillis, QUEUE_CAPACITY, maxConnections, 2, meterRegistry);
+        return feed;
+    }
+
+    private double connections() {
+        return meterRegistry.get("tresor.vault.events.connections").gauge().value();
+    }
+
+    // Output stream of a client whose socket can be switched between writable and full
+    private static final class ClientOutput extends ServletOutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private volatile boolean ready = true;
+        private volatile WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (!ready) {
+                throw new IllegalStateException("write while not ready");
+            }
+            written.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (!ready) {
+                throw new IllegalStateException("write while not ready");
+            }
+            written.write(b, off, len);
+        }
+
+        private synchronized String text() {
+            return written.toString(StandardCharsets.UTF_8);
+        }
+
+        private void awaitText(String expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!text().contains(expected)) {
+                if (System.nanoTime() > deadline) {
+                    fail("expected " + expected + " in " + text());
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private record Connection(ClientOutput out, AsyncContext async, AsyncListener listener) {
+    }
+
+    private Connection subscribe(Long userId) throws Exception {
+        ClientOutput out = new ClientOutput();
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        AsyncContext async = mock(AsyncContext.class);
+        when(request.startAsync()).thenReturn(async);
+        when(async.getResponse()).thenReturn(response);
+        when(response.getOutputStream()).thenReturn(out);
+
+        feed.subscribe(userId, request, response);
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(async).addListener(listener.capture());
+        verify(response).setContentType("text/event-stream");
+        return new Connection(out, async, listener.getValue());
+    }
+
+    @Test
+    void writesEventsOnceTheContainerReportsTheStreamWritable() throws Exception {
+        feed(10000, 8);
+        Connection connection = subscribe(1L);
+        // Nothing is written from the request thread
+        assertEquals("", connection.out().text());
+
+        connection.out().listener.onWritePossible();
+        feed.publish(1L, 5L, VaultChangeFeed.Op.CREATED, 3);
+
+        connection.out().awaitText("id:3\nevent:change\ndata:{\"secretId\":5,\"op\":\"created\",\"version\":3}\n\n");
+        assertTrue(connection.out().text().startsWith(":connected\n\n"));
+    }
+
+    @Test
+    void slowClientDoesNotBlockPublishingAndGetsResync() throws Exception {
+        feed(10000, 8);
+        Connection connection = subscribe(1L);
+        connection.out().listener.onWritePossible();
+        connection.out().awaitText(":connected");
+        connection.out().ready = false;
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= QUEUE_CAPACITY * 3; i++) {
+            feed.publish(1L, (long) i, VaultChangeFeed.Op.UPDATED, i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        connection.out().ready = true;
+        connection.out().listener.onWritePossible();
+
+        connection.out().awaitText("event:resync\ndata:{}\n\n");
+        assertFalse(connection.out().text().contains("event:change"));
+    }
+
+    @Test
+    void stalledConnectionIsClosedByHeartbeat() throws Exception {
+        feed(0, 8);
+        Connection connection = subscribe(1L);
+        connection.out().ready = false;
+        // The container reports the stream writable, but the socket is already full again
+        connection.out().listener.onWritePossible();
+        Thread.sleep(2);
+
+        feed.heartbeat();
+
+        verify(connection.async()).complete();
+        assertEquals(0, connections());
+        assertEquals(1, meterRegistry.get("tresor.vault.events.stalled").counter().count());
+    }
+
+    @Test
+    void limitsConnectionsPerUserUntilOneCompletes() throws Exception {
+        feed(10000, 1);
+        Connection first = subscribe(1L);
+
+        assertThrows(IllegalStateException.class, () -> subscribe(1L));
+        subscribe(2L);
+        assertEquals(2, connections());
+
+        first.listener().onComplete(new AsyncEvent(first.async()));
+        subscribe(1L);
+        assertEquals(2, connections());
+    }
+}
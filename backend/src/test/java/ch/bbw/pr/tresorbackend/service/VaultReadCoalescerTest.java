@@ -0,0 +1,189 @@
+package ch.bbw.pr.tresorbackend.service;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.repository.VaultVersionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VaultReadCoalescerTest {
+
+    private static final int READERS = 16;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VaultReadCoalescer coalescer = new VaultReadCoalescer(meterRegistry);
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(READERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("tresor.vault.reads").tag("result", result).counter().count();
+    }
+
+    private void awaitCount(String result, double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count(result) < expected) {
+            if (System.nanoTime() > deadline) {
+                fail("expected " + expected + " " + result + " reads, got " + count(result));
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    // Loader that blocks until released and counts its calls
+    private static Supplier<List<Secret>> blockingLoader(AtomicInteger calls, CountDownLatch release, String content) {
+        return () -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return List.of(new Secret(1L, 7L, content));
+        };
+    }
+
+    @Test
+    void concurrentReadersShareOneLoad() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<List<Secret>> loader = blockingLoader(calls, release, "v1");
+
+        List<Future<List<Secret>>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            results.add(executor.submit(() -> coalescer.read(7L, 1L, loader)));
+        }
+        awaitCount("coalesced", READERS - 1);
+        release.countDown();
+
+        List<Secret> first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<List<Secret>> result : results) {
+            List<Secret> secrets = result.get(10, TimeUnit.SECONDS);
+            assertEquals("v1", secrets.get(0).getContent());
+            if (secrets != first) {
+                // Every caller gets its own copy
+                assertNotSame(first.get(0), secrets.get(0));
+            }
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, count("loaded"));
+    }
+
+    @Test
+    void readerOfANewerVersionDoesNotJoinAnOlderFlight() throws Exception {
+        AtomicLong committedVersion = new AtomicLong(1);
+        VaultVersionRepository vaultVersionRepository = mock(VaultVersionRepository.class);
+        when(vaultVersionRepository.findVersion(7L)).thenAnswer(invocation -> Optional.of(committedVersion.get()));
+        doAnswer(invocation -> committedVersion.incrementAndGet()).when(vaultVersionRepository).increment(7L);
+        VaultVersionService vaultVersionService = new VaultVersionService(vaultVersionRepository);
+
+        // A reader saw version 1 and is still decrypting the vault as it was before the write
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch releaseOld = new CountDownLatch(1);
+        long seenBefore = vaultVersionService.currentVersion(7L);
+        Future<List<Secret>> before = executor.submit(
+                () -> coalescer.read(7L, seenBefore, blockingLoader(calls, releaseOld, "old")));
+        awaitCount("loaded", 1);
+
+        // A write bumps the version and commits, nothing else runs after the commit
+        vaultVersionService.bump(7L);
+
+        // A request after the commit sends ETag "v2" and must get the vault as of version 2
+        long seenAfter = vaultVersionService.currentVersion(7L);
+        List<Secret> after = coalescer.read(7L, seenAfter, () -> {
+            calls.incrementAndGet();
+            return List.of(new Secret(1L, 7L, "new"));
+        });
+        // A request that read version 1 before the commit may still share the older load
+        Future<List<Secret>> late = executor.submit(
+                () -> coalescer.read(7L, seenBefore, blockingLoader(calls, releaseOld, "unused")));
+        awaitCount("coalesced", 1);
+        releaseOld.countDown();
+
+        assertEquals(2, seenAfter);
+        assertEquals("new", after.get(0).getContent());
+        assertEquals("old", before.get(10, TimeUnit.SECONDS).get(0).getContent());
+        assertEquals("old", late.get(10, TimeUnit.SECONDS).get(0).getContent());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void readsOfOtherUsersDoNotShareAFlight() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Future<List<Secret>> first = executor.submit(() -> coalescer.read(7L, 1L, blockingLoader(calls, release, "v1")));
+        awaitCount("loaded", 1);
+
+        List<Secret> other = coalescer.read(8L, 1L, () -> {
+            calls.incrementAndGet();
+            return List.of(new Secret(2L, 8L, "other"));
+        });
+        release.countDown();
+
+        assertEquals("other", other.get(0).getContent());
+        assertEquals("v1", first.get(10, TimeUnit.SECONDS).get(0).getContent());
+        assertEquals(2, calls.get());
+        assertEquals(0, count("coalesced"));
+    }
+
+    @Test
+    void failureReachesWaitingReadersAndNextReadLoadsAgain() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("decryption failed");
+        Supplier<List<Secret>> failing = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw failure;
+        };
+        Future<List<Secret>> leader = executor.submit(() -> coalescer.read(7L, 1L, failing));
+        awaitCount("loaded", 1);
+        Future<List<Secret>> follower = executor.submit(() -> coalescer.read(7L, 1L, failing));
+        awaitCount("coalesced", 1);
+        release.countDown();
+
+        ExecutionException leaderError = assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS));
+        ExecutionException followerError = assertThrows(ExecutionException.class, () -> follower.get(10, TimeUnit.SECONDS));
+        assertSame(failure, leaderError.getCause());
+        assertSame(failure, followerError.getCause());
+
+        List<Secret> retried = coalescer.read(7L, 1L, () -> List.of(new Secret(1L, 7L, "v2")));
+        assertEquals("v2", retried.get(0).getContent());
+        assertEquals(2, count("loaded"));
+    }
+}
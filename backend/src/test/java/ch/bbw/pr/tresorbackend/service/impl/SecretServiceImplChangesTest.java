@@ -0,0 +1,206 @@
+package ch.bbw.pr.tresorbackend.service.impl;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretChanges;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import ch.bbw.pr.tresorbackend.service.BlindIndexService;
+import ch.bbw.pr.tresorbackend.service.DataKeyService;
+import ch.bbw.pr.tresorbackend.service.SecretDecryptionPipeline;
+import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+import ch.bbw.pr.tresorbackend.service.SecretMigrationService;
+import ch.bbw.pr.tresorbackend.service.SecretPlaintextCache;
+import ch.bbw.pr.tresorbackend.service.SecretSummaryService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultReadCoalescer;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretServiceImplChangesTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final long VERSION = 7;
+    private static final long FLOOR = 2;
+
+    // secret id -> change sequence; 2, 3 and 4 were written by one import and share version 3
+    private static final Map<Long, Long> ROWS = Map.of(1L, 1L, 2L, 3L, 3L, 3L, 4L, 3L, 5L, 6L, 6L, 8L);
+    // deleted secret id -> change sequence of the delete
+    private static final Map<Long, Long> TOMBSTONES = Map.of(10L, 2L, 11L, 4L, 12L, 7L);
+
+    private final SecretRepository secretRepository = mock(SecretRepository.class);
+    private final SecretTombstoneRepository tombstoneRepository = mock(SecretTombstoneRepository.class);
+    private final VaultVersionService vaultVersionService = mock(VaultVersionService.class);
+    private SecretServiceImpl service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+        SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+        when(encryptionService.decrypt(any(Secret.class), eq(KEY), eq(1L), anyString()))
+                .thenAnswer(invocation -> "content-" + ((Secret) invocation.getArgument(0)).getId());
+        when(vaultVersionService.currentVersion(1L)).thenReturn(VERSION);
+        when(vaultVersionService.tombstoneFloor(1L)).thenReturn(FLOOR);
+
+        // Same semantics as the JPQL queries: keyset on (changeSeq, id), nothing above the snapshot
+        when(secretRepository.findChangedAfter(eq(1L), anyLong(), anyLong(), anyLong(), any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    long since = invocation.getArgument(1);
+                    long afterId = invocation.getArgument(2);
+                    long upTo = invocation.getArgument(3);
+                    Pageable pageable = invocation.getArgument(4);
+                    return ROWS.entrySet().stream()
+                            .filter(row -> row.getValue() <= upTo
+                                    && (row.getValue() > since || (row.getValue() == since && row.getKey() > afterId)))
+                            .sorted(Map.Entry.<Long, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                            .limit(pageable.getPageSize())
+                            .map(row -> row(row.getKey(), row.getValue()))
+                            .toList();
+                });
+        when(tombstoneRepository.findDeletedSecretIds(eq(1L), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long since = invocation.getArgument(1);
+            long upTo = invocation.getArgument(2);
+            return TOMBSTONES.entrySet().stream()
+                    .filter(tombstone -> tombstone.getValue() > since && tombstone.getValue() <= upTo)
+                    .sorted(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .toList();
+        });
+
+        service = new SecretServiceImpl(secretRepository, mock(SecretChunkRepository.class), encryptionService,
+                dataKeyService, new SecretDecryptionPipeline(Executors.newFixedThreadPool(2), 4, 2),
+                mock(SecretMigrationService.class), userService, mock(BlindIndexService.class),
+                mock(SecretSummaryService.class), vaultVersionService, mock(SecretPlaintextCache.class),
+                mock(VaultReadCoalescer.class), mock(VaultChangeFeed.class), tombstoneRepository);
+        ReflectionTestUtils.setField(service, "maxPageSize", 100);
+    }
+
+    private static Secret row(long id, long changeSeq) {
+        Secret secret = new Secret(id, 1L, null);
+        secret.setChangeSeq(changeSeq);
+        return secret;
+    }
+
+    // Follows nextSince/nextAfter like the frontend does and collects every page
+    private List<SecretChanges> syncAll(Long since, int size) {
+        List<SecretChanges> pages = new ArrayList<>();
+        SecretChanges page = service.getChanges(1L, since, null, size);
+        pages.add(page);
+        while (page.getNextSince() != null) {
+            page = service.getChanges(1L, page.getNextSince(), page.getNextAfter(), size);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static List<Long> changedIds(List<SecretChanges> pages) {
+        return pages.stream().flatMap(page -> page.getChanged().stream()).map(Secret::getId).toList();
+    }
+
+    private static List<Long> deletedIds(List<SecretChanges> pages) {
+        return pages.stream().flatMap(page -> page.getDeleted().stream()).toList();
+    }
+
+    @Test
+    void fullSyncPagesThroughRowsSharingAVersion() {
+        List<SecretChanges> pages = syncAll(null, 2);
+
+        // 6 is above the version snapshot and comes with the next sync
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), changedIds(pages));
+        assertEquals(3, pages.size());
+        assertEquals(3L, pages.get(0).getNextSince());
+        assertEquals(2L, pages.get(0).getNextAfter());
+        // Deletions are only reported from the second page on, for ids the client never received
+        assertTrue(pages.get(0).getDeleted().isEmpty());
+        assertEquals("content-1", pages.get(0).getChanged().get(0).getContent());
+        pages.forEach(page -> assertEquals(VERSION, page.getVersion()));
+    }
+
+    @Test
+    void deltaSyncReportsEachTombstoneOnceWithTheMatchingPage() {
+        List<SecretChanges> pages = syncAll(2L, 2);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L), changedIds(pages));
+        // 10 was deleted at version 2, which the client has already seen
+        assertEquals(List.of(11L, 12L), deletedIds(pages));
+        // The first page ends at version 3, deletions after it belong to later pages
+        assertTrue(pages.get(0).getDeleted().isEmpty());
+        SecretChanges last = pages.get(pages.size() - 1);
+        assertNull(last.getNextSince());
+        assertNull(last.getNextAfter());
+        assertFalse(last.isFullResync());
+    }
+
+    @Test
+    void deltaSyncDoesNotRepeatRowsOfTheKnownVersion() {
+        // The client already has all three rows of the import at version 3
+        List<SecretChanges> pages = syncAll(3L, 100);
+
+        assertEquals(1, pages.size());
+        assertEquals(List.of(5L), changedIds(pages));
+        assertEquals(List.of(11L, 12L), deletedIds(pages));
+    }
+
+    @Test
+    void upToDateClientGetsNothing() {
+        SecretChanges changes = service.getChanges(1L, VERSION, null, 100);
+
+        assertTrue(changes.getChanged().isEmpty());
+        assertTrue(changes.getDeleted().isEmpty());
+        assertNull(changes.getNextSince());
+        assertEquals(VERSION, changes.getVersion());
+    }
+
+    @Test
+    void sinceBelowTombstoneFloorRequiresFullResync() {
+        SecretChanges changes = service.getChanges(1L, FLOOR - 1, null, 2);
+
+        assertTrue(changes.isFullResync());
+        assertTrue(changes.getChanged().isEmpty());
+        assertTrue(changes.getDeleted().isEmpty());
+        assertEquals(VERSION, changes.getVersion());
+        verify(secretRepository, never()).findChangedAfter(anyLong(), anyLong(), anyLong(), anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    void sinceAtFloorAndContinuedPagesAreServed() {
+        assertFalse(service.getChanges(1L, FLOOR, null, 2).isFullResync());
+        // A sync that started above the floor keeps going even if the floor rises in between
+        when(vaultVersionService.tombstoneFloor(1L)).thenReturn(5L);
+        SecretChanges continued = service.getChanges(1L, 3L, 2L, 2);
+
+        assertFalse(continued.isFullResync());
+        assertEquals(List.of(3L, 4L), continued.getChanged().stream().map(Secret::getId).toList());
+    }
+}
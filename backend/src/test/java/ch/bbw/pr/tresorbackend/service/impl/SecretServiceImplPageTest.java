@@ -0,0 +1,132 @@
+package ch.bbw.pr.tresorbackend.service.impl;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretPage;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import ch.bbw.pr.tresorbackend.service.BlindIndexService;
+import ch.bbw.pr.tresorbackend.service.DataKeyService;
+import ch.bbw.pr.tresorbackend.service.SecretDecryptionPipeline;
+import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+import ch.bbw.pr.tresorbackend.service.SecretMigrationService;
+import ch.bbw.pr.tresorbackend.service.SecretPlaintextCache;
+import ch.bbw.pr.tresorbackend.service.SecretSummaryService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultReadCoalescer;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretServiceImplPageTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final int MAX_PAGE_SIZE = 4;
+    private static final long ROWS = 7;
+
+    private final SecretRepository secretRepository = mock(SecretRepository.class);
+    private SecretServiceImpl service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+        SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+        when(encryptionService.decrypt(any(Secret.class), eq(KEY), eq(1L), anyString()))
+                .thenAnswer(invocation -> "content-" + ((Secret) invocation.getArgument(0)).getId());
+
+        // Same semantics as the JPQL query: ids 1..7 of the user above the cursor, in id order
+        when(secretRepository.findPageAfter(eq(1L), anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(1);
+            Pageable pageable = invocation.getArgument(2);
+            return LongStream.rangeClosed(1, ROWS)
+                    .filter(id -> id > afterId)
+                    .limit(pageable.getPageSize())
+                    .mapToObj(id -> new Secret(id, 1L, null))
+                    .toList();
+        });
+
+        service = new SecretServiceImpl(secretRepository, mock(SecretChunkRepository.class), encryptionService,
+                dataKeyService, new SecretDecryptionPipeline(Executors.newFixedThreadPool(2), 4, 2),
+                mock(SecretMigrationService.class), userService, mock(BlindIndexService.class),
+                mock(SecretSummaryService.class), mock(VaultVersionService.class), mock(SecretPlaintextCache.class),
+                mock(VaultReadCoalescer.class), mock(VaultChangeFeed.class), mock(SecretTombstoneRepository.class));
+        ReflectionTestUtils.setField(service, "maxPageSize", MAX_PAGE_SIZE);
+    }
+
+    private static List<Long> ids(SecretPage<Secret> page) {
+        return page.getItems().stream().map(Secret::getId).toList();
+    }
+
+    @Test
+    void cursorWalksEveryRowOnce() {
+        List<Long> seen = new ArrayList<>();
+        List<Long> cursors = new ArrayList<>();
+        SecretPage<Secret> page = service.getSecretsPage(1L, null, 3);
+        seen.addAll(ids(page));
+        while (page.getNextCursor() != null) {
+            cursors.add(page.getNextCursor());
+            page = service.getSecretsPage(1L, page.getNextCursor(), 3);
+            seen.addAll(ids(page));
+        }
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), seen);
+        assertEquals(List.of(3L, 6L), cursors);
+        assertEquals("content-7", page.getItems().get(0).getContent());
+    }
+
+    @Test
+    void pageThatEndsOnTheLastRowHasNoCursor() {
+        SecretPage<Secret> page = service.getSecretsPage(1L, 3L, 4);
+
+        assertEquals(List.of(4L, 5L, 6L, 7L), ids(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void pageSizeIsCappedAtTheMaximum() {
+        SecretPage<Secret> page = service.getSecretsPage(1L, null, 1000);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), ids(page));
+        assertEquals(4L, page.getNextCursor());
+        // One extra row is read to detect the next page, never more
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(secretRepository).findPageAfter(eq(1L), eq(0L), pageable.capture());
+        assertEquals(MAX_PAGE_SIZE + 1, pageable.getValue().getPageSize());
+    }
+
+    @Test
+    void sizeBelowOneStillReturnsOneRow() {
+        SecretPage<Secret> page = service.getSecretsPage(1L, null, 0);
+
+        assertEquals(List.of(1L), ids(page));
+        assertEquals(1L, page.getNextCursor());
+    }
+}
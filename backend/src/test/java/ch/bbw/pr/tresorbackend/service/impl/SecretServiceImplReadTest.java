@@ -0,0 +1,117 @@
+package ch.bbw.pr.tresorbackend.service.impl;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import ch.bbw.pr.tresorbackend.service.BlindIndexService;
+import ch.bbw.pr.tresorbackend.service.DataKeyService;
+import ch.bbw.pr.tresorbackend.service.SecretDecryptionPipeline;
+import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+import ch.bbw.pr.tresorbackend.service.SecretMigrationService;
+import ch.bbw.pr.tresorbackend.service.SecretPlaintextCache;
+import ch.bbw.pr.tresorbackend.service.SecretSummaryService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultReadCoalescer;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretServiceImplReadTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final SecretRepository secretRepository = mock(SecretRepository.class);
+    private final SecretPlaintextCache plaintextCache = new SecretPlaintextCache(true, 1024, 60, new SimpleMeterRegistry());
+    private SecretServiceImpl service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User owner = new User();
+        owner.setId(1L);
+        owner.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(owner);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+
+        // Secret 5 of user 1 at revision 3
+        Secret stored = new Secret(5L, 1L, null);
+        stored.setRevision(3);
+        when(secretRepository.findById(5L)).thenAnswer(invocation -> Optional.of(copy(stored)));
+        when(secretRepository.findOwnerAndRevision(5L)).thenReturn(Optional.of(new SecretRepository.OwnerView() {
+            @Override
+            public Long getUserId() {
+                return 1L;
+            }
+
+            @Override
+            public long getRevision() {
+                return 3;
+            }
+        }));
+        SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+        when(encryptionService.decrypt(any(Secret.class), eq(KEY), eq(1L), eq("hash"))).thenReturn("stored");
+
+        service = new SecretServiceImpl(secretRepository, mock(SecretChunkRepository.class), encryptionService,
+                dataKeyService, new SecretDecryptionPipeline(Executors.newFixedThreadPool(2), 4, 2),
+                mock(SecretMigrationService.class), userService, mock(BlindIndexService.class),
+                mock(SecretSummaryService.class), mock(VaultVersionService.class), plaintextCache,
+                mock(VaultReadCoalescer.class), mock(VaultChangeFeed.class), mock(SecretTombstoneRepository.class));
+    }
+
+    private static Secret copy(Secret secret) {
+        Secret copy = new Secret(secret.getId(), secret.getUserId(), secret.getContent());
+        copy.setRevision(secret.getRevision());
+        return copy;
+    }
+
+    @Test
+    void ownerIsServedFromTheCacheWithoutLoadingTheBody() {
+        plaintextCache.put(1L, 5L, 3, "cached");
+
+        assertEquals("cached", service.getSecretById(5L, 1L).getContent());
+        verify(secretRepository, never()).findById(5L);
+    }
+
+    @Test
+    void ownerReadFillsTheCache() {
+        assertEquals("stored", service.getSecretById(5L, 1L).getContent());
+
+        assertEquals("stored", plaintextCache.get(1L, 5L, 3));
+    }
+
+    @Test
+    void nonOwnerNeverGetsTheCachedPlaintext() {
+        plaintextCache.put(1L, 5L, 3, "cached");
+
+        Secret read = service.getSecretById(5L, 2L);
+
+        assertNotEquals("cached", read.getContent());
+        verify(secretRepository).findById(5L);
+    }
+
+    @Test
+    void nonOwnerReadDoesNotFillTheCache() {
+        service.getSecretById(5L, 2L);
+
+        assertEquals(0, plaintextCache.bytesInUse());
+    }
+}
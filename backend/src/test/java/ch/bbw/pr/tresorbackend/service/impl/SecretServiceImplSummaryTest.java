@@ -0,0 +1,117 @@
+package ch.bbw.pr.tresorbackend.service.impl;
+
+import ch.bbw.pr.tresorbackend.model.Secret;
+import ch.bbw.pr.tresorbackend.model.SecretPage;
+import ch.bbw.pr.tresorbackend.model.SecretSummary;
+import ch.bbw.pr.tresorbackend.model.User;
+import ch.bbw.pr.tresorbackend.repository.SecretChunkRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretRepository;
+import ch.bbw.pr.tresorbackend.repository.SecretTombstoneRepository;
+import ch.bbw.pr.tresorbackend.service.BlindIndexService;
+import ch.bbw.pr.tresorbackend.service.DataKeyService;
+import ch.bbw.pr.tresorbackend.service.SecretDecryptionPipeline;
+import ch.bbw.pr.tresorbackend.service.SecretEncryptionService;
+import ch.bbw.pr.tresorbackend.service.SecretMigrationService;
+import ch.bbw.pr.tresorbackend.service.SecretPlaintextCache;
+import ch.bbw.pr.tresorbackend.service.SecretSummaryService;
+import ch.bbw.pr.tresorbackend.service.UserService;
+import ch.bbw.pr.tresorbackend.service.VaultChangeFeed;
+import ch.bbw.pr.tresorbackend.service.VaultReadCoalescer;
+import ch.bbw.pr.tresorbackend.service.VaultVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecretServiceImplSummaryTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final SecretRepository secretRepository = mock(SecretRepository.class);
+    private final SecretEncryptionService encryptionService = mock(SecretEncryptionService.class);
+    private SecretServiceImpl service;
+
+    private record Row(Long id, byte[] metadata) implements SecretRepository.MetadataView {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public byte[] getMetadata() {
+            return metadata;
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("hash");
+        UserService userService = mock(UserService.class);
+        when(userService.getUserById(1L)).thenReturn(user);
+        DataKeyService dataKeyService = mock(DataKeyService.class);
+        when(dataKeyService.getDataKey(1L, "hash")).thenReturn(KEY);
+
+        SecretSummaryService summaryService = mock(SecretSummaryService.class);
+        when(summaryService.decryptSummary(anyLong(), any(byte[].class), eq(KEY))).thenAnswer(invocation ->
+                new SecretSummary(invocation.getArgument(0), 1, "note", "metadata-" + invocation.getArgument(0)));
+        when(summaryService.toSummary(anyLong(), any())).thenAnswer(invocation ->
+                new SecretSummary(invocation.getArgument(0), 1, "note", "body-" + invocation.getArgument(0)));
+        when(summaryService.encryptMetadata(any(), eq(KEY))).thenReturn(new byte[1]);
+
+        service = new SecretServiceImpl(secretRepository, mock(SecretChunkRepository.class), encryptionService,
+                dataKeyService, new SecretDecryptionPipeline(Executors.newFixedThreadPool(2), 4, 2),
+                mock(SecretMigrationService.class), userService, mock(BlindIndexService.class),
+                summaryService, mock(VaultVersionService.class), mock(SecretPlaintextCache.class),
+                mock(VaultReadCoalescer.class), mock(VaultChangeFeed.class), mock(SecretTombstoneRepository.class));
+        ReflectionTestUtils.setField(service, "maxPageSize", 100);
+    }
+
+    private static List<String> titles(SecretPage<SecretSummary> page) {
+        return page.getItems().stream().map(SecretSummary::getTitle).toList();
+    }
+
+    @Test
+    void summariesAreReadWithoutLoadingBodies() throws Exception {
+        when(secretRepository.findMetadataPageAfter(eq(1L), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(new Row(1L, new byte[1]), new Row(2L, new byte[1])));
+
+        SecretPage<SecretSummary> page = service.getSecretSummaries(1L, null, 10);
+
+        assertEquals(List.of("metadata-1", "metadata-2"), titles(page));
+        verify(secretRepository, never()).findById(anyLong());
+        verify(secretRepository, never()).findPageAfter(anyLong(), anyLong(), any(Pageable.class));
+        verify(encryptionService, never()).decrypt(any(Secret.class), any(), any(), any());
+    }
+
+    @Test
+    void rowWithoutMetadataIsSummarizedFromItsBodyOnce() throws Exception {
+        when(secretRepository.findMetadataPageAfter(eq(1L), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(new Row(1L, new byte[1]), new Row(2L, null)));
+        Secret legacy = new Secret(2L, 1L, null);
+        when(secretRepository.findById(2L)).thenReturn(Optional.of(legacy));
+        when(encryptionService.decrypt(legacy, KEY, 1L, "hash")).thenReturn("{}");
+
+        SecretPage<SecretSummary> page = service.getSecretSummaries(1L, null, 10);
+
+        assertEquals(List.of("metadata-1", "body-2"), titles(page));
+        verify(secretRepository).updateMetadata(eq(2L), any(byte[].class));
+        verify(secretRepository, never()).findById(1L);
+    }
+}
@@ -37,10 +37,27 @@ INSERT INTO `user` (`id`, `first_name`, `last_name`, `email`, `password`) VALUES
 CREATE TABLE secret (
     id int NOT NULL AUTO_INCREMENT,
     user_id int NOT NULL,
-    content json NOT NULL,
-    PRIMARY KEY (id)
+    content longtext NULL,
+    payload longblob NULL,
+    metadata blob NULL,
+    revision bigint NOT NULL DEFAULT 0,
+    change_seq bigint NOT NULL DEFAULT 0,
+    search_indexed boolean NOT NULL DEFAULT FALSE,
+    created_at datetime(6) NULL,
+    updated_at datetime(6) NULL,
+    PRIMARY KEY (id),
+    INDEX idx_secret_user_id (user_id, id),
+    INDEX idx_secret_user_change_seq (user_id, change_seq)
 );
 
+-- existing databases: content only holds not yet converted legacy rows
+-- (done automatically at startup by SecretSchemaMigration unless app.schema.auto-migrate=false)
+-- ALTER TABLE secret MODIFY content longtext NULL;
+-- ALTER TABLE secret ADD metadata blob NULL, ADD INDEX idx_secret_user_id (user_id, id);
+-- ALTER TABLE secret ADD revision bigint NOT NULL DEFAULT 0;
+-- ALTER TABLE secret ADD change_seq bigint NOT NULL DEFAULT 0, ADD created_at datetime(6) NULL,
+--    ADD updated_at datetime(6) NULL, ADD INDEX idx_secret_user_change_seq (user_id, change_seq);
+
 --
 -- table secret content
 --
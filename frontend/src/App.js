@@ -15,6 +15,7 @@ import Secrets from "./pages/secret/Secrets";
 import NewCredential from "./pages/secret/NewCredential";
 import NewCreditCard from "./pages/secret/NewCreditCard";
 import NewNote from "./pages/secret/NewNote";
+import EditSecret from "./pages/secret/EditSecret";
 import TwoFactorVerification from "./components/auth/TwoFactorVerification";
 import OAuth2Redirect from "./components/auth/OAuth2Redirect";
 import AdminDashboard from "./pages/admin/AdminDashboard";
@@ -83,6 +84,7 @@ function App() {
                     <Route path="/secret/newcredential" element={<ProtectedRoute><NewCredential /></ProtectedRoute>}/>
                     <Route path="/secret/newcreditcard" element={<ProtectedRoute><NewCreditCard /></ProtectedRoute>}/>
                     <Route path="/secret/newnote" element={<ProtectedRoute><NewNote /></ProtectedRoute>}/>
+                    <Route path="/secret/edit/:id" element={<ProtectedRoute><EditSecret /></ProtectedRoute>}/>
                     <Route path="/admin/dashboard" element={<AdminProtectedRoute><AdminDashboard /></AdminProtectedRoute>}/>
                     <Route path="*" element={<NoPage/>}/>
                 </Route>
@@ -3,18 +3,33 @@
  * @author Peter Rutschmann
  */
 
-import { post, get } from '../utils/apiClient';
+import { post, get, put, apiRequestWithETag } from '../utils/apiClient';
 import { API_URL } from '../config/api';
 
+const POST_SECRET_ATTEMPTS = 3;
+
 //Post secret to server
 export const postSecret = async ({userId, content}) => {
     // We need to send the content as a raw JSON object, not as a JSON string
     // The backend expects the content field to be valid JSON
+    // Retries after network errors reuse the key, so the server creates the secret only once
+    const idempotencyKey = crypto.randomUUID();
     try {
-        const data = await post('secrets', {
-            userId: userId,
-            content: JSON.stringify(content)
-        });
+        let data;
+        for (let attempt = 1; ; attempt++) {
+            try {
+                data = await post('secrets', {
+                    userId: userId,
+                    content: JSON.stringify(content)
+                }, { headers: { 'Idempotency-Key': idempotencyKey } });
+                break;
+            } catch (error) {
+                // fetch rejects with a TypeError when the request did not get a response
+                if (!(error instanceof TypeError) || attempt >= POST_SECRET_ATTEMPTS) {
+                    throw error;
+                }
+            }
+        }
         
         console.log('Secret successfully posted:', data);
         return data;
@@ -24,6 +39,68 @@ export const postSecret = async ({userId, content}) => {
     }
 };
 
+//get kind and title of one page of secrets, the full secret is loaded with its id
+export const getSecretSummariesforUser = async (userId, after) => {
+    try {
+        const query = after ? `?after=${after}` : '';
+        return await get(`secrets/user/${userId}/summaries${query}`);
+    } catch (error) {
+        console.error('Failed to get secret summaries:', error.message);
+        throw new Error('Failed to get secrets. ' + error.message);
+    }
+};
+
+//search the secrets of a user by title/url words and optionally kind
+export const searchSecretsforUser = async (userId, query, kind) => {
+    try {
+        const params = new URLSearchParams();
+        if (query) params.append('q', query);
+        if (kind) params.append('kind', kind);
+        return await get(`secrets/user/${userId}/search?${params.toString()}`);
+    } catch (error) {
+        console.error('Failed to search secrets:', error.message);
+        throw new Error('Failed to search secrets. ' + error.message);
+    }
+};
+
+//get how many secrets of a user are not searchable yet, {pending, complete}
+export const getSearchStatusforUser = async (userId) => {
+    try {
+        return await get(`secrets/user/${userId}/search/status`);
+    } catch (error) {
+        console.error('Failed to get search status:', error.message);
+        throw new Error('Failed to get search status. ' + error.message);
+    }
+};
+
+//get one secret and its ETag, pass the ETag to updateSecret so edits of an outdated copy are refused
+export const getSecretWithETag = async (secretId) => {
+    try {
+        const { data, etag } = await apiRequestWithETag(`/api/secrets/${secretId}`, { method: 'GET' });
+        return { secret: data, etag };
+    } catch (error) {
+        console.error('Failed to get secret:', error.message);
+        throw new Error('Failed to get secret. ' + error.message);
+    }
+};
+
+//update a secret; with the ETag from getSecretWithETag the server answers 412 if it was changed since
+export const updateSecret = async ({id, userId, content}, etag) => {
+    try {
+        return await put(`secrets/${id}`, {
+            userId: userId,
+            content: JSON.stringify(content)
+        }, etag ? { headers: { 'If-Match': etag } } : {});
+    } catch (error) {
+        console.error('Error updating secret:', error.message);
+        const failure = new Error(error.status === 412
+            ? 'This secret was changed in the meantime. Reload it to see the latest version.'
+            : 'Failed to update secret. ' + error.message);
+        failure.conflict = error.status === 412;
+        throw failure;
+    }
+};
+
 //get all secrets for a user by userId
 export const getSecretsforUser = async (userId) => {
     try {
@@ -0,0 +1,116 @@
+import React, { useCallback, useEffect, useState } from 'react';
+import { useNavigate, useParams } from 'react-router-dom';
+import { getSecretWithETag, updateSecret } from "../../comunication/FetchSecrets";
+import { useAuth } from "../../context/AuthContext";
+
+// Fields that describe the secret and are not edited
+const FIXED_FIELDS = ['kind', 'kindid'];
+const HIDDEN_FIELDS = ['password', 'cvv'];
+
+/**
+ * EditSecret
+ * Edits the fields of one secret. The ETag of the loaded copy is sent as If-Match,
+ * so saving fails instead of overwriting a change made elsewhere in the meantime.
+ */
+function EditSecret() {
+    const { id } = useParams();
+    const { userId } = useAuth();
+    const [values, setValues] = useState(null);
+    const [etag, setEtag] = useState(null);
+    const [errorMessage, setErrorMessage] = useState('');
+    const [conflict, setConflict] = useState(false);
+
+    const navigate = useNavigate();
+
+    const load = useCallback(async () => {
+        setErrorMessage('');
+        setConflict(false);
+        try {
+            const { secret, etag } = await getSecretWithETag(id);
+            const content = typeof secret.content === 'string' ? JSON.parse(secret.content) : secret.content;
+            setValues(content);
+            setEtag(etag);
+        } catch (error) {
+            console.error('Failed to load secret:', error.message);
+            setErrorMessage(error.message);
+        }
+    }, [id]);
+
+    useEffect(() => {
+        load();
+    }, [load]);
+
+    const handleSubmit = async (e) => {
+        e.preventDefault();
+        setErrorMessage('');
+
+        if (!userId) {
+            setErrorMessage('You must be logged in to edit a secret');
+            return;
+        }
+
+        try {
+            await updateSecret({ id, userId, content: values }, etag);
+            navigate('/secret/secrets');
+        } catch (error) {
+            setConflict(!!error.conflict);
+            setErrorMessage(error.message);
+        }
+    };
+
+    const renderField = (name) => {
+        const onChange = (e) => setValues(prevValues => ({...prevValues, [name]: e.target.value}));
+        return (
+            <div className="form-group" key={name}>
+                <label htmlFor={name}>{name}</label>
+                {name === 'content' ? (
+                    <textarea
+                        id={name}
+                        rows={6}
+                        style={{ resize: 'vertical', minHeight: '120px' }}
+                        value={values[name] ?? ''}
+                        onChange={onChange}
+                        className="mb-3"
+                    />
+                ) : (
+                    <input
+                        id={name}
+                        type={HIDDEN_FIELDS.includes(name) ? 'password' : 'text'}
+                        value={values[name] ?? ''}
+                        onChange={onChange}
+                        className="mb-3"
+                    />
+                )}
+            </div>
+        );
+    };
+
+    return (
+        <div className="card">
+            <div className="card-body">
+                <h2 className="card-title">Edit Secret {id}</h2>
+                {errorMessage && (
+                    <div className="alert alert-danger">
+                        {errorMessage}
+                        {conflict && (
+                            <button type="button" className="btn btn-sm btn-outline-secondary ms-3" onClick={load}>
+                                Reload
+                            </button>
+                        )}
+                    </div>
+                )}
+                {values && typeof values === 'object' && (
+                    <form onSubmit={handleSubmit}>
+                        {Object.keys(values).filter(name => !FIXED_FIELDS.includes(name)).map(renderField)}
+                        <div className="d-flex justify-content-between">
+                            <button type="button" className="btn btn-secondary" onClick={() => navigate('/secret/secrets')}>Cancel</button>
+                            <button type="submit" className="btn" disabled={conflict}>Save</button>
+                        </div>
+                    </form>
+                )}
+            </div>
+        </div>
+    );
+}
+
+export default EditSecret;
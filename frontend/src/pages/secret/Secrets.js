@@ -1,18 +1,38 @@
 import '../../App.css';
-import React, {useEffect, useState} from 'react';
-import {getSecretsforUser} from "../../comunication/FetchSecrets";
+import React, {useCallback, useEffect, useState} from 'react';
+import {getSecretSummariesforUser, getSecretWithETag, getSearchStatusforUser, searchSecretsforUser} from "../../comunication/FetchSecrets";
 import { useAuth } from "../../context/AuthContext";
 import { Link } from 'react-router-dom';
 
+const KIND_LABELS = { credential: 'Login Credential', creditcard: 'Credit Card', note: 'Note' };
+
 /**
  * Secrets
+ * The list shows kind and title of each secret, a secret is only loaded and decrypted when it is opened.
  * @author Peter Rutschmann
  */
 const Secrets = () => {
     const { userId, isAuthenticated } = useAuth();
+    const [summaries, setSummaries] = useState([]);
+    const [nextCursor, setNextCursor] = useState(null);
+    const [opened, setOpened] = useState({});
+    const [openingId, setOpeningId] = useState(null);
     const [secrets, setSecrets] = useState([]);
     const [errorMessage, setErrorMessage] = useState('');
     const [loading, setLoading] = useState(false);
+    const [loadingMore, setLoadingMore] = useState(false);
+    const [query, setQuery] = useState('');
+    const [kind, setKind] = useState('');
+    const [searching, setSearching] = useState(false);
+    const [searchPending, setSearchPending] = useState(0);
+
+    // First page of summaries, later pages are appended by handleLoadMore
+    const loadSummaries = useCallback(async () => {
+        const page = await getSecretSummariesforUser(userId);
+        setSummaries(page.items);
+        setNextCursor(page.nextCursor);
+        setOpened({});
+    }, [userId]);
 
     useEffect(() => {
         const fetchSecrets = async () => {
@@ -27,9 +47,7 @@ const Secrets = () => {
             }
             
             try {
-                const data = await getSecretsforUser(userId);
-                console.log('Fetched secrets:', data);
-                setSecrets(data);
+                await loadSummaries();
             } catch (error) {
                 console.error('Failed to fetch secrets:', error.message);
                 setErrorMessage(error.message || 'Failed to fetch secrets');
@@ -39,7 +57,85 @@ const Secrets = () => {
         };
         
         fetchSecrets();
-    }, [userId, isAuthenticated]);
+    }, [userId, isAuthenticated, loadSummaries]);
+
+    const handleLoadMore = async () => {
+        setErrorMessage('');
+        setLoadingMore(true);
+        try {
+            const page = await getSecretSummariesforUser(userId, nextCursor);
+            setSummaries(prevSummaries => [...prevSummaries, ...page.items]);
+            setNextCursor(page.nextCursor);
+        } catch (error) {
+            console.error('Failed to fetch secrets:', error.message);
+            setErrorMessage(error.message || 'Failed to fetch secrets');
+        } finally {
+            setLoadingMore(false);
+        }
+    };
+
+    const handleOpen = async (secretId) => {
+        setErrorMessage('');
+        setOpeningId(secretId);
+        try {
+            const { secret } = await getSecretWithETag(secretId);
+            setOpened(prevOpened => ({...prevOpened, [secretId]: secret}));
+        } catch (error) {
+            console.error('Failed to fetch secret:', error.message);
+            setErrorMessage(error.message || 'Failed to fetch secret');
+        } finally {
+            setOpeningId(null);
+        }
+    };
+
+    const handleClose = (secretId) => {
+        setOpened(prevOpened => {
+            const { [secretId]: closed, ...rest } = prevOpened;
+            return rest;
+        });
+    };
+
+    // Search matches whole words of title and URL; while older secrets are still being indexed it may miss some
+    const handleSearch = async (e) => {
+        e.preventDefault();
+        if (!query.trim() && !kind) {
+            return handleClearSearch();
+        }
+        setErrorMessage('');
+        setLoading(true);
+        try {
+            const [data, status] = await Promise.all([
+                searchSecretsforUser(userId, query.trim(), kind),
+                getSearchStatusforUser(userId)
+            ]);
+            setSecrets(data);
+            setSearchPending(status.pending);
+            setSearching(true);
+        } catch (error) {
+            console.error('Failed to search secrets:', error.message);
+            setErrorMessage(error.message || 'Failed to search secrets');
+        } finally {
+            setLoading(false);
+        }
+    };
+
+    const handleClearSearch = async () => {
+        setQuery('');
+        setKind('');
+        setSearching(false);
+        setSearchPending(0);
+        setSecrets([]);
+        setErrorMessage('');
+        setLoading(true);
+        try {
+            await loadSummaries();
+        } catch (error) {
+            console.error('Failed to fetch secrets:', error.message);
+            setErrorMessage(error.message || 'Failed to fetch secrets');
+        } finally {
+            setLoading(false);
+        }
+    };
 
     // Helper function to parse the content
     const parseContent = (content) => {
@@ -62,7 +158,7 @@ const Secrets = () => {
                 <div className="card-body">
                     <div className="d-flex justify-content-between align-items-center mb-3">
                         <h3 className="card-title mb-0">Login Credential</h3>
-                        <span className="p-2" style={{ color: '#000', fontWeight: '500' }}>ID: {secretId}</span>
+                        <span className="p-2" style={{ color: '#000', fontWeight: '500' }}>ID: {secretId} <Link to={`/secret/edit/${secretId}`} style={{ color: '#000' }}>Edit</Link></span>
                     </div>
                     <div className="d-flex gap-3 mb-2">
                         <div style={{ flex: '1' }}>
@@ -91,7 +187,7 @@ const Secrets = () => {
                 <div className="card-body" style={{ background: 'linear-gradient(135deg, #3f37c9 0%, #4cc9f0 100%)' }}>
                     <div className="d-flex justify-content-between align-items-center mb-4">
                         <h3 className="card-title mb-0" style={{ color: 'white' }}>Credit Card</h3>
-                        <span className="p-2" style={{ color: 'white', fontWeight: '500' }}>ID: {secretId}</span>
+                        <span className="p-2" style={{ color: 'white', fontWeight: '500' }}>ID: {secretId} <Link to={`/secret/edit/${secretId}`} style={{ color: 'white' }}>Edit</Link></span>
                     </div>
                     <div style={{ color: 'white' }}>
                         <p className="mb-1" style={{ fontSize: '0.875rem', opacity: 0.8 }}>Card Number</p>
@@ -126,7 +222,7 @@ const Secrets = () => {
                 <div className="card-body" style={{ backgroundColor: '#fffbeb', borderLeft: '4px solid #fbbf24' }}>
                     <div className="d-flex justify-content-between align-items-center mb-3">
                         <h3 className="card-title mb-0">{parsedContent.title}</h3>
-                        <span className="p-2" style={{ color: '#000', fontWeight: '500' }}>ID: {secretId}</span>
+                        <span className="p-2" style={{ color: '#000', fontWeight: '500' }}>ID: {secretId} <Link to={`/secret/edit/${secretId}`} style={{ color: '#000' }}>Edit</Link></span>
                     </div>
                     <div style={{ backgroundColor: 'white', padding: '1rem', borderRadius: '0.375rem', minHeight: '100px' }}>
                         <p style={{ whiteSpace: 'pre-wrap' }}>{parsedContent.content}</p>
@@ -136,6 +232,41 @@ const Secrets = () => {
         );
     };
 
+    // Render the list entry of a secret that is not opened
+    const renderSummary = (summary) => {
+        return (
+            <div className="card mb-4" key={summary.id}>
+                <div className="card-body">
+                    <div className="d-flex justify-content-between align-items-center">
+                        <div>
+                            <p className="mb-1" style={{ color: '#6c757d', fontSize: '0.875rem' }}>{KIND_LABELS[summary.kind] || 'Secret'}</p>
+                            <h3 className="card-title mb-0">{summary.title || 'Untitled'}</h3>
+                        </div>
+                        <span className="p-2" style={{ color: '#000', fontWeight: '500' }}>
+                            ID: {summary.id}{' '}
+                            <button type="button" className="btn btn-sm btn-outline-secondary" disabled={openingId === summary.id} onClick={() => handleOpen(summary.id)}>
+                                {openingId === summary.id ? 'Opening...' : 'Show'}
+                            </button>{' '}
+                            <Link to={`/secret/edit/${summary.id}`} style={{ color: '#000' }}>Edit</Link>
+                        </span>
+                    </div>
+                </div>
+            </div>
+        );
+    };
+
+    // Render an opened secret with a way back to its list entry
+    const renderOpened = (secret) => {
+        return (
+            <div key={secret.id}>
+                {renderSecret(secret)}
+                <div className="text-end mb-4" style={{ marginTop: '-1rem' }}>
+                    <button type="button" className="btn btn-sm btn-outline-secondary" onClick={() => handleClose(secret.id)}>Hide</button>
+                </div>
+            </div>
+        );
+    };
+
     // Determine which type of secret to render
     const renderSecret = (secret) => {
         const content = parseContent(secret.content);
@@ -225,6 +356,32 @@ const Secrets = () => {
                     </div>
                 </div>
                 
+                <form className="d-flex gap-2 mb-4" onSubmit={handleSearch}>
+                    <input
+                        type="search"
+                        className="form-control"
+                        placeholder="Search title or website"
+                        value={query}
+                        onChange={(e) => setQuery(e.target.value)}
+                    />
+                    <select className="form-select" style={{ maxWidth: '12rem' }} value={kind} onChange={(e) => setKind(e.target.value)}>
+                        <option value="">All kinds</option>
+                        <option value="credential">Credentials</option>
+                        <option value="creditcard">Credit Cards</option>
+                        <option value="note">Notes</option>
+                    </select>
+                    <button type="submit" className="btn btn-primary">Search</button>
+                    {searching && (
+                        <button type="button" className="btn btn-outline-secondary" onClick={handleClearSearch}>Clear</button>
+                    )}
+                </form>
+
+                {searching && searchPending > 0 && (
+                    <div className="alert alert-info">
+                        {searchPending} older secret(s) are still being indexed and may be missing from the results.
+                    </div>
+                )}
+
                 {errorMessage && <div className="alert alert-danger">{errorMessage}</div>}
                 
                 {loading ? (
@@ -233,9 +390,26 @@ const Secrets = () => {
                     </div>
                 ) : (
                     <div>
-                        {secrets?.length > 0 ? (
+                        {searching ? (
+                            secrets?.length > 0 ? (
+                                <div>
+                                    {secrets.map(secret => renderSecret(secret))}
+                                </div>
+                            ) : (
+                                <div className="text-center p-5">
+                                    <p>No secrets match your search.</p>
+                                </div>
+                            )
+                        ) : summaries?.length > 0 ? (
                             <div>
-                                {secrets.map(secret => renderSecret(secret))}
+                                {summaries.map(summary => opened[summary.id] ? renderOpened(opened[summary.id]) : renderSummary(summary))}
+                                {nextCursor && (
+                                    <div className="text-center">
+                                        <button type="button" className="btn btn-outline-secondary" disabled={loadingMore} onClick={handleLoadMore}>
+                                            {loadingMore ? 'Loading...' : 'Load more'}
+                                        </button>
+                                    </div>
+                                )}
                             </div>
                         ) : (
                             <div className="text-center p-5">
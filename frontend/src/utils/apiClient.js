@@ -12,6 +12,25 @@ import { API_URL } from '../config/api';
  * @returns {Promise<any>} Response data
  */
 export const apiRequest = async (endpoint, options = {}) => {
+  const response = await send(endpoint, options);
+  
+  // Parse and return response data
+  return response.json();
+};
+
+/**
+ * Make an authenticated API request and keep the ETag of the response,
+ * to send it back as If-Match when the resource is changed
+ * @param {string} endpoint - API endpoint (without base URL)
+ * @param {Object} options - Fetch options
+ * @returns {Promise<{data: any, etag: string|null}>} Response data and ETag
+ */
+export const apiRequestWithETag = async (endpoint, options = {}) => {
+  const response = await send(endpoint, options);
+  return { data: await response.json(), etag: response.headers.get('ETag') };
+};
+
+const send = async (endpoint, options) => {
   // Get JWT token from localStorage
   const token = localStorage.getItem('token');
   
@@ -31,15 +50,15 @@ export const apiRequest = async (endpoint, options = {}) => {
     headers
   });
   
-  // Handle non-2xx responses
+  // Handle non-2xx responses, the status lets callers tell e.g. a 412 from other errors
   if (!response.ok) {
     // Try to parse error response
     const errorData = await response.json().catch(() => ({}));
-    throw new Error(errorData.error || errorData.message || `HTTP error! Status: ${response.status}`);
+    const error = new Error(errorData.error || errorData.message || `HTTP error! Status: ${response.status}`);
+    error.status = response.status;
+    throw error;
   }
-  
-  // Parse and return response data
-  return response.json();
+  return response;
 };
 
 /**